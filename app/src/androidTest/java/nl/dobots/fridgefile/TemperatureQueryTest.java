@@ -0,0 +1,164 @@
+package nl.dobots.fridgefile;
+
+import android.database.Cursor;
+import android.database.DatabaseUtils;
+import android.database.sqlite.SQLiteDatabase;
+import android.test.AndroidTestCase;
+
+import java.lang.reflect.Method;
+import java.util.Random;
+
+/**
+ * Copyright (c) 2026 agent <agent@local>. All rights reserved.
+ * <p/>
+ * This code is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License version 3, as
+ * published by the Free Software Foundation.
+ * <p/>
+ * This code is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE.  See the GNU General Public License
+ * version 3 for more details (a copy is included in the LICENSE file that
+ * accompanied this code).
+ * <p/>
+ * Created on 18-10-26
+ *
+ * @author agent
+ */
+
+/**
+ * Checks that the query for a day of one device, as the statistics screen does it, goes by the
+ * key of the entries and stays fast on a database of Config.QUERY_BENCHMARK_ENTRIES entries.
+ * Filling it takes a while, so it is filled once for all tests of the class.
+ */
+public class TemperatureQueryTest extends AndroidTestCase {
+
+	// scratch database, filled by the first test and deleted after the last one
+	private static final String DATABASE_NAME = "temperature_query_test.db";
+
+	private static final int DEVICES = 20;
+	// a sample per minute of every device, over a bit more than two months
+	private static final long SAMPLE_INTERVAL = 60 * 1000L;
+	private static final int SAMPLES_PER_DEVICE = Config.QUERY_BENCHMARK_ENTRIES / DEVICES;
+	private static final long DAY = 24 * 3600 * 1000L;
+	private static final int DAYS = (int) (SAMPLES_PER_DEVICE * SAMPLE_INTERVAL / DAY);
+	private static final long START_TIME = 1500000000000L;
+	// entries written per transaction while filling
+	private static final int FLUSH_SIZE = 10000;
+
+	private static final int QUERIES = 50;
+	// mean time of a day query, generous for slow devices
+	private static final long MAX_QUERY_MILLIS = 100;
+
+	private static boolean sFilled;
+	private static int sTestsRun;
+
+	private TemperatureDbAdapter mAdapter;
+
+	@Override
+	protected void setUp() throws Exception {
+		super.setUp();
+		if (!sFilled) {
+			getContext().deleteDatabase(DATABASE_NAME);
+		}
+		mAdapter = new TemperatureDbAdapter(getContext(), DATABASE_NAME).open();
+		if (!sFilled) {
+			fill();
+			sFilled = true;
+		}
+	}
+
+	@Override
+	protected void tearDown() throws Exception {
+		mAdapter.close();
+		if (++sTestsRun == countTests()) {
+			getContext().deleteDatabase(DATABASE_NAME);
+			sFilled = false;
+			sTestsRun = 0;
+		}
+		super.tearDown();
+	}
+
+	// entries of all devices interleaved in time, like they come in
+	private void fill() {
+		for (int i = 0; i < SAMPLES_PER_DEVICE; i++) {
+			for (int device = 0; device < DEVICES; device++) {
+				mAdapter.queueEntry(address(device), START_TIME + i * SAMPLE_INTERVAL, 4 + (i + device) % 5);
+			}
+			if (mAdapter.getPendingCount() >= FLUSH_SIZE) {
+				mAdapter.flush();
+			}
+		}
+		mAdapter.flush();
+	}
+
+	private int countTests() {
+		int tests = 0;
+		for (Method method : getClass().getMethods()) {
+			if (method.getName().startsWith("test") && method.getParameterTypes().length == 0) {
+				tests++;
+			}
+		}
+		return tests;
+	}
+
+	private static String address(int device) {
+		return String.format("00:00:00:00:00:%02X", device);
+	}
+
+	public void testFilled() {
+		mAdapter.close();
+		FridgeDatabase database = new FridgeDatabase(getContext(), DATABASE_NAME);
+		try {
+			long entries = DatabaseUtils.queryNumEntries(database.getDatabase(), TemperatureDbAdapter.TABLE_NAME);
+			assertEquals(Config.QUERY_BENCHMARK_ENTRIES, entries);
+		} finally {
+			database.close();
+		}
+		// tearDown closes it again
+		mAdapter = new TemperatureDbAdapter(getContext(), DATABASE_NAME).open();
+	}
+
+	public void testDayQueryUsesKey() {
+		mAdapter.close();
+		FridgeDatabase database = new FridgeDatabase(getContext(), DATABASE_NAME);
+		try {
+			SQLiteDatabase db = database.getDatabase();
+			Cursor cursor = db.rawQuery("explain query plan select " + TemperatureDbAdapter.KEY_DATETIME + ", " +
+					TemperatureDbAdapter.KEY_TEMPERATURE + " from " + TemperatureDbAdapter.TABLE_NAME +
+					" where " + TemperatureDbAdapter.KEY_DEVICE_ID + "=? AND " + TemperatureDbAdapter.KEY_DATETIME +
+					" between ? and ? order by " + TemperatureDbAdapter.KEY_DATETIME,
+					new String[] { "1", String.valueOf(START_TIME), String.valueOf(START_TIME + DAY) });
+			try {
+				assertTrue(cursor.moveToFirst());
+				// id, parent, unused and the description of the step
+				String detail = cursor.getString(cursor.getColumnCount() - 1);
+				assertTrue(detail, detail.contains("PRIMARY KEY") || detail.contains("INDEX"));
+				assertFalse(detail, detail.contains("TEMP B-TREE"));
+			} finally {
+				cursor.close();
+			}
+		} finally {
+			database.close();
+		}
+		// tearDown closes it again
+		mAdapter = new TemperatureDbAdapter(getContext(), DATABASE_NAME).open();
+	}
+
+	public void testDayQueryLatency() {
+		TemperatureSeries series = new TemperatureSeries();
+		// the first query also loads the device ids
+		mAdapter.fetchSeries(address(0), START_TIME, START_TIME + DAY, series);
+		assertEquals(DAY / SAMPLE_INTERVAL + 1, series.size());
+
+		// days of any device, all over the range
+		Random random = new Random(42);
+		long start = System.nanoTime();
+		for (int i = 0; i < QUERIES; i++) {
+			long dayStart = START_TIME + random.nextInt(DAYS) * DAY;
+			mAdapter.fetchSeries(address(random.nextInt(DEVICES)), dayStart, dayStart + DAY, series);
+		}
+		long mean = (System.nanoTime() - start) / QUERIES / 1000000;
+		assertTrue("day query took " + mean + " ms", mean <= MAX_QUERY_MILLIS);
+	}
+}
@@ -5,12 +5,16 @@ import android.content.Context;
 import android.database.Cursor;
 import android.database.SQLException;
 import android.database.sqlite.SQLiteDatabase;
-import android.database.sqlite.SQLiteOpenHelper;
+import android.database.sqlite.SQLiteStatement;
 import android.util.Log;
 
 import java.text.ParseException;
 import java.text.SimpleDateFormat;
+import java.util.ArrayList;
 import java.util.Date;
+import java.util.List;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
 
 /**
  * Copyright (c) 2015 Dominik Egger <dominik@dobots.nl>. All rights reserved.
@@ -43,22 +47,100 @@ public class AlertDbAdapter {
 	public static final String KEY_ALERT = "alert";
 	public static final String KEY_ROWID = "_id";
 
-	// table name
+	// key names of the fields of the alert events
+	public static final String KEY_DEVICE_ID = "device_id";
+	public static final String KEY_DEVICE = "device";
+	public static final String KEY_KIND = "kind";
+	public static final String KEY_TEMPERATURE = "temperature";
+	public static final String KEY_END_DATETIME = "end_date";
+	public static final String KEY_ACKNOWLEDGED = "acknowledged";
+
+	// table name of the text entries, only kept for the alerts from before the events that
+	// couldn't be converted, see convertLegacyAlerts
 	public static final String TABLE_NAME = "alert_log";
 
-	// database helper to manage database creation and version management.
-	private DatabaseHelper mDbHelper;
+	// table of the alert events, one per alert of a device, from the time it went off (date)
+	// until it cleared (end_date, null while active). acknowledged is the time the user reset
+	// the alert, null if not yet
+	public static final String TABLE_EVENTS = "alert_event";
+
+	// indexes on the end and start of the events, of a device and of all devices. the events
+	// overlapping a range are the active ones and those that ended after its start, both
+	// found by the end, without going through all events that went off before the range
+	private static final String INDEX_EVENTS_DEVICE_END = "alert_event_device_end_date";
+	private static final String INDEX_EVENTS_END = "alert_event_end_date";
+
+	/**
+	 * Kinds of alerts, stored by their code
+	 */
+	public enum Kind {
+		TEMPERATURE_LOW(1),
+		TEMPERATURE_HIGH(2);
+
+		public final int code;
+
+		Kind(int code) {
+			this.code = code;
+		}
+
+		// null for an unknown code
+		public static Kind fromCode(int code) {
+			for (Kind kind : values()) {
+				if (kind.code == code) {
+					return kind;
+				}
+			}
+			return null;
+		}
+	}
+
+	// database the tables are in
+	private FridgeDatabase mDatabase;
 
 	// database object to read and write database
 	private SQLiteDatabase mDb;
 
-	// define query used to create the database
+	// statements compiled once when the database is opened
+	private SQLiteStatement mInsertEntry;
+	private SQLiteStatement mInsertEvent;
+	private SQLiteStatement mEndEvent;
+
+	// define query used to create the table, created by a migration of FridgeDatabase
 	public static final String DATABASE_CREATE =
 			"create table " + TABLE_NAME + " (" +
 					KEY_ROWID + " integer primary key autoincrement, " +
 					KEY_DATETIME + " integer not null," +
 					KEY_ALERT + " text" + " )";
 
+	// define queries used to create the events table and its index, created by a migration
+	// of FridgeDatabase. the device id refers to TemperatureDbAdapter.TABLE_DEVICES
+	static final String EVENTS_CREATE =
+			"create table " + TABLE_EVENTS + " (" +
+					KEY_ROWID + " integer primary key, " +
+					KEY_DEVICE_ID + " integer not null, " +
+					KEY_KIND + " integer not null, " +
+					KEY_TEMPERATURE + " integer, " +
+					KEY_DATETIME + " integer not null, " +
+					KEY_END_DATETIME + " integer, " +
+					KEY_ACKNOWLEDGED + " integer)";
+	static final String EVENTS_INDEX_CREATE =
+			"create index " + INDEX_EVENTS_DEVICE_END + " on " + TABLE_EVENTS + " (" +
+					KEY_DEVICE_ID + ", " + KEY_END_DATETIME + ", " + KEY_DATETIME + ")";
+
+	static final String EVENTS_END_INDEX_CREATE =
+			"create index " + INDEX_EVENTS_END + " on " + TABLE_EVENTS + " (" +
+					KEY_END_DATETIME + ", " + KEY_DATETIME + ")";
+
+	// text of the alerts logged before the events, e.g. "Temperature Low Alert (2 °C) for
+	// Device fridge [00:11:22:33:44:55]"
+	private static final Pattern LEGACY_ALERT = Pattern.compile(
+			"Temperature (Low|High) Alert \\((-?\\d+) °C\\) for Device .*\\[([0-9A-Fa-f:]+)\\]");
+
+	// columns of the events returned by the fetch methods
+	private static final String EVENT_COLUMNS = "e." + KEY_ROWID + ", d." + TemperatureDbAdapter.KEY_ADDRESS + " as " +
+			KEY_DEVICE + ", e." + KEY_KIND + ", e." + KEY_TEMPERATURE + ", e." + KEY_DATETIME + ", e." +
+			KEY_END_DATETIME + ", e." + KEY_ACKNOWLEDGED;
+
 	// application context
 	private final Context mContext;
 
@@ -70,29 +152,62 @@ public class AlertDbAdapter {
 	/// Code
 	///////////////////////////////////////////////////////////////////////////////////////////
 
-	// helper class to manage database creation and version management, see SQLiteOpenHelper
-	private static class DatabaseHelper extends SQLiteOpenHelper {
-
-		// default constructor
-		DatabaseHelper(Context context) {
-			super(context, Config.DATABASE_NAME, null, Config.DATABASE_VERSION);
+	/**
+	 * Turn the text alerts of TABLE_NAME into events, as far as the device, kind and
+	 * temperature can be read from the text. When they cleared isn't known, so they are ended
+	 * and acknowledged at the time they went off. Converted entries are deleted, the ones that
+	 * can't be read are kept as they are. Called by the migration to version 7 of
+	 * FridgeDatabase, and after the alerts of the old separate database are copied in.
+	 */
+	static void convertLegacyAlerts(SQLiteDatabase db) {
+		SQLiteStatement insert = db.compileStatement("insert into " + TABLE_EVENTS + " (" + KEY_DEVICE_ID + ", " +
+				KEY_KIND + ", " + KEY_TEMPERATURE + ", " + KEY_DATETIME + ", " + KEY_END_DATETIME + ", " +
+				KEY_ACKNOWLEDGED + ") values (?, ?, ?, ?, ?, ?)");
+		List<Long> converted = new ArrayList<>();
+		Cursor cursor = db.query(TABLE_NAME, new String[] { KEY_ROWID, KEY_DATETIME, KEY_ALERT }, null, null, null,
+				null, null);
+		try {
+			while (cursor.moveToNext()) {
+				Matcher matcher = LEGACY_ALERT.matcher(cursor.isNull(2) ? "" : cursor.getString(2));
+				if (!matcher.find()) {
+					continue;
+				}
+				long time = cursor.getLong(1);
+				Kind kind = matcher.group(1).equals("Low") ? Kind.TEMPERATURE_LOW : Kind.TEMPERATURE_HIGH;
+				insert.bindLong(1, getLegacyDeviceId(db, matcher.group(3).toUpperCase()));
+				insert.bindLong(2, kind.code);
+				insert.bindLong(3, Integer.parseInt(matcher.group(2)));
+				insert.bindLong(4, time);
+				insert.bindLong(5, time);
+				insert.bindLong(6, time);
+				insert.executeInsert();
+				converted.add(cursor.getLong(0));
+			}
+		} finally {
+			cursor.close();
+			insert.close();
 		}
-
-		// called when database should be created
-		@Override
-		public void onCreate(SQLiteDatabase db) {
-			db.execSQL(DATABASE_CREATE);
+		// not deleted while reading, that could move the rows the cursor still has to read
+		for (long id : converted) {
+			db.delete(TABLE_NAME, KEY_ROWID + "=" + id, null);
 		}
+		Log.i(TAG, "converted " + converted.size() + " alerts to events");
+	}
 
-		// called if version changed and database needs to be upgraded
-		@Override
-		public void onUpgrade(SQLiteDatabase db, int oldVersion, int newVersion) {
-			Log.w(TAG, "Upgrading database from version " + oldVersion + " to " +
-					newVersion + ", which will destroy all old data");
-			db.execSQL("DROP TABLE IF EXISTS notes");
-			onCreate(db);
+	// the device id cache of FridgeDatabase can't be used while it's being opened
+	private static long getLegacyDeviceId(SQLiteDatabase db, String address) {
+		Cursor cursor = db.query(TemperatureDbAdapter.TABLE_DEVICES, new String[] { TemperatureDbAdapter.KEY_ROWID },
+				TemperatureDbAdapter.KEY_ADDRESS + "=?", new String[] { address }, null, null, null);
+		try {
+			if (cursor.moveToFirst()) {
+				return cursor.getLong(0);
+			}
+		} finally {
+			cursor.close();
 		}
-
+		ContentValues values = new ContentValues();
+		values.put(TemperatureDbAdapter.KEY_ADDRESS, address);
+		return db.insertOrThrow(TemperatureDbAdapter.TABLE_DEVICES, null, values);
 	}
 
 	// default constructor, assigns context and initializes date formats
@@ -104,8 +219,8 @@ public class AlertDbAdapter {
 	}
 
 	/**
-	 * Open the database. If it cannot be opened, try to create a new
-	 * instance of the database. If it cannot be created, throw an exception to
+	 * Open the database of the app, see FridgeDatabase. If it cannot be opened, try to create
+	 * a new instance of the database. If it cannot be created, throw an exception to
 	 * signal the failure
 	 *
 	 * @return this (self reference, allowing this to be chained in an
@@ -113,20 +228,163 @@ public class AlertDbAdapter {
 	 * @throws SQLException if the database could be neither opened or created
 	 */
 	public AlertDbAdapter open() throws SQLException {
-		mDbHelper = new DatabaseHelper(mContext);
-		mDb = mDbHelper.getWritableDatabase();
+		mDatabase = FridgeDatabase.getInstance(mContext);
+		mDb = mDatabase.getDatabase();
+		mInsertEntry = mDb.compileStatement("insert into " + TABLE_NAME + " (" +
+				KEY_DATETIME + ", " + KEY_ALERT + ") values (?, ?)");
+		mInsertEvent = mDb.compileStatement("insert into " + TABLE_EVENTS + " (" +
+				KEY_DEVICE_ID + ", " + KEY_KIND + ", " + KEY_TEMPERATURE + ", " + KEY_DATETIME + ") values (?, ?, ?, ?)");
+		mEndEvent = mDb.compileStatement("update " + TABLE_EVENTS + " set " + KEY_END_DATETIME + " = ? where " +
+				KEY_DEVICE_ID + " = ? and " + KEY_KIND + " = ? and " + KEY_END_DATETIME + " is null");
 		return this;
 	}
 
 	/**
-	 * Close the database
+	 * Close the adapter, the database of the app stays open
 	 */
 	public void close() {
-		mDbHelper.close();
+		mInsertEntry.close();
+		mInsertEvent.close();
+		mEndEvent.close();
+	}
+
+	/**
+	 * Log that an alert of a device went off. If the same alert of the device is still
+	 * active, e.g. because the app restarted in between, no new event is made.
+	 *
+	 * @param address the address of the device
+	 * @param kind the kind of alert
+	 * @param temperature the temperature of the device when the alert went off
+	 * @param time the time the alert went off, in ms since the epoch
+	 * @return id of the event, or -1 if failed
+	 */
+	public synchronized long startAlert(String address, Kind kind, int temperature, long time) {
+		try {
+			mDb.beginTransaction();
+			try {
+				long deviceId = mDatabase.getDeviceId(address, true);
+				long id;
+				Cursor cursor = mDb.query(TABLE_EVENTS, new String[] {KEY_ROWID}, KEY_DEVICE_ID + "=? AND " +
+						KEY_KIND + "=? AND " + KEY_END_DATETIME + " is null",
+						new String[] { String.valueOf(deviceId), String.valueOf(kind.code) }, null, null, null);
+				try {
+					id = cursor.moveToFirst() ? cursor.getLong(0) : -1;
+				} finally {
+					cursor.close();
+				}
+				if (id == -1) {
+					mInsertEvent.bindLong(1, deviceId);
+					mInsertEvent.bindLong(2, kind.code);
+					mInsertEvent.bindLong(3, temperature);
+					mInsertEvent.bindLong(4, time);
+					id = mInsertEvent.executeInsert();
+				}
+				mDb.setTransactionSuccessful();
+				return id;
+			} finally {
+				mDb.endTransaction();
+			}
+		} catch (SQLException e) {
+			Log.e(TAG, "failed to write alert", e);
+			mDatabase.forgetDeviceIds();
+			return -1;
+		}
+	}
+
+	/**
+	 * Log that an alert of a device cleared
+	 *
+	 * @param address the address of the device
+	 * @param kind the kind of alert
+	 * @param time the time the alert cleared, in ms since the epoch
+	 * @return true if an active alert was ended
+	 */
+	public synchronized boolean endAlert(String address, Kind kind, long time) {
+		long deviceId = mDatabase.getDeviceId(address, false);
+		if (deviceId == -1) {
+			return false;
+		}
+		mEndEvent.bindLong(1, time);
+		mEndEvent.bindLong(2, deviceId);
+		mEndEvent.bindLong(3, kind.code);
+		try {
+			return mEndEvent.executeUpdateDelete() > 0;
+		} catch (SQLException e) {
+			Log.e(TAG, "failed to write alert", e);
+			return false;
+		}
+	}
+
+	/**
+	 * Acknowledge the alerts that weren't acknowledged yet
+	 *
+	 * @param address the address of the device, or null for all devices
+	 * @param time the time of the acknowledgement, in ms since the epoch
+	 * @return number of alerts acknowledged
+	 */
+	public int acknowledgeAlerts(String address, long time) {
+		ContentValues values = new ContentValues();
+		values.put(KEY_ACKNOWLEDGED, time);
+		if (address == null) {
+			return mDb.update(TABLE_EVENTS, values, KEY_ACKNOWLEDGED + " is null", null);
+		}
+		String[] args = new String[] { String.valueOf(mDatabase.getDeviceId(address, false)) };
+		return mDb.update(TABLE_EVENTS, values, KEY_DEVICE_ID + "=? AND " + KEY_ACKNOWLEDGED + " is null", args);
 	}
 
 	/**
-	 * Create a new entry using the date and alert provided. If the entry is
+	 * Fetch the alerts of a device that were active during the given range, e.g. to show
+	 * them on its chart. The cursor has the columns _id, device (the address), kind,
+	 * temperature, date, end_date and acknowledged, ordered by date.
+	 *
+	 * @param address the address of the device
+	 * @param startTime start of the range (inclusive)
+	 * @param endTime end of the range (inclusive)
+	 * @return cursor to access the alerts
+	 */
+	public Cursor fetchAlerts(String address, Date startTime, Date endTime) {
+		String device = String.valueOf(mDatabase.getDeviceId(address, false));
+		String start = String.valueOf(startTime.getTime());
+		String end = String.valueOf(endTime.getTime());
+		Cursor mCursor = mDb.rawQuery(getOverlapQuery("e." + KEY_DEVICE_ID + "=? AND "),
+				new String[] { device, end, device, start, end });
+		if (mCursor != null) {
+			mCursor.moveToFirst();
+		}
+		return mCursor;
+	}
+
+	/**
+	 * Fetch the alerts of all devices that were active during the given range, see fetchAlerts
+	 *
+	 * @param startTime start of the range (inclusive)
+	 * @param endTime end of the range (inclusive)
+	 * @return cursor to access the alerts
+	 */
+	public Cursor fetchAllAlerts(Date startTime, Date endTime) {
+		String start = String.valueOf(startTime.getTime());
+		String end = String.valueOf(endTime.getTime());
+		Cursor mCursor = mDb.rawQuery(getOverlapQuery(""), new String[] { end, start, end });
+		if (mCursor != null) {
+			mCursor.moveToFirst();
+		}
+		return mCursor;
+	}
+
+	// the events that were active during a range: the active ones that went off before its end,
+	// and the ended ones that ended after its start and went off before its end. the filter goes
+	// in front of both, the arguments are those of the filter and the end, then those of the
+	// filter, the start and the end. two selects instead of an or, so both search the index by the end
+	private static String getOverlapQuery(String filter) {
+		String from = "select " + EVENT_COLUMNS + " from " + TABLE_EVENTS + " e join " +
+				TemperatureDbAdapter.TABLE_DEVICES + " d on d." + TemperatureDbAdapter.KEY_ROWID + " = e." + KEY_DEVICE_ID +
+				" where " + filter;
+		return from + "e." + KEY_END_DATETIME + " is null AND e." + KEY_DATETIME + " <= ? union all " +
+				from + "e." + KEY_END_DATETIME + " >= ? AND e." + KEY_DATETIME + " <= ? order by " + KEY_DATETIME;
+	}
+
+	/**
+	 * Create a new text entry using the date and alert provided. If the entry is
 	 * successfully created return the new rowId for that entry, otherwise return
 	 * a -1 to indicate failure.
 	 *
@@ -135,12 +393,30 @@ public class AlertDbAdapter {
 	 * @return rowId or -1 if failed
 	 */
 	public long createEntry(Date date, String alert) {
-		ContentValues values = new ContentValues();
-
-		values.put(KEY_DATETIME, date.getTime());
-		values.put(KEY_ALERT, alert);
+		return createEntry(date.getTime(), alert);
+	}
 
-		return mDb.insert(TABLE_NAME, null, values);
+	/**
+	 * Create a new entry, see createEntry. Binds the values straight into the compiled
+	 * insert statement.
+	 *
+	 * @param time the time of the entry, in ms since the epoch
+	 * @param alert the alert for the entry
+	 * @return rowId or -1 if failed
+	 */
+	public synchronized long createEntry(long time, String alert) {
+		mInsertEntry.bindLong(1, time);
+		if (alert == null) {
+			mInsertEntry.bindNull(2);
+		} else {
+			mInsertEntry.bindString(2, alert);
+		}
+		try {
+			return mInsertEntry.executeInsert();
+		} catch (SQLException e) {
+			Log.e(TAG, "failed to write entry", e);
+			return -1;
+		}
 	}
 
 	/**
@@ -309,7 +585,7 @@ public class AlertDbAdapter {
 	public Cursor fetchEntriesForTimeRange(Date startTime, Date endTime) {
 		String[] args = new String[] { String.valueOf(startTime.getTime()), String.valueOf(endTime.getTime()) };
 		Cursor mCursor = mDb.query(TABLE_NAME, new String[] {KEY_ROWID, KEY_DATETIME, KEY_ALERT},
-				KEY_DATETIME + "between ? and ?", args, null, null, null);
+				KEY_DATETIME + " between ? and ?", args, null, null, null);
 		if (mCursor != null) {
 			mCursor.moveToFirst();
 		}
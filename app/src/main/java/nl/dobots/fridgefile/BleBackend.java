@@ -0,0 +1,79 @@
+package nl.dobots.fridgefile;
+
+import android.content.Context;
+
+import nl.dobots.bluenet.ble.base.callbacks.IAlertCallback;
+import nl.dobots.bluenet.ble.base.callbacks.IDiscoveryCallback;
+import nl.dobots.bluenet.ble.base.callbacks.IIntegerCallback;
+import nl.dobots.bluenet.ble.base.callbacks.IStatusCallback;
+import nl.dobots.bluenet.ble.extended.BleDeviceConnectionState;
+import nl.dobots.bluenet.ble.extended.BleDeviceFilter;
+import nl.dobots.bluenet.ble.extended.callbacks.IBleDeviceCallback;
+import nl.dobots.bluenet.ble.extended.structs.BleDeviceMap;
+
+/**
+ * Copyright (c) 2026 agent <agent@local>. All rights reserved.
+ * <p/>
+ * This code is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License version 3, as
+ * published by the Free Software Foundation.
+ * <p/>
+ * This code is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE.  See the GNU General Public License
+ * version 3 for more details (a copy is included in the LICENSE file that
+ * accompanied this code).
+ * <p/>
+ * Created on 17-10-26
+ *
+ * @author agent
+ */
+
+/**
+ * The part of the BLE library the app uses. Implemented by BleExtBackend for real devices and
+ * by SimulatedBleBackend for a simulated fleet of fridges.
+ */
+public interface BleBackend {
+	void init(Context context, IStatusCallback callback);
+	/**
+	 * Release what init registered, e.g. the broadcast receivers of the library. Call after
+	 * disconnectAndClose, the backend can't be used anymore afterwards.
+	 */
+	void destroy();
+	BleDeviceConnectionState getConnectionState();
+
+	void setScanFilter(BleDeviceFilter filter);
+	void startScan(IBleDeviceCallback callback);
+	void stopScan(IStatusCallback callback);
+	BleDeviceMap getDeviceMap();
+
+	void connect(String address, IStatusCallback callback);
+	void discoverServices(IDiscoveryCallback callback);
+	void disconnect(IStatusCallback callback);
+	void disconnectAndClose(boolean clearCache, IStatusCallback callback);
+
+	/** Read from the connected device */
+	void readTemperature(IIntegerCallback callback);
+	/** Read from the connected device */
+	void readAlert(IAlertCallback callback);
+
+	/**
+	 * Get notified of every temperature change of the connected device. The callback gets
+	 * onError when the subscription fails or the connection is lost.
+	 */
+	void subscribeTemperature(IIntegerCallback callback);
+	void unsubscribeTemperature(IIntegerCallback callback);
+	/**
+	 * Get notified of every alert change of the connected device. The callback gets
+	 * onError when the subscription fails or the connection is lost.
+	 */
+	void subscribeAlert(IAlertCallback callback);
+	void unsubscribeAlert(IAlertCallback callback);
+
+	/** Connects to the device if needed */
+	void resetAlert(String address, IStatusCallback callback);
+	/** Connects to the device if needed */
+	void setMinEnvTemp(String address, int temperature, IStatusCallback callback);
+	/** Write to the connected device */
+	void setMaxEnvTemp(int temperature, IStatusCallback callback);
+}
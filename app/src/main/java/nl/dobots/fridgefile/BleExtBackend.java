@@ -0,0 +1,138 @@
+package nl.dobots.fridgefile;
+
+import android.content.Context;
+
+import nl.dobots.bluenet.ble.base.callbacks.IAlertCallback;
+import nl.dobots.bluenet.ble.base.callbacks.IDiscoveryCallback;
+import nl.dobots.bluenet.ble.base.callbacks.IIntegerCallback;
+import nl.dobots.bluenet.ble.base.callbacks.IStatusCallback;
+import nl.dobots.bluenet.ble.extended.BleDeviceConnectionState;
+import nl.dobots.bluenet.ble.extended.BleDeviceFilter;
+import nl.dobots.bluenet.ble.extended.BleExt;
+import nl.dobots.bluenet.ble.extended.callbacks.IBleDeviceCallback;
+import nl.dobots.bluenet.ble.extended.structs.BleDeviceMap;
+
+/**
+ * Copyright (c) 2026 agent <agent@local>. All rights reserved.
+ * <p/>
+ * This code is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License version 3, as
+ * published by the Free Software Foundation.
+ * <p/>
+ * This code is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE.  See the GNU General Public License
+ * version 3 for more details (a copy is included in the LICENSE file that
+ * accompanied this code).
+ * <p/>
+ * Created on 17-10-26
+ *
+ * @author agent
+ */
+
+/**
+ * BleBackend on top of the bluenet library
+ */
+public class BleExtBackend implements BleBackend {
+	private final BleExt _ble = new BleExt();
+
+	@Override
+	public void init(Context context, IStatusCallback callback) {
+		_ble.init(context, callback);
+	}
+
+	@Override
+	public void destroy() {
+		_ble.destroy();
+	}
+
+	@Override
+	public BleDeviceConnectionState getConnectionState() {
+		return _ble.getConnectionState();
+	}
+
+	@Override
+	public void setScanFilter(BleDeviceFilter filter) {
+		_ble.setScanFilter(filter);
+	}
+
+	@Override
+	public void startScan(IBleDeviceCallback callback) {
+		_ble.startScan(callback);
+	}
+
+	@Override
+	public void stopScan(IStatusCallback callback) {
+		_ble.stopScan(callback);
+	}
+
+	@Override
+	public BleDeviceMap getDeviceMap() {
+		return _ble.getDeviceMap();
+	}
+
+	@Override
+	public void connect(String address, IStatusCallback callback) {
+		_ble.connect(address, callback);
+	}
+
+	@Override
+	public void discoverServices(IDiscoveryCallback callback) {
+		_ble.discoverServices(callback);
+	}
+
+	@Override
+	public void disconnect(IStatusCallback callback) {
+		_ble.disconnect(callback);
+	}
+
+	@Override
+	public void disconnectAndClose(boolean clearCache, IStatusCallback callback) {
+		_ble.disconnectAndClose(clearCache, callback);
+	}
+
+	@Override
+	public void readTemperature(IIntegerCallback callback) {
+		_ble.readTemperature(callback);
+	}
+
+	@Override
+	public void readAlert(IAlertCallback callback) {
+		_ble.readAlert(callback);
+	}
+
+	@Override
+	public void subscribeTemperature(IIntegerCallback callback) {
+		_ble.subscribeTemperature(callback);
+	}
+
+	@Override
+	public void unsubscribeTemperature(IIntegerCallback callback) {
+		_ble.unsubscribeTemperature(callback);
+	}
+
+	@Override
+	public void subscribeAlert(IAlertCallback callback) {
+		_ble.subscribeAlert(callback);
+	}
+
+	@Override
+	public void unsubscribeAlert(IAlertCallback callback) {
+		_ble.unsubscribeAlert(callback);
+	}
+
+	@Override
+	public void resetAlert(String address, IStatusCallback callback) {
+		_ble.resetAlert(address, callback);
+	}
+
+	@Override
+	public void setMinEnvTemp(String address, int temperature, IStatusCallback callback) {
+		_ble.setMinEnvTemp(address, temperature, callback);
+	}
+
+	@Override
+	public void setMaxEnvTemp(int temperature, IStatusCallback callback) {
+		_ble.setMaxEnvTemp(temperature, callback);
+	}
+}
@@ -4,19 +4,23 @@ import android.app.Service;
 import android.content.Intent;
 import android.os.Binder;
 import android.os.Handler;
+import android.os.HandlerThread;
 import android.os.IBinder;
+import android.os.Looper;
 import android.util.Log;
 
+import java.io.FileDescriptor;
+import java.io.PrintWriter;
 import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
 import java.util.Iterator;
 import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
 
-import nl.dobots.bluenet.ble.base.callbacks.IAlertCallback;
-import nl.dobots.bluenet.ble.base.callbacks.IIntegerCallback;
 import nl.dobots.bluenet.ble.base.callbacks.IStatusCallback;
 import nl.dobots.bluenet.ble.base.structs.BleAlertState;
 import nl.dobots.bluenet.ble.extended.BleDeviceConnectionState;
-import nl.dobots.bluenet.ble.extended.BleExt;
 
 /**
  * Copyright (c) 2015 Bart van Vliet <bart@dobots.nl>. All rights reserved.
@@ -37,15 +41,30 @@ import nl.dobots.bluenet.ble.extended.BleExt;
  */
 public class BleFridgeService extends Service {
 	private static final String TAG = BleFridgeService.class.getCanonicalName();
-	private BleExt _ble;
-	private Handler _handler = new Handler();
-	private List<BleFridgeServiceListener> _listenerList = new ArrayList<>();
-	private boolean _deviceCheckRunning;
+	private BleBackend _ble;
+	// sampling runs on its own thread, so it doesn't compete with the UI
+	private HandlerThread _samplingThread;
+	private Handler _handler;
+	private Clock _clock;
+	private Handler _mainHandler = new Handler(Looper.getMainLooper());
+	private List<BleFridgeServiceListener> _listenerList = new CopyOnWriteArrayList<>();
+
+	// the service's own state that the loop's listener uses is guarded by the loop as well
+	private SamplingLoop _loop;
+	private List<IStatusCallback> _haltedCallbacks = new ArrayList<>();
+	// critical devices, streamed over connections that are kept open
+	private HashMap<String, StreamingSession> _streams = new HashMap<>();
 
 	@Override
 	public void onCreate() {
 		super.onCreate();
+		_samplingThread = new HandlerThread("FridgeSampling");
+		_samplingThread.start();
+		_handler = new Handler(_samplingThread.getLooper());
+		_clock = new HandlerClock(_handler);
+		_loop = new SamplingLoop(_clock, sampleRunnable, _loopListener);
 		_ble = FridgeFile.getInstance().getBle();
+		setConcurrentConnections(Config.DEFAULT_CONCURRENT_CONNECTIONS);
 		startSampling();
 	}
 
@@ -67,81 +86,133 @@ public class BleFridgeService extends Service {
 			});
 		}
 
+		_loop.destroySessions();
+		closeStreams();
+		// don't leave samples waiting for a batch that won't fill up anymore
+		FridgeFile.getInstance().flushTemperatures();
+
 		// Remove all callbacks and messages that were posted
 		_handler.removeCallbacksAndMessages(null);
+		_mainHandler.removeCallbacksAndMessages(null);
+		_samplingThread.quitSafely();
 	}
 
 	public void startSampling() {
 		Log.d(TAG, "start sampling");
 		_handler.removeCallbacks(stopSamplingRunnable);
+		final List<IStatusCallback> callbacks;
+		synchronized (_loop) {
+			_loop.setSampling(true);
+			callbacks = new ArrayList<>(_haltedCallbacks);
+			_haltedCallbacks.clear();
+		}
+		// sampling started again before it was halted
+		for (IStatusCallback callback : callbacks) {
+			callback.onError(SamplingSession.ERROR_CANCELLED);
+		}
 		_handler.postDelayed(sampleRunnable, Config.BLE_DELAY_CONNECT_NEXT_DEVICE);
 	}
 
 	public void stopSampling() {
-		Log.d(TAG, "stop sampling");
-		while (_deviceCheckRunning) {
-			// nada
-		}
-		_handler.removeCallbacks(sampleRunnable);
-		switch (_ble.getConnectionState()) {
-			case connected: {
-				_ble.disconnectAndClose(false, new IStatusCallback() {
-					@Override
-					public void onSuccess() {
+		stopSampling(null);
+	}
 
-					}
+	/**
+	 * Stop sampling, samples that are in progress are cancelled. The callback is called on the
+	 * main thread once all sessions are disconnected, so the radio is free to use.
+	 *
+	 * @param callback called when stopped, can be null
+	 */
+	public void stopSampling(IStatusCallback callback) {
+		Log.d(TAG, "stop sampling");
+		haltSampling(callback);
+		_loop.cancel();
+	}
 
-					@Override
-					public void onError(int error) {
+	/**
+	 * Pause sampling, samples that are in progress are finished first. The callback is
+	 * called on the main thread once all sessions are done.
+	 *
+	 * @param callback called when paused, can be null
+	 */
+	public void pauseSampling(IStatusCallback callback) {
+		Log.d(TAG, "pause sampling");
+		haltSampling(callback);
+	}
 
-					}
-				});
-				break;
-			}
-			case connecting: {
-//				_handler.postDelayed(stopSamplingRunnable, 500);
-				break;
+	private void haltSampling(IStatusCallback callback) {
+		_handler.removeCallbacks(sampleRunnable);
+		synchronized (_loop) {
+			_loop.setSampling(false);
+			if (callback != null) {
+				_haltedCallbacks.add(callback);
 			}
 		}
+		// streams hold on to their connection, they are closed to free the radio
+		closeStreams();
+		// in case nothing is running, the callbacks are called right away
+		dispatchSessions();
+	}
+
+	/**
+	 * Called when sampling is halted and all sessions are idle, closes the sessions and
+	 * tells whoever asked for the halt
+	 */
+	private void samplingHalted() {
+		final List<IStatusCallback> callbacks = new ArrayList<>(_haltedCallbacks);
+		_haltedCallbacks.clear();
+		Log.d(TAG, "sampling halted");
+		_loop.closeSessions();
+		_mainHandler.post(new Runnable() {
+			@Override
+			public void run() {
+				for (IStatusCallback callback : callbacks) {
+					callback.onSuccess();
+				}
+			}
+		});
 	}
 
 	final Runnable sampleRunnable = new Runnable() {
 		@Override
 		public void run() {
-			Log.d(TAG, "starting new sample ...");
-			StoredBleDeviceList deviceList = FridgeFile.getInstance().getStoredDeviceList();
-			int size = deviceList.size();
-			if (size > 0) {
-				switch (_ble.getConnectionState()) {
-				case initialized: {
-					Iterator<StoredBleDevice> deviceIt = deviceList.toList().iterator();
-					if (deviceIt.hasNext()) {
-						checkDevices(deviceIt);
-						return;
-					}
-				}
-				case uninitialized: {
-					Log.e(TAG, "Bluetooth is disabled!");
-					break;
-				}
-				default: {
-					_ble.disconnectAndClose(false, new IStatusCallback() {
-						@Override
-						public void onSuccess() {
-							checkDeviceDone();
+			if (_ble.getConnectionState() == BleDeviceConnectionState.uninitialized) {
+				Log.e(TAG, "Bluetooth is disabled!");
+				_handler.postDelayed(sampleRunnable, Config.SAMPLE_DELAY_MILLIS);
+				return;
+			}
+			List<StoredBleDevice> devices = FridgeFile.getInstance().getStoredDeviceList().toList();
+			_loop.update(devices);
+			updateStreams(devices);
+			dispatchSessions();
+		}
+	};
 
-						}
+	/**
+	 * Check whether a due device has to be sampled by connecting to it. Streamed devices don't,
+	 * they are postponed.
+	 */
+	private boolean needsPolling(StoredBleDevice device, long now) {
+		if (_streams.containsKey(device.getAddress())) {
+			// streamed, check again later in case it's no longer critical
+			_loop.getScheduler().postpone(device, now + Config.MIN_SAMPLE_INTERVAL_MILLIS);
+			return false;
+		}
+		return true;
+	}
 
-						@Override
-						public void onError(int error) {
-							checkDeviceDone();
-						}
-					});
-					break;
-				}
-				}
+	/** Called by the loop with its lock held */
+	private final SamplingLoop.Listener _loopListener = new SamplingLoop.Listener() {
+		@Override
+		public boolean needsPolling(StoredBleDevice device, long now) {
+			return BleFridgeService.this.needsPolling(device, now);
+		}
+
+		@Override
+		public void onIdle() {
+			if (!_haltedCallbacks.isEmpty() && _streams.isEmpty()) {
+				samplingHalted();
 			}
-			_handler.postDelayed(sampleRunnable, Config.SAMPLE_DELAY_MILLIS); //TODO: magic nr
 		}
 	};
 
@@ -152,170 +223,212 @@ public class BleFridgeService extends Service {
 		}
 	};
 
-	private void checkDeviceFailed(final Iterator<StoredBleDevice> deviceIt) {
-		_ble.disconnectAndClose(false, new IStatusCallback() {
-			@Override
-			public void onSuccess() {
-				Log.d(TAG, "success");
-//				checkNextDevice(deviceIt);
-			}
-
-			@Override
-			public void onError(int error) {
-				Log.d(TAG, "Error");
-//				checkNextDevice(deviceIt);
-			}
-		});
-		checkNextDevice(deviceIt);
+	private void dispatchSessions() {
+		_loop.dispatch();
 	}
 
-	private void checkDevices(final Iterator<StoredBleDevice> deviceIt) {
-		_deviceCheckRunning = true;
-		final StoredBleDevice device = deviceIt.next();
-		Log.d(TAG, "checking device: " + device.getAddress() + "(" + device.getName() + ")");
-		checkTemperature(device, new IStatusCallback() {
+	/**
+	 * Start streaming devices that became critical and stop streaming the ones that no longer
+	 * are. Streams take the connections that are not used for polling, critical devices that
+	 * don't fit are polled.
+	 */
+	private void updateStreams(List<StoredBleDevice> devices) {
+		synchronized (_loop) {
+			updateStreamsLocked(devices);
+		}
+	}
 
-			@Override
-			public void onError(int error) {
-				checkDeviceFailed(deviceIt);
+	private void updateStreamsLocked(List<StoredBleDevice> devices) {
+		if (!_loop.isSampling()) {
+			return;
+		}
+		HashSet<String> critical = new HashSet<>();
+		for (StoredBleDevice device : devices) {
+			if (device.isCritical()) {
+				critical.add(device.getAddress());
 			}
-
-			@Override
-			public void onSuccess() {
-				checkAlerts(device, new IStatusCallback() {
-
-					@Override
-					public void onError(int error) {
-						checkDeviceFailed(deviceIt);
-					}
-
-					@Override
-					public void onSuccess() {
-						_ble.disconnectAndClose(false, new IStatusCallback() {
-							@Override
-							public void onSuccess() {
-								checkNextDevice(deviceIt);
-							}
-
-							@Override
-							public void onError(int error) {
-								checkDeviceFailed(deviceIt);
-							}
-						});
-					}
-				});
+		}
+		for (StreamingSession stream : new ArrayList<>(_streams.values())) {
+			if (!critical.contains(stream.getDevice().getAddress())) {
+				closeStream(stream);
 			}
-		});
+		}
+		int maxStreams = Config.MAX_GATT_CONNECTIONS - _loop.getConcurrentConnections();
+		for (StoredBleDevice device : devices) {
+			if (!device.isCritical() || _streams.containsKey(device.getAddress())) {
+				continue;
+			}
+			if (_streams.size() >= maxStreams) {
+				Log.w(TAG, "no connection left to stream " + device.getAddress() + ", polling it");
+				break;
+			}
+			StreamingSession stream = new StreamingSession(FridgeFile.getInstance().createBle(), _handler, device, _streamListener);
+			_streams.put(device.getAddress(), stream);
+			stream.start();
+		}
 	}
 
-	private void checkNextDevice(final Iterator<StoredBleDevice> deviceIt) {
-//		_handler.postDelayed(new Runnable() {
-//			@Override
-//			public void run() {
-				Log.i(TAG, "checking next device");
-				if (deviceIt.hasNext()) {
-					checkDevices(deviceIt);
-				} else {
-					checkDeviceDone();
-				}
-//			}
-//		}, 500);
+	private void closeStreams() {
+		synchronized (_loop) {
+			for (StreamingSession stream : new ArrayList<>(_streams.values())) {
+				closeStream(stream);
+			}
+		}
 	}
 
-	private void checkAlerts(final StoredBleDevice device, final IStatusCallback callback) {
-		Log.d(TAG, "checking alerts ...");
-		_ble.readAlert(device.getAddress(), new IAlertCallback() {
+	/**
+	 * The stream stays in the map until it's closed, so its device isn't polled before that
+	 */
+	private void closeStream(final StreamingSession stream) {
+		stream.close(new IStatusCallback() {
 			@Override
-			public void onSuccess(BleAlertState result) {
-				Log.d(TAG, "Current alerts of device " + device.getAddress() + "(" + device.getName() + ") = " + result);
-				BleAlertState oldAlertState = device.getCurrentAlert();
-				device.setCurrentAlert(result);
-				sendAlertsToListeners(device, oldAlertState, result);
-				callback.onSuccess();
+			public void onSuccess() {
+				streamClosed(stream);
 			}
 
 			@Override
 			public void onError(int error) {
-				callback.onError(error);
+				streamClosed(stream);
 			}
 		});
 	}
 
-	private void checkDeviceDone() {
-		Log.d(TAG, "... finished sample");
-		_handler.postDelayed(sampleRunnable, 10000); //TODO: magic nr
-		_deviceCheckRunning = false;
+	private void streamClosed(StreamingSession stream) {
+		synchronized (_loop) {
+			if (_streams.get(stream.getDevice().getAddress()) == stream) {
+				_streams.remove(stream.getDevice().getAddress());
+			}
+		}
+		// every stream has a backend of its own
+		stream.destroy();
+		// sampling might be waiting for the streams to close
+		dispatchSessions();
 	}
 
-	private void checkTemperature(final StoredBleDevice device, final IStatusCallback callback) {
-		Log.d(TAG, "checking temperature ...");
-		_ble.readTemperature(device.getAddress(), new IIntegerCallback() {
-			@Override
-			public void onSuccess(int result) {
-				Log.d(TAG, "Current temperature of " + device.getAddress() + "(" + device.getName() + ") = " + result);
-				device.setCurrentTemperature(result);
-				sendTemperatureToListeners(device, result);
-				callback.onSuccess();
-			}
+	/** Forwards notifications of the streams to the listeners of the service */
+	private final BleFridgeServiceListener _streamListener = new BleFridgeServiceListener() {
+		@Override
+		public void onTemperature(StoredBleDevice device, int temperature) {
+			_loop.getMetrics().onNotification(device.getAddress());
+			sendTemperatureToListeners(device, temperature);
+		}
 
-			@Override
-			public void onError(int error) {
-				callback.onError(error);
+		@Override
+		public void onAlert(StoredBleDevice device, BleAlertState oldAlertState, BleAlertState newAlertState) {
+			sendAlertsToListeners(device, oldAlertState, newAlertState);
+		}
+	};
+
+	/**
+	 * Set the number of devices that are sampled at the same time. Bounded by the number of
+	 * connections the bluetooth stack supports (Config.MAX_GATT_CONNECTIONS).
+	 */
+	public void setConcurrentConnections(int concurrentConnections) {
+		synchronized (_loop) {
+			_loop.setConcurrentConnections(concurrentConnections);
+			while (_loop.getSessions().size() < _loop.getConcurrentConnections()) {
+				_loop.addSession(new SamplingSession(_loop.getSessions().size(), FridgeFile.getInstance().createBle(), _clock, _sessionListener));
 			}
-		});
+		}
+	}
+
+	public int getConcurrentConnections() {
+		return _loop.getConcurrentConnections();
+	}
+
+	/**
+	 * Take the ble backend of FridgeFile again and give all sessions a new one, after
+	 * FridgeFile switched backends. Only call this while sampling is stopped.
+	 */
+	public void reloadBackend() {
+		synchronized (_loop) {
+			_ble = FridgeFile.getInstance().getBle();
+			_loop.destroySessions();
+			setConcurrentConnections(_loop.getConcurrentConnections());
+		}
 	}
 
+	/** Forwards the results of the sessions to the listeners of the service */
+	private final BleFridgeServiceListener _sessionListener = new BleFridgeServiceListener() {
+		@Override
+		public void onTemperature(StoredBleDevice device, int temperature) {
+			sendTemperatureToListeners(device, temperature);
+		}
+
+		@Override
+		public void onAlert(StoredBleDevice device, BleAlertState oldAlertState, BleAlertState newAlertState) {
+			sendAlertsToListeners(device, oldAlertState, newAlertState);
+		}
+	};
+
 	private void resetDeviceAlertsDone() {
 		startSampling();
 	}
 
+	/**
+	 * Reset the alerts of all devices. Sampling is stopped first and started again when done.
+	 */
 	public void resetDeviceAlerts() {
-		stopSampling();
-
-		if (_ble.getConnectionState() == BleDeviceConnectionState.initialized) {
-			StoredBleDeviceList deviceList = FridgeFile.getInstance().getStoredDeviceList();
-			Iterator<StoredBleDevice> deviceIt = deviceList.toList().iterator();
-			if (deviceIt.hasNext()) {
-				resetAlert(deviceIt);
-				return;
-			}
-		} else {
-			_ble.disconnectAndClose(false, new IStatusCallback() {
-				@Override
-				public void onSuccess() {
-					resetDeviceAlertsDone();
-				}
+		stopSampling(new IStatusCallback() {
+			@Override
+			public void onSuccess() {
+				if (_ble.getConnectionState() == BleDeviceConnectionState.initialized) {
+					StoredBleDeviceList deviceList = FridgeFile.getInstance().getStoredDeviceList();
+					Iterator<StoredBleDevice> deviceIt = deviceList.toList().iterator();
+					if (deviceIt.hasNext()) {
+						resetAlert(deviceIt);
+					} else {
+						resetDeviceAlertsDone();
+					}
+				} else {
+					_ble.disconnectAndClose(false, new IStatusCallback() {
+						@Override
+						public void onSuccess() {
+							resetDeviceAlertsDone();
+						}
 
-				@Override
-				public void onError(int error) {
-					resetDeviceAlertsDone();
+						@Override
+						public void onError(int error) {
+							resetDeviceAlertsDone();
+						}
+					});
 				}
-			});
-		}
+			}
 
+			@Override
+			public void onError(int error) {
+				resetDeviceAlertsDone();
+			}
+		});
 	}
 
 	private void resetAlert(final Iterator<StoredBleDevice> deviceIt) {
-		StoredBleDevice device = deviceIt.next();
+		final StoredBleDevice device = deviceIt.next();
 		Log.d(TAG, "Reset Alert for device " + device.getAddress());
 		_ble.resetAlert(device.getAddress(), new IStatusCallback() {
 			@Override
 			public void onSuccess() {
-				_ble.disconnectAndClose(false, new IStatusCallback() {
-					@Override
-					public void onSuccess() {
-						if (deviceIt.hasNext()) {
-							resetAlert(deviceIt);
-						} else {
-							resetDeviceAlertsDone();
-						}
-					}
+				disconnectAndResetNext(deviceIt);
+			}
 
-					@Override
-					public void onError(int error) {
-						resetDeviceAlertsDone();
-					}
-				});
+			@Override
+			public void onError(int error) {
+				// an unreachable device shouldn't keep the others from being reset
+				Log.w(TAG, "failed to reset alert of " + device.getAddress() + ", error: " + error);
+				disconnectAndResetNext(deviceIt);
+			}
+		});
+	}
+
+	private void disconnectAndResetNext(final Iterator<StoredBleDevice> deviceIt) {
+		_ble.disconnectAndClose(false, new IStatusCallback() {
+			@Override
+			public void onSuccess() {
+				if (deviceIt.hasNext()) {
+					resetAlert(deviceIt);
+				} else {
+					resetDeviceAlertsDone();
+				}
 			}
 
 			@Override
@@ -325,6 +438,44 @@ public class BleFridgeService extends Service {
 		});
 	}
 
+	public SamplingMetrics getMetrics() {
+		return _loop.getMetrics();
+	}
+
+	/**
+	 * Start over with empty metrics
+	 */
+	public void resetMetrics() {
+		_loop.resetMetrics();
+	}
+
+	/**
+	 * @return number of devices that are backed off because they kept failing
+	 */
+	public int getOpenCircuitCount() {
+		return _loop.getScheduler().getOpenCircuitCount();
+	}
+
+	@Override
+	protected void dump(FileDescriptor fd, PrintWriter writer, String[] args) {
+		writer.println("sampling: " + _loop.isSampling() +
+				", concurrent connections: " + _loop.getConcurrentConnections());
+		writer.println("temperatures waiting to be written: " + FridgeFile.getInstance().getPendingTemperatureCount());
+		DbMaintenance.Report maintenance = FridgeFile.getInstance().getDbMaintenance().getLastReport();
+		writer.println("last database maintenance: " + (maintenance == null ? "none" : maintenance));
+		for (SamplingSession session : _loop.getSessions()) {
+			writer.println("session " + session.getId() + ": " + session.getState());
+		}
+		synchronized (_loop) {
+			for (StreamingSession stream : _streams.values()) {
+				writer.println("stream " + stream.getDevice().getAddress() + ": " + stream.getState() +
+						", reconnects: " + stream.getReconnects());
+			}
+		}
+		writer.println();
+		writer.print(_loop.getMetrics().dump());
+	}
+
 	/** Binder given to users that bind to this service */
 	public class BleFridgeBinder extends Binder {
 		BleFridgeService getService() {
@@ -345,6 +496,10 @@ public class BleFridgeService extends Service {
 	}
 
 
+	/**
+	 * Listeners are called on the sampling thread, UI components have to post to their own
+	 * thread, and slow work like storing samples has to go to an I/O thread.
+	 */
 	public void addListener(BleFridgeServiceListener listener) {
 		_listenerList.add(listener);
 	}
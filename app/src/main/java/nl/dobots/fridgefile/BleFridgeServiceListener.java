@@ -19,6 +19,9 @@ import nl.dobots.bluenet.ble.base.structs.BleAlertState;
  *
  * @author Bart van Vliet
  */
+/**
+ * Results of the BleFridgeService, called on its sampling thread
+ */
 public interface BleFridgeServiceListener {
 	void onTemperature(StoredBleDevice device, int temperature);
 	void onAlert(StoredBleDevice device, BleAlertState oldAlertState, BleAlertState newAlertState);
@@ -0,0 +1,97 @@
+package nl.dobots.fridgefile;
+
+/**
+ * Copyright (c) 2026 agent <agent@local>. All rights reserved.
+ * <p/>
+ * This code is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License version 3, as
+ * published by the Free Software Foundation.
+ * <p/>
+ * This code is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE.  See the GNU General Public License
+ * version 3 for more details (a copy is included in the LICENSE file that
+ * accompanied this code).
+ * <p/>
+ * Created on 17-10-26
+ *
+ * @author agent
+ */
+
+/**
+ * Keeps unreachable devices from taking up sampling sessions. After
+ * Config.CIRCUIT_BREAKER_FAILURE_THRESHOLD failures in a row the breaker opens and the device
+ * is left alone for a while. Then a single attempt is made (half open): on success the breaker
+ * closes again, on failure it opens for twice as long, up to Config.CIRCUIT_BREAKER_MAX_OPEN_MILLIS.
+ */
+public class CircuitBreaker {
+
+	public enum State {
+		closed,
+		open,
+		halfOpen
+	}
+
+	private State _state = State.closed;
+	private int _failures;
+	private long _openDuration;
+	private long _openUntil;
+
+	public State getState() {
+		return _state;
+	}
+
+	/**
+	 * @return number of failures in a row
+	 */
+	public int getFailures() {
+		return _failures;
+	}
+
+	/**
+	 * @return time until which the breaker is open, only valid in the open state
+	 */
+	public long getOpenUntil() {
+		return _openUntil;
+	}
+
+	/**
+	 * Check whether an attempt may be made. When the open time has passed, the breaker
+	 * goes half open and allows this single attempt.
+	 */
+	public boolean allowAttempt(long now) {
+		switch (_state) {
+			case open:
+				if (now < _openUntil) {
+					return false;
+				}
+				_state = State.halfOpen;
+				return true;
+			default:
+				return true;
+		}
+	}
+
+	public void onSuccess() {
+		_state = State.closed;
+		_failures = 0;
+		_openDuration = 0;
+	}
+
+	/**
+	 * @return true if the breaker is open after this failure
+	 */
+	public boolean onFailure(long now) {
+		_failures++;
+		if (_state == State.halfOpen) {
+			_openDuration = Math.min(_openDuration * 2, Config.CIRCUIT_BREAKER_MAX_OPEN_MILLIS);
+		} else if (_failures >= Config.CIRCUIT_BREAKER_FAILURE_THRESHOLD) {
+			_openDuration = Config.CIRCUIT_BREAKER_OPEN_MILLIS;
+		} else {
+			return false;
+		}
+		_state = State.open;
+		_openUntil = now + _openDuration;
+		return true;
+	}
+}
@@ -0,0 +1,41 @@
+package nl.dobots.fridgefile;
+
+/**
+ * Copyright (c) 2026 agent <agent@local>. All rights reserved.
+ * <p/>
+ * This code is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License version 3, as
+ * published by the Free Software Foundation.
+ * <p/>
+ * This code is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE.  See the GNU General Public License
+ * version 3 for more details (a copy is included in the LICENSE file that
+ * accompanied this code).
+ * <p/>
+ * Created on 18-10-26
+ *
+ * @author agent
+ */
+
+/**
+ * Time and delayed callbacks of the sampling. On the device this is a Handler and the system
+ * time, tests and simulations can run the sampling on a clock of their own.
+ */
+public interface Clock {
+
+	/**
+	 * @return current time in ms
+	 */
+	long now();
+
+	/**
+	 * Run the runnable after the delay, in ms
+	 */
+	void postDelayed(Runnable runnable, long delay);
+
+	/**
+	 * Remove all pending posts of the runnable
+	 */
+	void removeCallbacks(Runnable runnable);
+}
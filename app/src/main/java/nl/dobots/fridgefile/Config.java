@@ -39,7 +39,75 @@ public class Config {
 	public static final int DEFAULT_MAX_TEMPERATURE = 10;
 	/** Delay in ms between sampling the devices */
 	public static final int SAMPLE_DELAY_MILLIS = 10000;
+	/** Shortest interval between samples of a device, used when its temperature is close to a limit or changing fast */
+	public static final int MIN_SAMPLE_INTERVAL_MILLIS = SAMPLE_DELAY_MILLIS;
+	/** Longest interval between samples of a device with a stable temperature */
+	public static final int MAX_SAMPLE_INTERVAL_MILLIS = 300000; // ms
+	/** Temperature distance to the min or max temperature below which a device is sampled at the shortest interval */
+	public static final int SAMPLE_NEAR_LIMIT_TEMPERATURE = 2; // °C
+	/** Temperature change rate above which a device is sampled at the shortest interval */
+	public static final double SAMPLE_FAST_CHANGE_RATE = 0.5; // °C per minute
+	/** Maximum number of simultaneous GATT connections the bluetooth stack supports */
+	public static final int MAX_GATT_CONNECTIONS = 7;
+	/** Default number of devices that are sampled at the same time */
+	public static final int DEFAULT_CONCURRENT_CONNECTIONS = 4;
+	/** Time to wait for a sampling session to connect to a device */
+	public static final int SAMPLE_CONNECT_TIMEOUT_MILLIS = 5000; // ms
+	/** Time to wait for a sampling session to discover the services of a device */
+	public static final int SAMPLE_DISCOVER_TIMEOUT_MILLIS = 3000; // ms
+	/** Time to wait for a sampling session to read the characteristics */
+	public static final int SAMPLE_READ_TIMEOUT_MILLIS = 3000; // ms
+	/** Time to wait for a sampling session to disconnect */
+	public static final int SAMPLE_DISCONNECT_TIMEOUT_MILLIS = 2000; // ms
+	/** Number of failed samples in a row after which a device is backed off */
+	public static final int CIRCUIT_BREAKER_FAILURE_THRESHOLD = 3;
+	/** Time a device is backed off the first time */
+	public static final int CIRCUIT_BREAKER_OPEN_MILLIS = 60000; // ms
+	/** Longest time a device is backed off */
+	public static final int CIRCUIT_BREAKER_MAX_OPEN_MILLIS = 30 * 60000; // ms
+	/** Time between checks of the connection of a streamed device */
+	public static final int STREAM_WATCHDOG_MILLIS = 10000; // ms
+	/** Time without notifications after which the temperature of a streamed device is read */
+	public static final int STREAM_SILENCE_TIMEOUT_MILLIS = 60000; // ms
+	/** Delay before reconnecting to a streamed device the first time the link drops */
+	public static final int STREAM_RECONNECT_DELAY_MILLIS = 1000; // ms
+	/** Longest delay before reconnecting to a streamed device */
+	public static final int STREAM_MAX_RECONNECT_DELAY_MILLIS = 60000; // ms
+	/** Number of queued temperatures that are written in one transaction */
+	public static final int TEMPERATURE_BATCH_SIZE = 50;
+	/** Longest time a temperature is queued before it's written */
+	public static final int TEMPERATURE_BATCH_DELAY_MILLIS = 10000; // ms
+	/** Time range shown by the live view of the statistics */
+	public static final int LIVE_WINDOW_MILLIS = 30 * 60000; // ms
+	/** Number of live temperatures kept per device, enough for the live window at a sample per second */
+	public static final int LIVE_SERIES_CAPACITY = 2048;
+	/** Time changes of the stored devices are collected before they're saved in one transaction */
+	public static final int DEVICE_SAVE_DELAY_MILLIS = 2000; // ms
+	/** Time raw temperatures are kept, older ones only remain in the rollups */
+	public static final long RAW_RETENTION_MILLIS = 30 * 24 * 3600 * 1000L; // ms
+	/** Time minute rollups are kept, hour and day rollups are kept forever */
+	public static final long MINUTE_RETENTION_MILLIS = 365 * 24 * 3600 * 1000L; // ms
+	/** Time between runs of the database maintenance, which also packs the entries into blocks */
+	public static final long MAINTENANCE_INTERVAL_MILLIS = 3600 * 1000L; // ms
+	/** Age after which temperatures are packed into blocks */
+	public static final long TEMPERATURE_PACK_AGE_MILLIS = 3600 * 1000L; // ms
+	/** Maximum number of temperatures in a block */
+	public static final int TEMPERATURE_BLOCK_SIZE = 256;
+	/** Maximum time between the first and last temperature of a block */
+	public static final long TEMPERATURE_BLOCK_MAX_SPAN_MILLIS = 24 * 3600 * 1000L; // ms
+	/** Maximum number of rows the database maintenance deletes in one transaction */
+	public static final int MAINTENANCE_BATCH_SIZE = 2000;
+	/** Maximum number of pages the database maintenance frees in one step */
+	public static final int MAINTENANCE_VACUUM_PAGES = 256;
+	/** Largest database that is switched to incremental vacuum when it is opened, the switch takes a full vacuum */
+	public static final long VACUUM_SWITCH_MAX_SIZE = 4 * 1024 * 1024; // bytes
+	/** Number of temperatures the insert benchmark writes each way */
+	public static final int INSERT_BENCHMARK_ENTRIES = 10000;
+	/** Number of temperatures the database benchmark writes */
+	public static final int DATABASE_BENCHMARK_ENTRIES = 1000;
+	/** Number of temperatures in the database the query benchmark runs on */
+	public static final int QUERY_BENCHMARK_ENTRIES = 2000000;
+	/** Database the devices and alerts were kept in before FridgeDatabase, imported into it once */
 	public static final String DATABASE_NAME = "FridgeFileDataBase";
-	public static final int DATABASE_VERSION = 1;
 	public static final String PREFERENCES_FILE = "FridgeFilePreferences";
 }
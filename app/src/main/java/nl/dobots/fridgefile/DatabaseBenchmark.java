@@ -0,0 +1,372 @@
+package nl.dobots.fridgefile;
+
+import android.content.ContentValues;
+import android.content.Context;
+import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
+import android.database.sqlite.SQLiteStatement;
+import android.os.Debug;
+import android.os.Handler;
+import android.os.Looper;
+import android.util.Log;
+
+import java.util.Date;
+import java.util.Random;
+
+/**
+ * Copyright (c) 2026 agent <agent@local>. All rights reserved.
+ * <p/>
+ * This code is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License version 3, as
+ * published by the Free Software Foundation.
+ * <p/>
+ * This code is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE.  See the GNU General Public License
+ * version 3 for more details (a copy is included in the LICENSE file that
+ * accompanied this code).
+ * <p/>
+ * Created on 17-10-26
+ *
+ * @author agent
+ */
+public class DatabaseBenchmark {
+
+	private static final String TAG = "DatabaseBenchmark";
+
+	// scratch database, deleted after every run
+	private static final String DATABASE_NAME = "temperature_benchmark.db";
+
+	// number of devices the entries are spread over
+	private static final int DEVICES = 60;
+
+	// time between the generated entries of a device
+	private static final long SAMPLE_INTERVAL = 10000;
+
+	// number of entries written per transaction while filling the query benchmark database
+	private static final int FILL_BATCH_SIZE = 10000;
+
+	// table of the insert benchmark, keyed like the entries of TemperatureDbAdapter
+	private static final String INSERT_TABLE = "entries";
+
+	// number of day queries timed by key and with a full scan
+	private static final int QUERIES_BY_KEY = 50;
+	private static final int QUERIES_FULL_SCAN = 5;
+
+	public interface Listener {
+		// called on the main thread with the report of the benchmark
+		void onReport(String report);
+	}
+
+	private final Context mContext;
+	private final Handler mHandler = new Handler(Looper.getMainLooper());
+
+	public DatabaseBenchmark(Context context) {
+		mContext = context;
+	}
+
+	/**
+	 * Write Config.DATABASE_BENCHMARK_ENTRIES temperatures one transaction per entry, and
+	 * again in batches of Config.TEMPERATURE_BATCH_SIZE, on a thread of its own
+	 *
+	 * @param listener gets the report when done
+	 */
+	public void start(final Listener listener) {
+		new Thread(new Runnable() {
+			@Override
+			public void run() {
+				final String report = DatabaseBenchmark.this.run(Config.DATABASE_BENCHMARK_ENTRIES);
+				Log.i(TAG, report);
+				mHandler.post(new Runnable() {
+					@Override
+					public void run() {
+						listener.onReport(report);
+					}
+				});
+			}
+		}, TAG).start();
+	}
+
+	/**
+	 * Fill a scratch database with Config.QUERY_BENCHMARK_ENTRIES temperatures and time
+	 * the query for a day of one device, like the statistics screen does, by key and with a
+	 * full scan
+	 *
+	 * @param listener gets the report when done
+	 */
+	public void startQueries(final Listener listener) {
+		new Thread(new Runnable() {
+			@Override
+			public void run() {
+				final String report = runQueries(Config.QUERY_BENCHMARK_ENTRIES);
+				Log.i(TAG, report);
+				mHandler.post(new Runnable() {
+					@Override
+					public void run() {
+						listener.onReport(report);
+					}
+				});
+			}
+		}, TAG).start();
+	}
+
+	/**
+	 * Time Config.INSERT_BENCHMARK_ENTRIES inserts through ContentValues and the generic
+	 * insert, and through a compiled statement, and count the allocations of both
+	 *
+	 * @param listener gets the report when done
+	 */
+	public void startInserts(final Listener listener) {
+		new Thread(new Runnable() {
+			@Override
+			public void run() {
+				final String report = runInserts(Config.INSERT_BENCHMARK_ENTRIES);
+				Log.i(TAG, report);
+				mHandler.post(new Runnable() {
+					@Override
+					public void run() {
+						listener.onReport(report);
+					}
+				});
+			}
+		}, TAG).start();
+	}
+
+	private String runInserts(int entries) {
+		mContext.deleteDatabase(DATABASE_NAME);
+		SQLiteDatabase database = mContext.openOrCreateDatabase(DATABASE_NAME, Context.MODE_PRIVATE, null);
+		database.execSQL("create table " + INSERT_TABLE + " (" +
+				TemperatureDbAdapter.KEY_DEVICE_ID + " integer not null, " +
+				TemperatureDbAdapter.KEY_DATETIME + " integer not null, " +
+				TemperatureDbAdapter.KEY_TEMPERATURE + " integer, " +
+				"primary key (" + TemperatureDbAdapter.KEY_DEVICE_ID + ", " + TemperatureDbAdapter.KEY_DATETIME + "))");
+		String generic = timeInserts(database, entries, false);
+		database.delete(INSERT_TABLE, null, null);
+		String compiled = timeInserts(database, entries, true);
+		database.close();
+		mContext.deleteDatabase(DATABASE_NAME);
+
+		return "inserts of " + entries + " temperatures in one transaction\n" +
+				"  ContentValues: " + generic + "\n" +
+				"  compiled statement: " + compiled + "\n";
+	}
+
+	private String timeInserts(SQLiteDatabase database, int entries, boolean compiled) {
+		SQLiteStatement statement = database.compileStatement("insert or replace into " + INSERT_TABLE + " (" +
+				TemperatureDbAdapter.KEY_DEVICE_ID + ", " + TemperatureDbAdapter.KEY_DATETIME + ", " +
+				TemperatureDbAdapter.KEY_TEMPERATURE + ") values (?, ?, ?)");
+		long time = System.currentTimeMillis();
+		long duration;
+		long allocations;
+		long bytes;
+		database.beginTransaction();
+		try {
+			Debug.resetThreadAllocCount();
+			Debug.resetThreadAllocSize();
+			Debug.startAllocCounting();
+			long startTime = System.nanoTime();
+			for (int i = 0; i < entries; i++) {
+				if (compiled) {
+					statement.bindLong(1, i % DEVICES);
+					statement.bindLong(2, time + i);
+					statement.bindLong(3, i % 10);
+					statement.executeInsert();
+				} else {
+					ContentValues values = new ContentValues();
+					values.put(TemperatureDbAdapter.KEY_DEVICE_ID, i % DEVICES);
+					values.put(TemperatureDbAdapter.KEY_DATETIME, time + i);
+					values.put(TemperatureDbAdapter.KEY_TEMPERATURE, i % 10);
+					database.replaceOrThrow(INSERT_TABLE, null, values);
+				}
+			}
+			duration = System.nanoTime() - startTime;
+			Debug.stopAllocCounting();
+			allocations = Debug.getThreadAllocCount();
+			bytes = Debug.getThreadAllocSize();
+			database.setTransactionSuccessful();
+		} finally {
+			database.endTransaction();
+			statement.close();
+		}
+		return String.format("%.2f", duration / 1000.0 / entries) + " us/insert, " +
+				String.format("%.1f", (double) allocations / entries) + " allocations/insert (" + bytes / entries + " bytes)";
+	}
+
+	private String runQueries(int entries) {
+		mContext.deleteDatabase(DATABASE_NAME);
+		TemperatureDbAdapter db = new TemperatureDbAdapter(mContext, DATABASE_NAME).open();
+
+		// entries of all devices interleaved in time, ending now
+		long fillStartTime = System.currentTimeMillis();
+		long endTime = fillStartTime;
+		long startTime = endTime - (entries / DEVICES) * SAMPLE_INTERVAL;
+		for (int i = 0; i < entries; i++) {
+			long time = startTime + (i / DEVICES) * SAMPLE_INTERVAL;
+			if (db.queueEntry(getAddress(i), time, i % 10) >= FILL_BATCH_SIZE) {
+				db.flush();
+			}
+		}
+		db.flush();
+		long fillDuration = System.currentTimeMillis() - fillStartTime;
+
+		Random random = new Random(42);
+		String withKey = timeQueries(db, random, startTime, endTime, QUERIES_BY_KEY, false);
+		String fullScan = timeQueries(db, random, startTime, endTime, QUERIES_FULL_SCAN, true);
+		long size = db.getDatabaseSize();
+
+		// pack everything that makes full blocks, and compact the file
+		long packStartTime = System.currentTimeMillis();
+		int blocks = 0;
+		int packed;
+		do {
+			packed = db.packEntries(endTime + 1, FILL_BATCH_SIZE / Config.TEMPERATURE_BLOCK_SIZE);
+			blocks += packed;
+		} while (packed > 0);
+		long packDuration = System.currentTimeMillis() - packStartTime;
+		// the scratch database is new, so it has incremental vacuum
+		while (db.isIncrementalVacuum() && db.getFreeSize() > 0) {
+			db.incrementalVacuum(Config.MAINTENANCE_VACUUM_PAGES);
+		}
+		long packedSize = db.getDatabaseSize();
+		String blockSize = getBlockSize(blocks);
+
+		random = new Random(42);
+		String fromBlocks = timeQueries(db, random, startTime, endTime, QUERIES_BY_KEY, false);
+		db.close();
+		mContext.deleteDatabase(DATABASE_NAME);
+
+		return "queries for a day of one device, " + entries + " entries (filled in " + fillDuration + " ms)\n" +
+				"  database size: " + size / 1024 + " kB (" + String.format("%.1f", (double) size / entries) + " bytes/entry)\n" +
+				"  by key: " + withKey + "\n" +
+				"  full scan: " + fullScan + "\n" +
+				"  packed " + blocks + " blocks in " + packDuration + " ms, database size: " + packedSize / 1024 + " kB, " +
+				blockSize + "\n" +
+				"  from blocks: " + fromBlocks + "\n";
+	}
+
+	// size of the packed entries alone, the database size includes the rollups
+	private String getBlockSize(int blocks) {
+		SQLiteDatabase database = SQLiteDatabase.openDatabase(mContext.getDatabasePath(DATABASE_NAME).getPath(), null,
+				SQLiteDatabase.OPEN_READONLY);
+		try {
+			Cursor cursor = database.rawQuery("select sum(length(" + TemperatureDbAdapter.KEY_DATA + ")), sum(" +
+					TemperatureDbAdapter.KEY_SAMPLES + ") from " + TemperatureDbAdapter.TABLE_BLOCKS, null);
+			try {
+				if (!cursor.moveToFirst() || cursor.getLong(1) == 0) {
+					return "no blocks";
+				}
+				long bytes = cursor.getLong(0);
+				long samples = cursor.getLong(1);
+				return "blocks hold " + samples + " entries in " + bytes / 1024 + " kB (" +
+						String.format("%.2f", (double) bytes / samples) + " bytes/entry, " +
+						String.format("%.1f", (double) samples / blocks) + " entries/block)";
+			} finally {
+				cursor.close();
+			}
+		} finally {
+			database.close();
+		}
+	}
+
+	private String timeQueries(TemperatureDbAdapter db, Random random, long startTime, long endTime, int queries,
+							   boolean fullScan) {
+		long total = 0;
+		long max = 0;
+		long rows = 0;
+		long days = Math.max(1, (endTime - startTime) / (24 * 3600 * 1000));
+		SQLiteDatabase database = fullScan ? SQLiteDatabase.openDatabase(
+				mContext.getDatabasePath(DATABASE_NAME).getPath(), null, SQLiteDatabase.OPEN_READONLY) : null;
+		// loaded like the graph loads them, into the same series every time
+		TemperatureSeries series = new TemperatureSeries();
+		for (int i = 0; i < queries; i++) {
+			Date day = new Date(startTime + (random.nextInt((int) days)) * 24L * 3600 * 1000);
+			String address = getAddress(random.nextInt(DEVICES));
+			long queryStartTime = System.currentTimeMillis();
+			if (fullScan) {
+				// same query as the adapter, but not allowed to use the key, like before version 2
+				long dayStart = new Date(day.getYear(), day.getMonth(), day.getDate(), 0, 0).getTime();
+				Cursor cursor = database.rawQuery("select " + TemperatureDbAdapter.KEY_DATETIME + ", " +
+						TemperatureDbAdapter.KEY_TEMPERATURE + " from " + TemperatureDbAdapter.TABLE_NAME +
+						" not indexed where +" + TemperatureDbAdapter.KEY_DEVICE_ID + "=? and +" +
+						TemperatureDbAdapter.KEY_DATETIME + " between ? and ?",
+						new String[] { String.valueOf(db.getDeviceId(address, false)), String.valueOf(dayStart),
+								String.valueOf(dayStart + 24 * 3600 * 1000 - 1) });
+				series.read(cursor);
+				cursor.close();
+			} else {
+				db.fetchSeriesForDate(address, day, series);
+			}
+			rows += series.size();
+			long duration = System.currentTimeMillis() - queryStartTime;
+			total += duration;
+			max = Math.max(max, duration);
+		}
+		if (database != null) {
+			database.close();
+		}
+		return queries + " queries, mean " + total / queries + " ms, max " + max + " ms, " + rows / queries + " rows/query";
+	}
+
+	private String run(int entries) {
+		long perRow = writePerRow(entries);
+		String batched = writeBatched(entries, Config.TEMPERATURE_BATCH_SIZE);
+		return "database writes of " + entries + " temperatures\n" +
+				"  per row: " + perRow + " ms (" + String.format("%.2f", (double) perRow / entries) + " ms/entry)\n" +
+				"  batches of " + Config.TEMPERATURE_BATCH_SIZE + ": " + batched + "\n";
+	}
+
+	private long writePerRow(int entries) {
+		mContext.deleteDatabase(DATABASE_NAME);
+		TemperatureDbAdapter db = new TemperatureDbAdapter(mContext, DATABASE_NAME).open();
+		String[] addresses = getAddresses();
+		long startTime = System.currentTimeMillis();
+		for (int i = 0; i < entries; i++) {
+			db.createEntry(addresses[i % DEVICES], new Date(startTime + i), i % 10);
+		}
+		long duration = System.currentTimeMillis() - startTime;
+		db.close();
+		mContext.deleteDatabase(DATABASE_NAME);
+		return duration;
+	}
+
+	// times the flushes on their own, and counts their allocations, next to the total with queueing
+	private String writeBatched(int entries, int batchSize) {
+		mContext.deleteDatabase(DATABASE_NAME);
+		TemperatureDbAdapter db = new TemperatureDbAdapter(mContext, DATABASE_NAME).open();
+		String[] addresses = getAddresses();
+		long startTime = System.currentTimeMillis();
+		long flushDuration = 0;
+		long allocations = 0;
+		for (int i = 0; i < entries; i++) {
+			boolean last = i == entries - 1;
+			if (db.queueEntry(addresses[i % DEVICES], startTime + i, i % 10) >= batchSize || last) {
+				Debug.resetThreadAllocCount();
+				Debug.startAllocCounting();
+				long flushStartTime = System.nanoTime();
+				db.flush();
+				flushDuration += System.nanoTime() - flushStartTime;
+				Debug.stopAllocCounting();
+				allocations += Debug.getThreadAllocCount();
+			}
+		}
+		long duration = System.currentTimeMillis() - startTime;
+		db.close();
+		mContext.deleteDatabase(DATABASE_NAME);
+		return duration + " ms (" + String.format("%.2f", (double) duration / entries) + " ms/entry), flush " +
+				String.format("%.2f", flushDuration / 1000.0 / entries) + " us/entry, " +
+				String.format("%.1f", (double) allocations / entries) + " allocations/entry";
+	}
+
+	// one address per device, made up front so the loops don't format them per entry
+	private String[] getAddresses() {
+		String[] addresses = new String[DEVICES];
+		for (int i = 0; i < DEVICES; i++) {
+			addresses[i] = getAddress(i);
+		}
+		return addresses;
+	}
+
+	private String getAddress(int entry) {
+		return String.format("DB:00:00:00:00:%02X", entry % DEVICES);
+	}
+}
@@ -0,0 +1,266 @@
+package nl.dobots.fridgefile;
+
+import android.database.SQLException;
+import android.util.Log;
+
+import java.util.concurrent.ScheduledExecutorService;
+
+/**
+ * Copyright (c) 2026 agent <agent@local>. All rights reserved.
+ * <p/>
+ * This code is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License version 3, as
+ * published by the Free Software Foundation.
+ * <p/>
+ * This code is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE.  See the GNU General Public License
+ * version 3 for more details (a copy is included in the LICENSE file that
+ * accompanied this code).
+ * <p/>
+ * Created on 17-10-26
+ *
+ * @author agent
+ */
+public class DbMaintenance {
+
+	private static final String TAG = "DbMaintenance";
+
+	// result of a run of the maintenance job
+	public static class Report {
+		private final long mTime;
+		private final long mBlocksPacked;
+		private final long mRowsRemoved;
+		private final long mBytesReclaimed;
+		private final long mDuration;
+		private final long mSize;
+
+		Report(long time, long blocksPacked, long rowsRemoved, long bytesReclaimed, long duration, long size) {
+			mTime = time;
+			mBlocksPacked = blocksPacked;
+			mRowsRemoved = rowsRemoved;
+			mBytesReclaimed = bytesReclaimed;
+			mDuration = duration;
+			mSize = size;
+		}
+
+		public long getTime() {
+			return mTime;
+		}
+
+		public long getBlocksPacked() {
+			return mBlocksPacked;
+		}
+
+		public long getRowsRemoved() {
+			return mRowsRemoved;
+		}
+
+		public long getBytesReclaimed() {
+			return mBytesReclaimed;
+		}
+
+		// time the job spent working, without the time it gave to writers in between
+		public long getDuration() {
+			return mDuration;
+		}
+
+		// size of the database after the run
+		public long getSize() {
+			return mSize;
+		}
+
+		@Override
+		public String toString() {
+			return "packed " + mBlocksPacked + " blocks, removed " + mRowsRemoved + " rows, reclaimed " + mBytesReclaimed / 1024 + " kB in " +
+					mDuration + " ms, size now " + mSize / 1024 + " kB";
+		}
+	}
+
+	// what is cleaned up, in this order
+	private static final int DELETE_ENTRIES = 0;
+	private static final int DELETE_BLOCKS = 1;
+	private static final int DELETE_MINUTES = 2;
+	private static final int DELETE_DONE = 3;
+
+	// number of blocks packed in one transaction, about as many entries as are deleted in one
+	private static final int PACK_BATCH_SIZE = Math.max(1, Config.MAINTENANCE_BATCH_SIZE / Config.TEMPERATURE_BLOCK_SIZE);
+
+	private final TemperatureDbAdapter mDb;
+	private final ScheduledExecutorService mExecutor;
+
+	private long mRawRetention = Config.RAW_RETENTION_MILLIS;
+	private long mMinuteRetention = Config.MINUTE_RETENTION_MILLIS;
+
+	private boolean mRunning;
+	private volatile Report mLastReport;
+
+	// state of the current run
+	private int mStep;
+	private long mStartTime;
+	private long mStartSize;
+	private long mBlocksPacked;
+	private long mRowsRemoved;
+	private long mDuration;
+
+	/**
+	 * @param db the database to clean up
+	 * @param executor the executor the database is written on, every step of the job is a
+	 *                 task of its own, so queued writes are done in between
+	 */
+	public DbMaintenance(TemperatureDbAdapter db, ScheduledExecutorService executor) {
+		mDb = db;
+		mExecutor = executor;
+	}
+
+	/**
+	 * Set how long raw entries are kept, packed or not, older ones only remain in the rollups
+	 */
+	public void setRawRetention(long rawRetention) {
+		mRawRetention = rawRetention;
+	}
+
+	/**
+	 * Set how long minute rollups are kept, hour and day rollups are kept forever
+	 */
+	public void setMinuteRetention(long minuteRetention) {
+		mMinuteRetention = minuteRetention;
+	}
+
+	public Report getLastReport() {
+		return mLastReport;
+	}
+
+	/**
+	 * Start a run of the job, unless one is running already
+	 */
+	public synchronized void start() {
+		if (mRunning) {
+			return;
+		}
+		mRunning = true;
+		mExecutor.execute(mStartRunnable);
+	}
+
+	private final Runnable mStartRunnable = new Runnable() {
+		@Override
+		public void run() {
+			long stepStart = System.currentTimeMillis();
+			mStartTime = stepStart;
+			mStep = DELETE_ENTRIES;
+			mBlocksPacked = 0;
+			mRowsRemoved = 0;
+			mDuration = 0;
+			try {
+				mDb.flush();
+				mStartSize = mDb.getDatabaseSize();
+			} catch (SQLException e) {
+				Log.e(TAG, "failed to start maintenance", e);
+				finish(null);
+				return;
+			}
+			mDuration += System.currentTimeMillis() - stepStart;
+			mExecutor.execute(mPackRunnable);
+		}
+	};
+
+	// packs one batch of blocks, and queues itself again until there's nothing left to pack
+	private final Runnable mPackRunnable = new Runnable() {
+		@Override
+		public void run() {
+			long stepStart = System.currentTimeMillis();
+			int packed;
+			try {
+				packed = mDb.packEntries(mStartTime - Config.TEMPERATURE_PACK_AGE_MILLIS, PACK_BATCH_SIZE);
+			} catch (SQLException e) {
+				Log.e(TAG, "failed to pack entries", e);
+				finish(null);
+				return;
+			}
+			mBlocksPacked += packed;
+			mDuration += System.currentTimeMillis() - stepStart;
+			if (packed < PACK_BATCH_SIZE) {
+				mExecutor.execute(mDeleteRunnable);
+			} else {
+				mExecutor.execute(this);
+			}
+		}
+	};
+
+	// deletes one batch, and queues itself again until there's nothing left to delete
+	private final Runnable mDeleteRunnable = new Runnable() {
+		@Override
+		public void run() {
+			long stepStart = System.currentTimeMillis();
+			int deleted;
+			try {
+				deleted = delete(mStep);
+			} catch (SQLException e) {
+				Log.e(TAG, "failed to delete old entries", e);
+				finish(null);
+				return;
+			}
+			mRowsRemoved += deleted;
+			mDuration += System.currentTimeMillis() - stepStart;
+			if (deleted < Config.MAINTENANCE_BATCH_SIZE) {
+				mStep++;
+			}
+			if (mStep < DELETE_DONE) {
+				mExecutor.execute(this);
+			} else {
+				mExecutor.execute(mVacuumRunnable);
+			}
+		}
+	};
+
+	// gives back free pages, a bounded number per step. never a full vacuum, that would keep
+	// the writers waiting for as long as it takes to rewrite the file
+	private final Runnable mVacuumRunnable = new Runnable() {
+		@Override
+		public void run() {
+			long stepStart = System.currentTimeMillis();
+			boolean done = true;
+			try {
+				if (mDb.isIncrementalVacuum()) {
+					mDb.incrementalVacuum(Config.MAINTENANCE_VACUUM_PAGES);
+					done = mDb.getFreeSize() == 0;
+				}
+			} catch (SQLException e) {
+				Log.e(TAG, "failed to vacuum", e);
+				finish(null);
+				return;
+			}
+			mDuration += System.currentTimeMillis() - stepStart;
+			if (!done) {
+				mExecutor.execute(this);
+				return;
+			}
+			long size = mDb.getDatabaseSize();
+			finish(new Report(mStartTime, mBlocksPacked, mRowsRemoved, Math.max(0, mStartSize - size), mDuration, size));
+		}
+	};
+
+	// delete a batch of what the step cleans up, returns the number of rows deleted
+	private int delete(int step) {
+		switch (step) {
+			case DELETE_ENTRIES:
+				return mDb.deleteEntriesBefore(TemperatureDbAdapter.Resolution.RAW, mStartTime - mRawRetention,
+						Config.MAINTENANCE_BATCH_SIZE);
+			case DELETE_BLOCKS:
+				return mDb.deleteBlocksBefore(mStartTime - mRawRetention, Config.MAINTENANCE_BATCH_SIZE);
+			default:
+				return mDb.deleteEntriesBefore(TemperatureDbAdapter.Resolution.MINUTE, mStartTime - mMinuteRetention,
+						Config.MAINTENANCE_BATCH_SIZE);
+		}
+	}
+
+	private void finish(Report report) {
+		if (report != null) {
+			Log.i(TAG, "maintenance done: " + report);
+			mLastReport = report;
+		}
+		synchronized (this) {
+			mRunning = false;
+		}
+	}
+}
@@ -0,0 +1,73 @@
+package nl.dobots.fridgefile;
+
+import android.database.sqlite.SQLiteDatabase;
+import android.util.Log;
+
+/**
+ * Copyright (c) 2026 agent <agent@local>. All rights reserved.
+ * <p/>
+ * This code is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License version 3, as
+ * published by the Free Software Foundation.
+ * <p/>
+ * This code is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE.  See the GNU General Public License
+ * version 3 for more details (a copy is included in the LICENSE file that
+ * accompanied this code).
+ * <p/>
+ * Created on 17-10-26
+ *
+ * @author agent
+ */
+public abstract class DbMigration {
+
+	private static final String TAG = "DbMigration";
+
+	// version of the database after this migration
+	private final int mVersion;
+
+	public DbMigration(int version) {
+		mVersion = version;
+	}
+
+	public int getVersion() {
+		return mVersion;
+	}
+
+	/**
+	 * Change the schema from version getVersion() - 1 to getVersion(), keeping the data
+	 *
+	 * @param db database, already inside the transaction of the upgrade
+	 */
+	public abstract void migrate(SQLiteDatabase db);
+
+	/**
+	 * Apply the migrations from oldVersion to newVersion one by one. Called from
+	 * SQLiteOpenHelper.onUpgrade, which runs in a transaction, so a failing migration leaves
+	 * the database at the old version.
+	 *
+	 * @param migrations migrations in order of version, one for every version after the first
+	 * @throws IllegalStateException if a migration is missing
+	 */
+	public static void migrate(SQLiteDatabase db, int oldVersion, int newVersion, DbMigration[] migrations) {
+		int version = oldVersion;
+		for (DbMigration migration : migrations) {
+			if (migration.getVersion() <= version) {
+				continue;
+			}
+			if (migration.getVersion() > newVersion) {
+				break;
+			}
+			if (migration.getVersion() != version + 1) {
+				throw new IllegalStateException("no migration from version " + version + " to " + (version + 1));
+			}
+			Log.i(TAG, "migrating to version " + migration.getVersion());
+			migration.migrate(db);
+			version = migration.getVersion();
+		}
+		if (version != newVersion) {
+			throw new IllegalStateException("no migration from version " + version + " to " + newVersion);
+		}
+	}
+}
@@ -68,6 +68,7 @@ public class DeviceSelectActivity extends AppCompatActivity implements AdapterVi
 	protected void onDestroy() {
 		super.onDestroy();
 		Log.d(TAG, "onDestroy");
+		FridgeFile.getInstance().removeReadyCallback(_enableScanRunnable);
 		FridgeFile.getInstance().removeListener(_fridgeFileListener);
 		FridgeFile.getInstance().getBle().stopScan(new IStatusCallback() {
 			@Override
@@ -107,9 +108,19 @@ public class DeviceSelectActivity extends AppCompatActivity implements AdapterVi
 //		return super.onOptionsItemSelected(item);
 //	}
 
+	// scanned devices can only be added once the stored devices are loaded
+	private final Runnable _enableScanRunnable = new Runnable() {
+		@Override
+		public void run() {
+			findViewById(R.id.scanButton).setEnabled(true);
+		}
+	};
+
 	private void initButtons() {
 		_isScanning = false;
 		final Button doneButton = (Button) findViewById(R.id.scanButton);
+		doneButton.setEnabled(false);
+		FridgeFile.getInstance().runWhenReady(_enableScanRunnable);
 		doneButton.setOnClickListener(new View.OnClickListener() {
 			public void onClick(View v) {
 				if (!_isScanning) {
@@ -184,12 +195,10 @@ public class DeviceSelectActivity extends AppCompatActivity implements AdapterVi
 		if (!_storedDeviceList.contains(device.getAddress())) {
 			view.setBackgroundColor(Config.BACKGROUND_SELECTED_COLOR);
 			_storedDeviceList.add(new StoredBleDevice(device.getAddress(), device.getName()));
-			FridgeFile.getInstance().setStoredDeviceList(_storedDeviceList);
 		}
 		else {
 			view.setBackgroundColor(Config.BACKGROUND_DEFAULT_COLOR);
 			_storedDeviceList.remove(device.getAddress());
-			FridgeFile.getInstance().setStoredDeviceList(_storedDeviceList);
 		}
 	}
 
@@ -0,0 +1,76 @@
+package nl.dobots.fridgefile;
+
+import android.os.Bundle;
+import android.support.v7.app.AppCompatActivity;
+import android.util.Log;
+import android.widget.CheckBox;
+import android.widget.CompoundButton;
+import android.widget.TextView;
+import android.widget.Toast;
+
+/**
+ * Copyright (c) 2026 agent <agent@local>. All rights reserved.
+ * <p/>
+ * This code is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License version 3, as
+ * published by the Free Software Foundation.
+ * <p/>
+ * This code is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE.  See the GNU General Public License
+ * version 3 for more details (a copy is included in the LICENSE file that
+ * accompanied this code).
+ * <p/>
+ * Created on 18-10-26
+ *
+ * @author agent
+ */
+
+/**
+ * Settings of one stored device, opened from the device list. For now only whether the device
+ * is critical: critical devices are streamed over a connection that is kept open, instead of
+ * being polled.
+ */
+public class DeviceSettingsActivity extends AppCompatActivity {
+	private static final String TAG = DeviceSettingsActivity.class.getCanonicalName();
+
+	/** Address of the device, extra of the intent that starts the activity */
+	public static final String EXTRA_ADDRESS = "address";
+
+	private StoredBleDevice _device;
+
+	@Override
+	protected void onCreate(Bundle savedInstanceState) {
+		super.onCreate(savedInstanceState);
+		setContentView(R.layout.activity_device_settings);
+
+		String address = getIntent().getStringExtra(EXTRA_ADDRESS);
+		_device = address == null ? null : FridgeFile.getInstance().getStoredDeviceList().get(address);
+		if (_device == null) {
+			Log.e(TAG, "unknown device " + address);
+			finish();
+			return;
+		}
+
+		initUI();
+	}
+
+	private void initUI() {
+		final TextView nameView = (TextView) findViewById(R.id.deviceName);
+		nameView.setText(_device.getName());
+		final TextView addressView = (TextView) findViewById(R.id.deviceAddress);
+		addressView.setText(_device.getAddress());
+
+		final CheckBox criticalCheckBox = (CheckBox) findViewById(R.id.criticalCheckBox);
+		criticalCheckBox.setChecked(_device.isCritical());
+		criticalCheckBox.setOnCheckedChangeListener(new CompoundButton.OnCheckedChangeListener() {
+			@Override
+			public void onCheckedChanged(CompoundButton buttonView, boolean isChecked) {
+				Log.d(TAG, "set critical of " + _device.getAddress() + " to " + isChecked);
+				FridgeFile.getInstance().setDeviceCritical(_device, isChecked);
+				Toast.makeText(DeviceSettingsActivity.this,
+						isChecked ? R.string.critical_on : R.string.critical_off, Toast.LENGTH_SHORT).show();
+			}
+		});
+	}
+}
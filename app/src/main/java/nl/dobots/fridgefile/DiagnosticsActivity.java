@@ -0,0 +1,167 @@
+package nl.dobots.fridgefile;
+
+import android.os.Bundle;
+import android.os.Handler;
+import android.support.v7.app.AppCompatActivity;
+import android.view.Menu;
+import android.view.MenuItem;
+import android.widget.TextView;
+
+import java.io.PrintWriter;
+import java.io.StringWriter;
+
+import nl.dobots.bluenet.ble.base.callbacks.IStatusCallback;
+
+/**
+ * Copyright (c) 2026 agent <agent@local>. All rights reserved.
+ * <p/>
+ * This code is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License version 3, as
+ * published by the Free Software Foundation.
+ * <p/>
+ * This code is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE.  See the GNU General Public License
+ * version 3 for more details (a copy is included in the LICENSE file that
+ * accompanied this code).
+ * <p/>
+ * Created on 17-10-26
+ *
+ * @author agent
+ */
+
+public class DiagnosticsActivity extends AppCompatActivity {
+	private static final String TAG = DiagnosticsActivity.class.getCanonicalName();
+
+	/** Time between refreshes of the shown metrics */
+	private static final int REFRESH_DELAY_MILLIS = 1000;
+	/** Number of fridges that are simulated from the menu */
+	private static final int SIMULATED_FLEET_SIZE = 100;
+	/** Fraction of the simulated fridges that are out of range */
+	private static final double SIMULATED_UNREACHABLE_RATE = 0.05;
+	/** Seed of the simulated fleet, so the same fridges come back every time */
+	private static final long SIMULATED_FLEET_SEED = 42;
+
+	private Handler _handler;
+	private TextView _diagnosticsText;
+	private StringBuilder _benchmarkReport = new StringBuilder();
+
+	@Override
+	protected void onCreate(Bundle savedInstanceState) {
+		super.onCreate(savedInstanceState);
+		setContentView(R.layout.activity_diagnostics);
+
+		_diagnosticsText = (TextView) findViewById(R.id.diagnosticsText);
+		_handler = new Handler();
+	}
+
+	@Override
+	public boolean onCreateOptionsMenu(Menu menu) {
+		getMenuInflater().inflate(R.menu.menu_diagnostics, menu);
+		return true;
+	}
+
+	@Override
+	public boolean onPrepareOptionsMenu(Menu menu) {
+		menu.findItem(R.id.action_simulate).setTitle(FridgeFile.getInstance().isSimulating() ?
+				R.string.menu_stop_simulation : R.string.menu_simulate);
+		return super.onPrepareOptionsMenu(menu);
+	}
+
+	@Override
+	public boolean onOptionsItemSelected(MenuItem item) {
+		int id = item.getItemId();
+
+		if (id == R.id.action_simulate) {
+			toggleSimulation();
+			return true;
+		}
+		if (id == R.id.action_database_benchmark) {
+			_benchmarkReport.append(getString(R.string.benchmark_running)).append("\n");
+			new DatabaseBenchmark(this).start(_databaseBenchmarkListener);
+			return true;
+		}
+		if (id == R.id.action_query_benchmark) {
+			_benchmarkReport.append(getString(R.string.benchmark_running)).append("\n");
+			new DatabaseBenchmark(this).startQueries(_databaseBenchmarkListener);
+			return true;
+		}
+		if (id == R.id.action_insert_benchmark) {
+			_benchmarkReport.append(getString(R.string.benchmark_running)).append("\n");
+			new DatabaseBenchmark(this).startInserts(_databaseBenchmarkListener);
+			return true;
+		}
+		if (id == R.id.action_maintenance) {
+			// the report shows up in the dump once done
+			FridgeFile.getInstance().getDbMaintenance().start();
+			return true;
+		}
+
+		return super.onOptionsItemSelected(item);
+	}
+
+	private final DatabaseBenchmark.Listener _databaseBenchmarkListener = new DatabaseBenchmark.Listener() {
+		@Override
+		public void onReport(String report) {
+			_benchmarkReport.append(report).append("\n");
+		}
+	};
+
+	/**
+	 * Switch between the real fridges and a simulated fleet, so the app can be tried without
+	 * fridges around. Sampling is stopped while switching.
+	 */
+	private void toggleSimulation() {
+		final BleFridgeService service = FridgeFile.getInstance().getFridgeService();
+		if (service == null) {
+			return;
+		}
+		service.stopSampling(new IStatusCallback() {
+			@Override
+			public void onSuccess() {
+				FridgeFile fridgeFile = FridgeFile.getInstance();
+				if (fridgeFile.isSimulating()) {
+					fridgeFile.stopSimulation();
+				} else {
+					fridgeFile.startSimulation(new SimulatedFleet(SIMULATED_FLEET_SIZE, SIMULATED_FLEET_SEED, SIMULATED_UNREACHABLE_RATE));
+				}
+				service.reloadBackend();
+				service.resetMetrics();
+				service.startSampling();
+				supportInvalidateOptionsMenu();
+			}
+
+			@Override
+			public void onError(int error) {
+				// sampling was started again in the meantime, leave it as it is
+			}
+		});
+	}
+
+	@Override
+	protected void onStart() {
+		super.onStart();
+		_handler.post(_refreshRunnable);
+	}
+
+	@Override
+	protected void onStop() {
+		super.onStop();
+		_handler.removeCallbacks(_refreshRunnable);
+	}
+
+	private final Runnable _refreshRunnable = new Runnable() {
+		@Override
+		public void run() {
+			BleFridgeService service = FridgeFile.getInstance().getFridgeService();
+			if (service != null) {
+				// same output as dumpsys
+				StringWriter text = new StringWriter();
+				text.append(_benchmarkReport);
+				service.dump(null, new PrintWriter(text), null);
+				_diagnosticsText.setText(text.toString());
+			}
+			_handler.postDelayed(this, REFRESH_DELAY_MILLIS);
+		}
+	};
+}
@@ -0,0 +1,289 @@
+package nl.dobots.fridgefile;
+
+import android.content.ContentValues;
+import android.content.Context;
+import android.database.Cursor;
+import android.database.DatabaseUtils;
+import android.database.SQLException;
+import android.database.sqlite.SQLiteDatabase;
+import android.database.sqlite.SQLiteOpenHelper;
+import android.util.Log;
+
+import java.io.File;
+import java.util.HashMap;
+
+/**
+ * Copyright (c) 2026 agent <agent@local>. All rights reserved.
+ * <p/>
+ * This code is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License version 3, as
+ * published by the Free Software Foundation.
+ * <p/>
+ * This code is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE.  See the GNU General Public License
+ * version 3 for more details (a copy is included in the LICENSE file that
+ * accompanied this code).
+ * <p/>
+ * Created on 17-10-26
+ *
+ * @author agent
+ */
+
+/**
+ * Owns the database with all tables of the app: the temperatures, the alerts and the stored
+ * devices, with one version and one list of migrations. The database is opened once, in
+ * write-ahead logging mode, so reads for the charts run next to the writes of the samples
+ * instead of waiting for them. The adapters share the one SQLiteDatabase, and don't close it.
+ */
+public class FridgeDatabase {
+
+	private static final String TAG = "FridgeDatabase";
+
+	// database version, increase if the schema changes, and add a migration to MIGRATIONS that
+	// brings the previous version to the new one
+	public static final int DATABASE_VERSION = 7;
+	// filename of the database, kept from when it only held the temperatures
+	public static final String DATABASE_NAME = "temperature.db";
+
+	// migrations, in order of version. up to version 5 the database only had the temperatures
+	private static final DbMigration[] MIGRATIONS = new DbMigration[] {
+			TemperatureDbAdapter.MIGRATIONS[0],
+			TemperatureDbAdapter.MIGRATIONS[1],
+			TemperatureDbAdapter.MIGRATIONS[2],
+			TemperatureDbAdapter.MIGRATIONS[3],
+			new DbMigration(6) {
+				@Override
+				public void migrate(SQLiteDatabase db) {
+					db.execSQL(AlertDbAdapter.DATABASE_CREATE);
+					db.execSQL(StoredBleDeviceList.DatabaseHelper.DATABASE_CREATE);
+				}
+			},
+			new DbMigration(7) {
+				@Override
+				public void migrate(SQLiteDatabase db) {
+					db.execSQL(AlertDbAdapter.EVENTS_CREATE);
+					db.execSQL(AlertDbAdapter.EVENTS_INDEX_CREATE);
+					db.execSQL(AlertDbAdapter.EVENTS_END_INDEX_CREATE);
+					AlertDbAdapter.convertLegacyAlerts(db);
+				}
+			}
+	};
+
+	// the database of the app, see getInstance
+	private static FridgeDatabase sInstance;
+
+	// database helper to manage database creation and version management
+	private final DatabaseHelper mDbHelper;
+
+	// database object to read and write database, opened on first use
+	private SQLiteDatabase mDb;
+
+	// device ids by address, see getDeviceId
+	private final HashMap<String, Long> mDeviceIds = new HashMap<>();
+
+	// helper class to manage database creation and version management, see SQLiteOpenHelper
+	private static class DatabaseHelper extends SQLiteOpenHelper {
+
+		private final Context mContext;
+
+		// whether the tables of the old separate database are copied in on creation
+		private final boolean mImportLegacy;
+
+		// set when the old separate database was copied in, it is deleted once opened
+		boolean mImportedLegacy;
+
+		DatabaseHelper(Context context, String databaseName, boolean importLegacy) {
+			super(context, databaseName, null, DATABASE_VERSION);
+			mContext = context;
+			mImportLegacy = importLegacy;
+			setWriteAheadLoggingEnabled(true);
+		}
+
+		// auto vacuum can only be set before the first table is created, so this only takes
+		// effect on a new database
+		@Override
+		public void onConfigure(SQLiteDatabase db) {
+			db.execSQL("pragma auto_vacuum = incremental");
+		}
+
+		// a database made before auto vacuum was set is switched while it is small, since the
+		// switch takes a full vacuum. a bigger one keeps its mode, and DbMaintenance only
+		// deletes in it
+		@Override
+		public void onOpen(SQLiteDatabase db) {
+			long size = DatabaseUtils.longForQuery(db, "pragma page_count", null) *
+					DatabaseUtils.longForQuery(db, "pragma page_size", null);
+			if (!isIncrementalVacuum(db) && size <= Config.VACUUM_SWITCH_MAX_SIZE) {
+				Log.i(TAG, "switching to incremental vacuum, " + size + " bytes");
+				db.execSQL("pragma auto_vacuum = incremental");
+				db.execSQL("vacuum");
+			}
+		}
+
+		// called when database should be created, creates version 1 and migrates it, so
+		// new and upgraded databases end up with the same schema
+		@Override
+		public void onCreate(SQLiteDatabase db) {
+			db.execSQL(TemperatureDbAdapter.DATABASE_CREATE);
+			DbMigration.migrate(db, 1, DATABASE_VERSION, MIGRATIONS);
+			importLegacy(db);
+		}
+
+		// called if version changed and database needs to be upgraded, keeps all data
+		@Override
+		public void onUpgrade(SQLiteDatabase db, int oldVersion, int newVersion) {
+			Log.i(TAG, "Upgrading database from version " + oldVersion + " to " + newVersion);
+			// the pages an upgrade frees are given back by DbMaintenance, not here, so opening
+			// doesn't have to rewrite the whole file
+			DbMigration.migrate(db, oldVersion, newVersion, MIGRATIONS);
+			if (oldVersion < 6) {
+				importLegacy(db);
+			}
+		}
+
+		/**
+		 * Copy the devices and alerts from the database they were kept in before, Config.DATABASE_NAME.
+		 * That one is read through a connection of its own, attaching it would turn off
+		 * write-ahead logging.
+		 */
+		private void importLegacy(SQLiteDatabase db) {
+			File file = mContext.getDatabasePath(Config.DATABASE_NAME);
+			if (!mImportLegacy || !file.exists()) {
+				return;
+			}
+			Log.i(TAG, "importing " + file.getPath());
+			SQLiteDatabase legacy = SQLiteDatabase.openDatabase(file.getPath(), null, SQLiteDatabase.OPEN_READONLY);
+			try {
+				importTable(legacy, db, StoredBleDeviceList.DatabaseHelper.TABLE_NAME);
+				importTable(legacy, db, AlertDbAdapter.TABLE_NAME);
+			} finally {
+				legacy.close();
+			}
+			// the migration to version 7 ran before the alerts were copied in
+			AlertDbAdapter.convertLegacyAlerts(db);
+			mImportedLegacy = true;
+		}
+
+		private void importTable(SQLiteDatabase from, SQLiteDatabase to, String table) {
+			// only the table created first ever got created in the old database
+			if (DatabaseUtils.queryNumEntries(from, "sqlite_master", "type='table' AND name=?", new String[] { table }) == 0) {
+				return;
+			}
+			Cursor cursor = from.rawQuery("select * from " + table, null);
+			try {
+				ContentValues values = new ContentValues();
+				while (cursor.moveToNext()) {
+					values.clear();
+					DatabaseUtils.cursorRowToContentValues(cursor, values);
+					to.insertWithOnConflict(table, null, values, SQLiteDatabase.CONFLICT_IGNORE);
+				}
+				Log.i(TAG, "imported " + cursor.getCount() + " rows of " + table);
+			} finally {
+				cursor.close();
+			}
+		}
+	}
+
+	/**
+	 * Open a database with another filename, e.g. a scratch database for benchmarks. Nothing
+	 * is imported into it.
+	 */
+	public FridgeDatabase(Context context, String databaseName) {
+		this(context, databaseName, false);
+	}
+
+	private FridgeDatabase(Context context, String databaseName, boolean importLegacy) {
+		mDbHelper = new DatabaseHelper(context, databaseName, importLegacy);
+	}
+
+	/**
+	 * @return the database of the app
+	 */
+	public static synchronized FridgeDatabase getInstance(Context context) {
+		if (sInstance == null) {
+			sInstance = new FridgeDatabase(context.getApplicationContext(), DATABASE_NAME, true);
+		}
+		return sInstance;
+	}
+
+	/**
+	 * Get the database, opening it the first time. If it cannot be opened, try to create a new
+	 * instance of the database. Opening runs the migrations, so the first call should not be
+	 * made on the ui thread.
+	 *
+	 * @throws SQLException if the database could be neither opened or created
+	 */
+	public synchronized SQLiteDatabase getDatabase() throws SQLException {
+		if (mDb != null && mDb.isOpen()) {
+			return mDb;
+		}
+		mDb = mDbHelper.getWritableDatabase();
+		if (mDbHelper.mImportedLegacy) {
+			// only deleted once the import is committed
+			mDbHelper.mContext.deleteDatabase(Config.DATABASE_NAME);
+			mDbHelper.mImportedLegacy = false;
+		}
+		return mDb;
+	}
+
+	/**
+	 * @return true if free pages of the database can be given back with incremental vacuum
+	 */
+	static boolean isIncrementalVacuum(SQLiteDatabase db) {
+		// 0: none, 1: full, 2: incremental
+		return DatabaseUtils.longForQuery(db, "pragma auto_vacuum", null) == 2;
+	}
+
+	/**
+	 * Get the id of a device in TemperatureDbAdapter.TABLE_DEVICES, which the other tables
+	 * refer to devices by
+	 *
+	 * @param address the address of the device
+	 * @param create add the device if it isn't known yet
+	 * @return the id, or -1 if the device isn't known and create is false
+	 */
+	public synchronized long getDeviceId(String address, boolean create) {
+		Long id = mDeviceIds.get(address);
+		if (id != null) {
+			return id;
+		}
+		SQLiteDatabase db = getDatabase();
+		Cursor cursor = db.query(TemperatureDbAdapter.TABLE_DEVICES, new String[] {TemperatureDbAdapter.KEY_ROWID},
+				TemperatureDbAdapter.KEY_ADDRESS + "=?", new String[] {address}, null, null, null);
+		try {
+			if (cursor.moveToFirst()) {
+				id = cursor.getLong(0);
+			}
+		} finally {
+			cursor.close();
+		}
+		if (id == null) {
+			if (!create) {
+				return -1;
+			}
+			ContentValues values = new ContentValues();
+			values.put(TemperatureDbAdapter.KEY_ADDRESS, address);
+			id = db.insertOrThrow(TemperatureDbAdapter.TABLE_DEVICES, null, values);
+		}
+		mDeviceIds.put(address, id);
+		return id;
+	}
+
+	/**
+	 * Forget the cached device ids, after a transaction that may have added devices failed
+	 */
+	public synchronized void forgetDeviceIds() {
+		mDeviceIds.clear();
+	}
+
+	/**
+	 * Close the database, only for databases opened with the constructor, the one of the app
+	 * stays open
+	 */
+	public synchronized void close() {
+		mDbHelper.close();
+		mDb = null;
+		mDeviceIds.clear();
+	}
+}
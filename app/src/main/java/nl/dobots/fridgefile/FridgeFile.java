@@ -13,14 +13,17 @@ import android.graphics.Color;
 import android.os.Handler;
 import android.os.IBinder;
 import android.support.v4.app.NotificationCompat;
+import android.util.Log;
 
 import java.util.ArrayList;
-import java.util.Date;
 import java.util.List;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
 
 import nl.dobots.bluenet.ble.base.callbacks.IStatusCallback;
 import nl.dobots.bluenet.ble.base.structs.BleAlertState;
-import nl.dobots.bluenet.ble.extended.BleExt;
 
 /**
  * Copyright (c) 2015 Bart van Vliet <bart@dobots.nl>. All rights reserved.
@@ -46,7 +49,11 @@ public class FridgeFile extends Application {
 	private Handler _handler;
 	private SharedPreferences _preferences;
 
-	private BleExt _ble;
+	private BleBackend _ble;
+	// set on the main thread, read by the sampling and i/o threads
+	private volatile SimulatedFleet _simulatedFleet;
+	private BleBackend _realBle;
+	private StoredBleDeviceList _realStoredDeviceList;
 
 	private NotificationManager _notificationManager;
 	private NotificationCompat.Builder _notificationBuilder;
@@ -55,6 +62,20 @@ public class FridgeFile extends Application {
 
 	private TemperatureDbAdapter _temperatureDb;
 	private AlertDbAdapter _alertDb;
+	// database writes are done one after another on this thread, off the sampling and ui threads
+	private ScheduledExecutorService _ioExecutor;
+	// whether a flush of the queued temperatures is scheduled
+	private boolean _flushScheduled;
+	private DbMaintenance _dbMaintenance;
+	private ScheduledFuture<?> _dbMaintenanceFuture;
+
+	// whether the databases are opened and the stored devices loaded, see openDatabases
+	private boolean _databaseOpen;
+	// whether start was called, the service is bound once the databases are open
+	private boolean _started;
+	// whether the databases are open and the service is connected, see runWhenReady
+	private boolean _ready;
+	private final List<Runnable> _readyCallbacks = new ArrayList<>();
 
 	private BleFridgeService _fridgeService = null;
 	private ServiceConnection _fridgeServiceConnection = new ServiceConnection() {
@@ -62,6 +83,7 @@ public class FridgeFile extends Application {
 		public void onServiceConnected(ComponentName name, IBinder service) {
 			_fridgeService = ((BleFridgeService.BleFridgeBinder)service).getService();
 			_fridgeService.addListener(_fridgeListener);
+			setReady();
 		}
 		@Override
 		public void onServiceDisconnected(ComponentName name) {
@@ -83,18 +105,85 @@ public class FridgeFile extends Application {
 //		_phoneNumber = _preferences.getString("phoneNumber", "");
 
 //		_context.deleteDatabase(Config.DATABASE_NAME);
-//		_context.deleteDatabase(TemperatureDbAdapter.DATABASE_NAME);
+//		_context.deleteDatabase(FridgeDatabase.DATABASE_NAME);
 
-		_storedDeviceList = new StoredBleDeviceList(_context);
-		_storedDeviceList.load();
+		_ioExecutor = Executors.newSingleThreadScheduledExecutor();
+
+		_storedDeviceList = new StoredBleDeviceList(_context, _ioExecutor);
+		_storedDeviceList.addListener(_deviceListListener);
 		_listenerList = new ArrayList<>();
 
-		_temperatureDb = new TemperatureDbAdapter(this).open();
-		_alertDb = new AlertDbAdapter(this).open();
+		_temperatureDb = new TemperatureDbAdapter(this);
+		_alertDb = new AlertDbAdapter(this);
+		_dbMaintenance = new DbMaintenance(_temperatureDb, _ioExecutor);
+		openDatabases();
 
 		start();
 	}
 
+	/**
+	 * Open the databases and load the stored devices on the io executor, after an update the
+	 * migrations can take a while. Everything else that is done on the io executor comes
+	 * after this, the rest waits for runWhenReady.
+	 */
+	private void openDatabases() {
+		_ioExecutor.execute(new Runnable() {
+			@Override
+			public void run() {
+				_storedDeviceList.load();
+				_temperatureDb.open();
+				_alertDb.open();
+				_handler.post(new Runnable() {
+					@Override
+					public void run() {
+						_databaseOpen = true;
+						sendToListeners(_storedDeviceList);
+						if (_started) {
+							bindFridgeService();
+						}
+					}
+				});
+			}
+		});
+	}
+
+	private void bindFridgeService() {
+		if (_fridgeService == null) {
+			bindService(new Intent(this, BleFridgeService.class), _fridgeServiceConnection, Context.BIND_AUTO_CREATE);
+		}
+	}
+
+	private void setReady() {
+		_ready = true;
+		List<Runnable> callbacks = new ArrayList<>(_readyCallbacks);
+		_readyCallbacks.clear();
+		for (Runnable callback : callbacks) {
+			callback.run();
+		}
+	}
+
+	/**
+	 * Run the callback on the ui thread once the databases are open and the service is
+	 * connected, right away if they are already. Activities that use the stored devices, the
+	 * databases or the service wait for this.
+	 *
+	 * @param callback called once, unless removed with removeReadyCallback before
+	 */
+	public void runWhenReady(Runnable callback) {
+		if (_ready) {
+			callback.run();
+		} else if (!_readyCallbacks.contains(callback)) {
+			_readyCallbacks.add(callback);
+		}
+	}
+
+	/**
+	 * Remove a callback given to runWhenReady that wasn't called yet
+	 */
+	public void removeReadyCallback(Runnable callback) {
+		_readyCallbacks.remove(callback);
+	}
+
 	public static FridgeFile getInstance() {
 		return _instance;
 	}
@@ -105,22 +194,22 @@ public class FridgeFile extends Application {
 
 	public void start() {
 		if (_ble == null) {
-			_ble = new BleExt();
-			_ble.init(_context, new IStatusCallback() {
-				@Override
-				public void onSuccess() {
-
-				}
+			_ble = createBle();
+		}
 
+		if (_dbMaintenanceFuture == null) {
+			// keeps the database from growing forever, first run shortly after start
+			_dbMaintenanceFuture = _ioExecutor.scheduleWithFixedDelay(new Runnable() {
 				@Override
-				public void onError(int error) {
-
+				public void run() {
+					_dbMaintenance.start();
 				}
-			});
+			}, Config.MAINTENANCE_INTERVAL_MILLIS / 24, Config.MAINTENANCE_INTERVAL_MILLIS, TimeUnit.MILLISECONDS);
 		}
 
-		if (_fridgeService == null) {
-			bindService(new Intent(this, BleFridgeService.class), _fridgeServiceConnection, Context.BIND_AUTO_CREATE);
+		_started = true;
+		if (_databaseOpen) {
+			bindFridgeService();
 		}
 	}
 
@@ -128,33 +217,160 @@ public class FridgeFile extends Application {
 	 */
 	public void stop() {
 		_storedDeviceList.save();
+		_started = false;
+		_ready = false;
 		if (_fridgeService != null) {
 			_fridgeService.removeListener(_fridgeListener);
 			unbindService(_fridgeServiceConnection);
 			_fridgeService = null;
 		}
 
-		_temperatureDb.close();
-		_alertDb.close();
+		if (_dbMaintenanceFuture != null) {
+			_dbMaintenanceFuture.cancel(false);
+			_dbMaintenanceFuture = null;
+		}
+
+		// write what is still queued, the database stays open for when we start again
+		_ioExecutor.execute(new Runnable() {
+			@Override
+			public void run() {
+				_temperatureDb.flush();
+			}
+		});
 
-		_ble = null;
+		if (_ble != null) {
+			_ble.destroy();
+			_ble = null;
+		}
 	}
 
-	public BleExt getBle() {
+	public BleBackend getBle() {
 		return _ble;
 	}
 
+	/**
+	 * Create and initialize a new BleBackend, for when a separate connection is needed
+	 * next to the one of getBle(). While simulating, this talks to the simulated fleet.
+	 */
+	public BleBackend createBle() {
+		BleBackend ble;
+		if (_simulatedFleet != null) {
+			ble = new SimulatedBleBackend(_simulatedFleet);
+		} else {
+			ble = new BleExtBackend();
+		}
+		ble.init(_context, new IStatusCallback() {
+			@Override
+			public void onSuccess() {
+
+			}
+
+			@Override
+			public void onError(int error) {
+
+			}
+		});
+		return ble;
+	}
+
+	/**
+	 * Replace the ble backend and the stored devices by the given simulated fleet. Samples
+	 * of the simulated devices are not stored and don't give notifications.
+	 * Sampling should be stopped while switching.
+	 */
+	public void startSimulation(SimulatedFleet fleet) {
+		if (_simulatedFleet == null) {
+			_realBle = _ble;
+			_realStoredDeviceList = _storedDeviceList;
+		} else {
+			_ble.destroy();
+			_simulatedFleet.quit();
+		}
+		_simulatedFleet = fleet;
+		_ble = createBle();
+		StoredBleDeviceList deviceList = new StoredBleDeviceList();
+		for (StoredBleDevice device : fleet.createStoredDevices()) {
+			deviceList.add(device);
+		}
+		setStoredDeviceList(deviceList);
+	}
+
+	/**
+	 * Go back to the real ble backend and stored devices.
+	 * Sampling should be stopped while switching.
+	 */
+	public void stopSimulation() {
+		if (_simulatedFleet == null) {
+			return;
+		}
+		_simulatedFleet.quit();
+		_simulatedFleet = null;
+		_ble.destroy();
+		_ble = _realBle;
+		_realBle = null;
+		setStoredDeviceList(_realStoredDeviceList);
+		_realStoredDeviceList = null;
+	}
+
+	public boolean isSimulating() {
+		return _simulatedFleet != null;
+	}
+
 	public StoredBleDeviceList getStoredDeviceList() {
 		return _storedDeviceList;
 	}
 
 	public void setStoredDeviceList(StoredBleDeviceList storedDeviceList) {
-		_storedDeviceList = storedDeviceList;
+		if (storedDeviceList != _storedDeviceList) {
+			_storedDeviceList.removeListener(_deviceListListener);
+			storedDeviceList.addListener(_deviceListListener);
+			_storedDeviceList = storedDeviceList;
+		}
 		sendToListeners(storedDeviceList);
 	}
 
+	// tells the listeners about changes of the stored devices, on the ui thread. several
+	// changes in a row give one call
+	private final StoredBleDeviceList.Listener _deviceListListener = new StoredBleDeviceList.Listener() {
+		@Override
+		public void onDeviceAdded(StoredBleDevice device) {
+			postDeviceListChanged();
+		}
+
+		@Override
+		public void onDeviceRemoved(StoredBleDevice device) {
+			postDeviceListChanged();
+		}
+
+		@Override
+		public void onDeviceChanged(StoredBleDevice device) {
+			postDeviceListChanged();
+		}
+	};
+
+	private void postDeviceListChanged() {
+		_handler.removeCallbacks(_deviceListChangedRunnable);
+		_handler.post(_deviceListChangedRunnable);
+	}
+
+	private final Runnable _deviceListChangedRunnable = new Runnable() {
+		@Override
+		public void run() {
+			sendToListeners(_storedDeviceList);
+		}
+	};
+
 
 
+	/**
+	 * Mark a device as critical, so that it's streamed instead of polled. Saved with the device.
+	 */
+	public void setDeviceCritical(StoredBleDevice device, boolean critical) {
+		device.setCritical(critical);
+		// tells the listeners as well
+		_storedDeviceList.update(device);
+	}
+
 	public void addListener(FridgeFileListener listener) {
 		_listenerList.add(listener);
 	}
@@ -175,8 +391,11 @@ public class FridgeFile extends Application {
 	//////////////////////////////////////////
 	final BleFridgeServiceListener _fridgeListener = new BleFridgeServiceListener() {
 		@Override
-		public void onTemperature(StoredBleDevice device, int temperature) {
-			_temperatureDb.createEntry(device.getAddress(), new Date(), temperature);
+		public void onTemperature(final StoredBleDevice device, final int temperature) {
+			if (_simulatedFleet != null) {
+				return;
+			}
+			storeTemperature(device.getAddress(), System.currentTimeMillis(), temperature);
 //			StoredBleDevice listedDevice = _storedDeviceList.get(device);
 //			if (listedDevice != null) {
 //				Log.d(TAG, "update current temp");
@@ -186,6 +405,9 @@ public class FridgeFile extends Application {
 
 		@Override
 		public void onAlert(StoredBleDevice device, BleAlertState oldAlertState, BleAlertState newAlertState) {
+			if (_simulatedFleet != null) {
+				return;
+			}
 
 			// checking alert levels
 			if (newAlertState.isTemperatureLowActive() && !oldAlertState.isTemperatureLowActive()) {
@@ -193,7 +415,9 @@ public class FridgeFile extends Application {
 				String notificationBig = notificationSmall += String.format(" for Device %s [%s]",
 						device.getName(), device.getAddress());
 				createAlertNotification(notificationSmall, notificationBig);
-				_alertDb.createEntry(new Date(), notificationSmall);
+				storeAlert(device, AlertDbAdapter.Kind.TEMPERATURE_LOW, true);
+			} else if (!newAlertState.isTemperatureLowActive() && oldAlertState.isTemperatureLowActive()) {
+				storeAlert(device, AlertDbAdapter.Kind.TEMPERATURE_LOW, false);
 			}
 			if (newAlertState.isTemperatureHighActive() && !oldAlertState.isTemperatureHighActive()) {
 				String notificationSmall = String.format("Temperature High Alert (%d °C)",
@@ -201,11 +425,81 @@ public class FridgeFile extends Application {
 				String notificationBig = notificationSmall += String.format(" for Device %s [%s]",
 						device.getName(), device.getAddress());
 				createAlertNotification(notificationSmall, notificationBig);
-				_alertDb.createEntry(new Date(), notificationSmall);
+				storeAlert(device, AlertDbAdapter.Kind.TEMPERATURE_HIGH, true);
+			} else if (!newAlertState.isTemperatureHighActive() && oldAlertState.isTemperatureHighActive()) {
+				storeAlert(device, AlertDbAdapter.Kind.TEMPERATURE_HIGH, false);
 			}
 		}
 	};
 
+	/**
+	 * Temperatures are written in batches, when Config.TEMPERATURE_BATCH_SIZE are queued or
+	 * Config.TEMPERATURE_BATCH_DELAY_MILLIS after the first one was queued, whichever comes first
+	 */
+	private void storeTemperature(String address, long time, int temperature) {
+		int pending = _temperatureDb.queueEntry(address, time, temperature);
+		synchronized (this) {
+			if (pending >= Config.TEMPERATURE_BATCH_SIZE) {
+				_ioExecutor.execute(_flushRunnable);
+			} else if (!_flushScheduled) {
+				_flushScheduled = true;
+				_ioExecutor.schedule(_flushRunnable, Config.TEMPERATURE_BATCH_DELAY_MILLIS, TimeUnit.MILLISECONDS);
+			}
+		}
+	}
+
+	private final Runnable _flushRunnable = new Runnable() {
+		@Override
+		public void run() {
+			synchronized (FridgeFile.this) {
+				_flushScheduled = false;
+			}
+			int written = _temperatureDb.flush();
+			Log.d(TAG, "wrote " + written + " temperatures");
+		}
+	};
+
+	/**
+	 * Write the queued temperatures now, instead of waiting for the batch to fill up
+	 */
+	public void flushTemperatures() {
+		_ioExecutor.execute(_flushRunnable);
+	}
+
+	public DbMaintenance getDbMaintenance() {
+		return _dbMaintenance;
+	}
+
+	/**
+	 * @return number of temperatures that are queued, but not written yet
+	 */
+	public int getPendingTemperatureCount() {
+		return _temperatureDb.getPendingCount();
+	}
+
+	/**
+	 * Log that an alert of the device went off (active) or cleared
+	 */
+	private void storeAlert(StoredBleDevice device, final AlertDbAdapter.Kind kind, final boolean active) {
+		final String address = device.getAddress();
+		final int temperature = device.getCurrentTemperature();
+		final long time = System.currentTimeMillis();
+		_ioExecutor.execute(new Runnable() {
+			@Override
+			public void run() {
+				if (active) {
+					_alertDb.startAlert(address, kind, temperature, time);
+				} else {
+					_alertDb.endAlert(address, kind, time);
+				}
+			}
+		});
+	}
+
+	public AlertDbAdapter getAlertDb() {
+		return _alertDb;
+	}
+
 	private void createAlertNotification(String notificationSmall, String notificationBig) {
 
 		Intent contentIntent = new Intent(this, MainActivity.class);
@@ -228,6 +522,13 @@ public class FridgeFile extends Application {
 		if (_fridgeService != null) {
 			_fridgeService.resetDeviceAlerts();
 		}
+		final long time = System.currentTimeMillis();
+		_ioExecutor.execute(new Runnable() {
+			@Override
+			public void run() {
+				_alertDb.acknowledgeAlerts(null, time);
+			}
+		});
 	}
 
 	public void stopSampling() {
@@ -236,6 +537,17 @@ public class FridgeFile extends Application {
 		}
 	}
 
+	/**
+	 * Stop sampling, the callback is called once the radio is free to use
+	 */
+	public void stopSampling(IStatusCallback callback) {
+		if (_fridgeService != null) {
+			_fridgeService.stopSampling(callback);
+		} else {
+			callback.onSuccess();
+		}
+	}
+
 	public void startSampling() {
 		if (_fridgeService != null) {
 			_fridgeService.startSampling();
@@ -245,4 +557,11 @@ public class FridgeFile extends Application {
 	public TemperatureDbAdapter getTemperatureDb() {
 		return _temperatureDb;
 	}
+
+	/**
+	 * @return single thread executor on which the databases are written
+	 */
+	public ScheduledExecutorService getIoExecutor() {
+		return _ioExecutor;
+	}
 }
@@ -0,0 +1,48 @@
+package nl.dobots.fridgefile;
+
+import android.os.Handler;
+
+/**
+ * Copyright (c) 2026 agent <agent@local>. All rights reserved.
+ * <p/>
+ * This code is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License version 3, as
+ * published by the Free Software Foundation.
+ * <p/>
+ * This code is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE.  See the GNU General Public License
+ * version 3 for more details (a copy is included in the LICENSE file that
+ * accompanied this code).
+ * <p/>
+ * Created on 18-10-26
+ *
+ * @author agent
+ */
+
+/**
+ * Clock on the system time, callbacks run on the thread of the handler
+ */
+public class HandlerClock implements Clock {
+
+	private final Handler _handler;
+
+	public HandlerClock(Handler handler) {
+		_handler = handler;
+	}
+
+	@Override
+	public long now() {
+		return System.currentTimeMillis();
+	}
+
+	@Override
+	public void postDelayed(Runnable runnable, long delay) {
+		_handler.postDelayed(runnable, delay);
+	}
+
+	@Override
+	public void removeCallbacks(Runnable runnable) {
+		_handler.removeCallbacks(runnable);
+	}
+}
@@ -0,0 +1,83 @@
+package nl.dobots.fridgefile;
+
+/**
+ * Copyright (c) 2026 agent <agent@local>. All rights reserved.
+ * <p/>
+ * This code is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License version 3, as
+ * published by the Free Software Foundation.
+ * <p/>
+ * This code is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE.  See the GNU General Public License
+ * version 3 for more details (a copy is included in the LICENSE file that
+ * accompanied this code).
+ * <p/>
+ * Created on 17-10-26
+ *
+ * @author agent
+ */
+
+/**
+ * The latest temperatures of one device, in a ring buffer of fixed capacity. Once full, every
+ * new sample overwrites the oldest one, so however long the live view runs, it never holds
+ * more than the capacity. Samples are indexed from the oldest (0) to the newest (size - 1).
+ */
+public class LiveSeries {
+
+	private final long[] mTimes;
+	private final short[] mTemperatures;
+	// index of the oldest sample in the arrays
+	private int mStart;
+	private int mSize;
+
+	public LiveSeries(int capacity) {
+		mTimes = new long[capacity];
+		mTemperatures = new short[capacity];
+	}
+
+	/**
+	 * Add a sample, newer than the ones in the series
+	 *
+	 * @return true if the oldest sample was evicted to make room
+	 */
+	public boolean add(long time, int temperature) {
+		boolean evicted = mSize == mTimes.length;
+		int index;
+		if (evicted) {
+			index = mStart;
+			mStart = (mStart + 1) % mTimes.length;
+		} else {
+			index = (mStart + mSize) % mTimes.length;
+			mSize++;
+		}
+		mTimes[index] = time;
+		mTemperatures[index] = (short) temperature;
+		return evicted;
+	}
+
+	public void clear() {
+		mStart = 0;
+		mSize = 0;
+	}
+
+	public int size() {
+		return mSize;
+	}
+
+	public int capacity() {
+		return mTimes.length;
+	}
+
+	public boolean isFull() {
+		return mSize == mTimes.length;
+	}
+
+	public long getTime(int index) {
+		return mTimes[(mStart + index) % mTimes.length];
+	}
+
+	public int getTemperature(int index) {
+		return mTemperatures[(mStart + index) % mTimes.length];
+	}
+}
@@ -67,9 +67,8 @@ public class MainActivity extends AppCompatActivity
 		_deviceListCopy = _deviceList.toList();
 		_handler = new Handler();
 
-		if (_fridgeService == null) {
-			bindService(new Intent(this, BleFridgeService.class), _fridgeServiceConnection, Context.BIND_AUTO_CREATE);
-		}
+		// the service is only created once the database is open
+		FridgeFile.getInstance().runWhenReady(_bindServiceRunnable);
 
 		initListView();
 
@@ -81,6 +80,7 @@ public class MainActivity extends AppCompatActivity
 	protected void onDestroy() {
 		super.onDestroy();
 		Log.d(TAG, "onDestroy");
+		FridgeFile.getInstance().removeReadyCallback(_bindServiceRunnable);
 		if (_fridgeService != null) {
 			_fridgeService.removeListener(_bleFridgeListener);
 			unbindService(_fridgeServiceConnection);
@@ -112,6 +112,9 @@ public class MainActivity extends AppCompatActivity
 			case R.id.action_statistics:
 				startActivity(new Intent(this, StatisticsActivity.class));
 				return true;
+			case R.id.action_diagnostics:
+				startActivity(new Intent(this, DiagnosticsActivity.class));
+				return true;
 			case R.id.action_reset_alerts:
 				FridgeFile.getInstance().resetAlerts();
 				return true;
@@ -169,14 +172,16 @@ public class MainActivity extends AppCompatActivity
 	public void onItemClick(AdapterView<?> parent, View view, int position, long id) {
 		StoredBleDevice device = _deviceListCopy.get(position);
 		Log.d(TAG, "clicked item " + position + " " + device.getAddress());
+		Intent intent = new Intent(this, DeviceSettingsActivity.class);
+		intent.putExtra(DeviceSettingsActivity.EXTRA_ADDRESS, device.getAddress());
+		startActivity(intent);
 	}
 
 	@Override
 	public boolean onItemLongClick(AdapterView<?> parent, View view, int position, long id) {
 		Log.d(TAG, "Remove item " + position + " " + _deviceListCopy.get(position).getAddress());
+		// the list tells FridgeFile, which calls onStoredDeviceList
 		_deviceList.remove(_deviceListCopy.get(position));
-		FridgeFile.getInstance().setStoredDeviceList(_deviceList);
-//		updateDeviceList();
 		return true;
 	}
 
@@ -233,6 +238,9 @@ public class MainActivity extends AppCompatActivity
 				viewHolder.deviceNameView.setText(device.getName());
 				String info = device.getAddress();
 				info += "\nTemperature range: " + device.getMinTemperature() + " - " + device.getMaxTemperature();
+				if (device.isCritical()) {
+					info += "\nCritical: streaming";
+				}
 				info += "\nLast temperature: ";
 				int temperature = device.getCurrentTemperature();
 				if (temperature != Integer.MIN_VALUE) {
@@ -283,6 +291,15 @@ public class MainActivity extends AppCompatActivity
 	//////////////////////////////////////////
 	// Communication with the BleFridgeService
 	//////////////////////////////////////////
+	private final Runnable _bindServiceRunnable = new Runnable() {
+		@Override
+		public void run() {
+			if (_fridgeService == null) {
+				bindService(new Intent(MainActivity.this, BleFridgeService.class), _fridgeServiceConnection, Context.BIND_AUTO_CREATE);
+			}
+		}
+	};
+
 	private BleFridgeService _fridgeService = null;
 	private ServiceConnection _fridgeServiceConnection = new ServiceConnection() {
 		@Override
@@ -0,0 +1,219 @@
+package nl.dobots.fridgefile;
+
+import android.util.Log;
+
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.PriorityQueue;
+
+/**
+ * Copyright (c) 2026 agent <agent@local>. All rights reserved.
+ * <p/>
+ * This code is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License version 3, as
+ * published by the Free Software Foundation.
+ * <p/>
+ * This code is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE.  See the GNU General Public License
+ * version 3 for more details (a copy is included in the LICENSE file that
+ * accompanied this code).
+ * <p/>
+ * Created on 17-10-26
+ *
+ * @author agent
+ */
+
+/**
+ * Keeps track of when each device has to be sampled next. Devices whose temperature is close
+ * to their min or max temperature, or is changing fast, are sampled every
+ * Config.MIN_SAMPLE_INTERVAL_MILLIS. Devices with a stable temperature are backed off up to
+ * Config.MAX_SAMPLE_INTERVAL_MILLIS.
+ */
+public class SampleScheduler {
+	private static final String TAG = SampleScheduler.class.getCanonicalName();
+
+	private static class Entry {
+		StoredBleDevice device;
+		long dueTime;
+		long interval = Config.MIN_SAMPLE_INTERVAL_MILLIS;
+		int lastTemperature = Integer.MIN_VALUE;
+		long lastSampleTime;
+		boolean inFlight;
+		CircuitBreaker breaker = new CircuitBreaker();
+	}
+
+	private final PriorityQueue<Entry> _queue = new PriorityQueue<>(11, new Comparator<Entry>() {
+		@Override
+		public int compare(Entry lhs, Entry rhs) {
+			return lhs.dueTime < rhs.dueTime ? -1 : (lhs.dueTime == rhs.dueTime ? 0 : 1);
+		}
+	});
+	private final HashMap<String, Entry> _entries = new HashMap<>();
+
+	/**
+	 * Add new devices (due immediately) and remove the ones that are no longer in the list
+	 */
+	public synchronized void update(List<StoredBleDevice> devices, long now) {
+		HashSet<String> addresses = new HashSet<>();
+		for (StoredBleDevice device : devices) {
+			addresses.add(device.getAddress());
+			Entry entry = _entries.get(device.getAddress());
+			if (entry == null) {
+				entry = new Entry();
+				entry.dueTime = now;
+				_entries.put(device.getAddress(), entry);
+				_queue.add(entry);
+			}
+			entry.device = device;
+		}
+		Iterator<Entry> it = _entries.values().iterator();
+		while (it.hasNext()) {
+			Entry entry = it.next();
+			if (!addresses.contains(entry.device.getAddress())) {
+				_queue.remove(entry);
+				it.remove();
+			}
+		}
+	}
+
+	/**
+	 * Take the first device that is due. The device is not scheduled again until
+	 * sampled(), failed() or postpone() is called for it. Devices whose circuit breaker
+	 * doesn't allow an attempt yet are queued again at the time it does.
+	 *
+	 * @return the device, or null if no device is due
+	 */
+	public synchronized StoredBleDevice pollDue(long now) {
+		Entry entry;
+		while ((entry = _queue.peek()) != null && entry.dueTime <= now) {
+			_queue.poll();
+			boolean open = entry.breaker.getState() == CircuitBreaker.State.open;
+			if (!entry.breaker.allowAttempt(now)) {
+				// postponed before the breaker opened, wait for it
+				entry.dueTime = entry.breaker.getOpenUntil();
+				_queue.add(entry);
+				continue;
+			}
+			if (open) {
+				Log.d(TAG, "probing unreachable device " + entry.device.getAddress());
+			}
+			entry.inFlight = true;
+			return entry.device;
+		}
+		return null;
+	}
+
+	/**
+	 * @return time at which the next device is due, Long.MAX_VALUE if there are no devices queued
+	 */
+	public synchronized long getNextDueTime() {
+		Entry entry = _queue.peek();
+		return entry == null ? Long.MAX_VALUE : entry.dueTime;
+	}
+
+	/**
+	 * The device was sampled successfully, schedule it based on its new temperature
+	 */
+	public synchronized void sampled(StoredBleDevice device, long now) {
+		Entry entry = _entries.get(device.getAddress());
+		if (entry == null) {
+			return;
+		}
+		entry.breaker.onSuccess();
+		int temperature = device.getCurrentTemperature();
+		entry.interval = getInterval(entry, temperature, now);
+		entry.lastTemperature = temperature;
+		entry.lastSampleTime = now;
+		Log.d(TAG, "next sample of " + device.getAddress() + " in " + entry.interval + " ms");
+		schedule(entry, now + entry.interval);
+	}
+
+	/**
+	 * Sampling the device failed, try again after the minimum interval. When it keeps failing,
+	 * its circuit breaker opens and the device is backed off exponentially.
+	 */
+	public synchronized void failed(StoredBleDevice device, long now) {
+		Entry entry = _entries.get(device.getAddress());
+		if (entry == null) {
+			return;
+		}
+		if (entry.breaker.onFailure(now)) {
+			Log.w(TAG, device.getAddress() + " failed " + entry.breaker.getFailures() + " times, back off for " +
+					(entry.breaker.getOpenUntil() - now) + " ms");
+			schedule(entry, entry.breaker.getOpenUntil());
+		} else {
+			schedule(entry, now + Config.MIN_SAMPLE_INTERVAL_MILLIS);
+		}
+	}
+
+	/**
+	 * @return state of the circuit breaker of the device, null if the device is unknown
+	 */
+	public synchronized CircuitBreaker.State getCircuitState(StoredBleDevice device) {
+		Entry entry = _entries.get(device.getAddress());
+		return entry == null ? null : entry.breaker.getState();
+	}
+
+	/**
+	 * @return number of devices whose circuit breaker is not closed
+	 */
+	public synchronized int getOpenCircuitCount() {
+		int count = 0;
+		for (Entry entry : _entries.values()) {
+			if (entry.breaker.getState() != CircuitBreaker.State.closed) {
+				count++;
+			}
+		}
+		return count;
+	}
+
+	/**
+	 * Don't sample the device before the given time, without changing its interval
+	 */
+	public synchronized void postpone(StoredBleDevice device, long dueTime) {
+		Entry entry = _entries.get(device.getAddress());
+		if (entry == null) {
+			return;
+		}
+		schedule(entry, dueTime);
+	}
+
+	public synchronized void clear() {
+		_queue.clear();
+		_entries.clear();
+	}
+
+	private void schedule(Entry entry, long dueTime) {
+		if (!entry.inFlight) {
+			_queue.remove(entry);
+		}
+		entry.inFlight = false;
+		entry.dueTime = dueTime;
+		_queue.add(entry);
+	}
+
+	private long getInterval(Entry entry, int temperature, long now) {
+		StoredBleDevice device = entry.device;
+		// distance to the closest alert limit, negative when outside the range
+		int margin = Math.min(temperature - device.getMinTemperature(), device.getMaxTemperature() - temperature);
+		if (margin <= Config.SAMPLE_NEAR_LIMIT_TEMPERATURE) {
+			return Config.MIN_SAMPLE_INTERVAL_MILLIS;
+		}
+		if (entry.lastTemperature == Integer.MIN_VALUE || now <= entry.lastSampleTime) {
+			return entry.interval;
+		}
+		// change in degrees per minute
+		double rate = Math.abs(temperature - entry.lastTemperature) * 60000.0 / (now - entry.lastSampleTime);
+		if (rate >= Config.SAMPLE_FAST_CHANGE_RATE) {
+			return Config.MIN_SAMPLE_INTERVAL_MILLIS;
+		}
+		if (temperature == entry.lastTemperature) {
+			return Math.min(entry.interval * 2, Config.MAX_SAMPLE_INTERVAL_MILLIS);
+		}
+		return Math.max(entry.interval / 2, Config.MIN_SAMPLE_INTERVAL_MILLIS);
+	}
+}
@@ -0,0 +1,262 @@
+package nl.dobots.fridgefile;
+
+import android.util.Log;
+
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+import nl.dobots.bluenet.ble.base.callbacks.IStatusCallback;
+
+/**
+ * Copyright (c) 2026 agent <agent@local>. All rights reserved.
+ * <p/>
+ * This code is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License version 3, as
+ * published by the Free Software Foundation.
+ * <p/>
+ * This code is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE.  See the GNU General Public License
+ * version 3 for more details (a copy is included in the LICENSE file that
+ * accompanied this code).
+ * <p/>
+ * Created on 18-10-26
+ *
+ * @author agent
+ */
+
+/**
+ * Hands the devices that are due to the sampling sessions, as they become idle. Only the first
+ * getConcurrentConnections() sessions are used. Doesn't depend on the service, so it can run
+ * against a SimulatedFleet on a clock of its own.
+ *
+ * Synchronized, as sessions call back from their own ble threads. The listener is called with
+ * the lock held, the owner can synchronize on the loop for its own state.
+ */
+public class SamplingLoop {
+	private static final String TAG = SamplingLoop.class.getCanonicalName();
+
+	public interface Listener {
+		/**
+		 * Called for every due device, before it's sampled by connecting to it. A device that
+		 * doesn't need that has to be postponed in the scheduler by the listener.
+		 *
+		 * @return true to sample the device by connecting to it
+		 */
+		boolean needsPolling(StoredBleDevice device, long now);
+
+		/**
+		 * Called when sampling is halted and all sessions are idle
+		 */
+		void onIdle();
+	}
+
+	private final Clock _clock;
+	private final Runnable _wakeUpRunnable;
+	private final Listener _listener;
+	private final SampleScheduler _scheduler = new SampleScheduler();
+	private final List<SamplingSession> _sessions = new CopyOnWriteArrayList<>();
+	private int _concurrentConnections = 1;
+	private volatile boolean _sampling;
+	private volatile SamplingMetrics _metrics = new SamplingMetrics();
+	private long _cycleStartTime;
+
+	/**
+	 * @param clock clock of the sessions
+	 * @param wakeUpRunnable posted on the clock when sessions are idle, for when the next device
+	 *                       is due. It should update the devices and dispatch again.
+	 * @param listener listener
+	 */
+	public SamplingLoop(Clock clock, Runnable wakeUpRunnable, Listener listener) {
+		_clock = clock;
+		_wakeUpRunnable = wakeUpRunnable;
+		_listener = listener;
+	}
+
+	public boolean isSampling() {
+		return _sampling;
+	}
+
+	public void setSampling(boolean sampling) {
+		_sampling = sampling;
+	}
+
+	/**
+	 * Cancel the samples in progress
+	 */
+	public void cancel() {
+		for (SamplingSession session : _sessions) {
+			session.cancel();
+		}
+	}
+
+	/**
+	 * Set the devices to sample, new devices are due right away
+	 */
+	public synchronized void update(List<StoredBleDevice> devices) {
+		_scheduler.update(devices, _clock.now());
+	}
+
+	/**
+	 * Give every idle session the next due device
+	 */
+	public synchronized void dispatch() {
+		long now = _clock.now();
+		boolean sessionIdle = false;
+		for (int i = 0; i < _concurrentConnections && i < _sessions.size(); i++) {
+			SamplingSession session = _sessions.get(i);
+			if (!session.isIdle()) {
+				continue;
+			}
+			StoredBleDevice device = _sampling ? getNextDeviceToPoll(now) : null;
+			if (device == null) {
+				sessionIdle = true;
+				break;
+			}
+			if (_cycleStartTime == 0) {
+				_cycleStartTime = now;
+			}
+			sampleDevice(session, device);
+		}
+
+		if (_cycleStartTime != 0 && allSessionsIdle()) {
+			_metrics.onCycle(now - _cycleStartTime);
+			_cycleStartTime = 0;
+		}
+
+		if (!_sampling) {
+			if (allSessionsIdle()) {
+				_listener.onIdle();
+			}
+			return;
+		}
+
+		// when all sessions are busy, the next session that is done will dispatch again
+		if (sessionIdle) {
+			long delay = Math.min(_scheduler.getNextDueTime() - now, Config.SAMPLE_DELAY_MILLIS);
+			_clock.removeCallbacks(_wakeUpRunnable);
+			_clock.postDelayed(_wakeUpRunnable, Math.max(delay, 0));
+		}
+	}
+
+	/**
+	 * Get the next due device that has to be sampled by connecting to it
+	 *
+	 * @return the device, or null if no device has to be sampled now
+	 */
+	private StoredBleDevice getNextDeviceToPoll(long now) {
+		StoredBleDevice device;
+		while ((device = _scheduler.pollDue(now)) != null) {
+			if (_listener.needsPolling(device, now)) {
+				Log.d(TAG, "sampling " + device.getAddress() + " by connecting");
+				return device;
+			}
+		}
+		return null;
+	}
+
+	private void sampleDevice(final SamplingSession session, final StoredBleDevice device) {
+		session.sample(device, new IStatusCallback() {
+			@Override
+			public void onSuccess() {
+				_metrics.onSampled(device.getAddress(), session.getLastTimings());
+				_scheduler.sampled(device, _clock.now());
+				checkNextDevice();
+			}
+
+			@Override
+			public void onError(int error) {
+				_metrics.onFailed(device.getAddress(), error, session.getLastTimings());
+				if (error == SamplingSession.ERROR_CANCELLED) {
+					// not the device's fault, sample it first when sampling continues
+					_scheduler.postpone(device, _clock.now());
+				} else {
+					_scheduler.failed(device, _clock.now());
+				}
+				checkNextDevice();
+			}
+		});
+	}
+
+	private void checkNextDevice() {
+		Log.i(TAG, "checking next device");
+		dispatch();
+	}
+
+	public boolean allSessionsIdle() {
+		for (SamplingSession session : _sessions) {
+			if (!session.isIdle()) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	/**
+	 * Set the number of devices that are sampled at the same time. Bounded by the number of
+	 * connections the bluetooth stack supports (Config.MAX_GATT_CONNECTIONS). Sessions have
+	 * to be added up to this number.
+	 */
+	public synchronized void setConcurrentConnections(int concurrentConnections) {
+		_concurrentConnections = Math.max(1, Math.min(concurrentConnections, Config.MAX_GATT_CONNECTIONS));
+	}
+
+	public int getConcurrentConnections() {
+		return _concurrentConnections;
+	}
+
+	public synchronized void addSession(SamplingSession session) {
+		_sessions.add(session);
+	}
+
+	public List<SamplingSession> getSessions() {
+		return Collections.unmodifiableList(_sessions);
+	}
+
+	/**
+	 * Disconnect the sessions, they stay usable
+	 */
+	public void closeSessions() {
+		for (SamplingSession session : _sessions) {
+			session.close(new IStatusCallback() {
+				@Override
+				public void onSuccess() {
+
+				}
+
+				@Override
+				public void onError(int error) {
+
+				}
+			});
+		}
+	}
+
+	/**
+	 * Destroy and remove all sessions, and forget the devices
+	 */
+	public synchronized void destroySessions() {
+		// every session has a backend of its own, which registered receivers on init
+		for (SamplingSession session : _sessions) {
+			session.destroy();
+		}
+		_sessions.clear();
+		_scheduler.clear();
+	}
+
+	public SampleScheduler getScheduler() {
+		return _scheduler;
+	}
+
+	public SamplingMetrics getMetrics() {
+		return _metrics;
+	}
+
+	/**
+	 * Start over with empty metrics
+	 */
+	public void resetMetrics() {
+		_metrics = new SamplingMetrics();
+	}
+}
@@ -0,0 +1,280 @@
+package nl.dobots.fridgefile;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Copyright (c) 2026 agent <agent@local>. All rights reserved.
+ * <p/>
+ * This code is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License version 3, as
+ * published by the Free Software Foundation.
+ * <p/>
+ * This code is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE.  See the GNU General Public License
+ * version 3 for more details (a copy is included in the LICENSE file that
+ * accompanied this code).
+ * <p/>
+ * Created on 17-10-26
+ *
+ * @author agent
+ */
+
+/**
+ * Counters and latency histograms of the sampling loop. Recording only uses atomics, so it can
+ * be done from any ble thread without locking.
+ */
+public class SamplingMetrics {
+
+	/** Upper bounds (inclusive) of the histogram buckets in ms, the last bucket takes the rest */
+	private static final long[] BUCKET_BOUNDS = { 10, 25, 50, 100, 250, 500, 1000, 2500, 5000, 10000, 30000, 60000 };
+
+	/** Length of the window over which the samples per minute are counted */
+	private static final int RATE_WINDOW_SECONDS = 60;
+
+	/** Histogram with fixed buckets */
+	public static class Histogram {
+		private final AtomicLongArray _buckets = new AtomicLongArray(BUCKET_BOUNDS.length + 1);
+		private final AtomicLong _count = new AtomicLong();
+		private final AtomicLong _sum = new AtomicLong();
+		private final AtomicLong _max = new AtomicLong();
+
+		public void record(long value) {
+			int bucket = 0;
+			while (bucket < BUCKET_BOUNDS.length && value > BUCKET_BOUNDS[bucket]) {
+				bucket++;
+			}
+			_buckets.incrementAndGet(bucket);
+			_count.incrementAndGet();
+			_sum.addAndGet(value);
+			long max;
+			while (value > (max = _max.get()) && !_max.compareAndSet(max, value)) {
+				// retry
+			}
+		}
+
+		public long getCount() {
+			return _count.get();
+		}
+
+		public long getMean() {
+			long count = _count.get();
+			return count == 0 ? 0 : _sum.get() / count;
+		}
+
+		public long getMax() {
+			return _max.get();
+		}
+
+		/**
+		 * @return upper bound of the bucket that holds the given percentile, or the max for the last bucket
+		 */
+		public long getPercentile(double percentile) {
+			long count = _count.get();
+			if (count == 0) {
+				return 0;
+			}
+			long rank = (long) Math.ceil(count * percentile / 100);
+			long seen = 0;
+			for (int i = 0; i < _buckets.length(); i++) {
+				seen += _buckets.get(i);
+				if (seen >= rank) {
+					return i < BUCKET_BOUNDS.length ? BUCKET_BOUNDS[i] : _max.get();
+				}
+			}
+			return _max.get();
+		}
+
+		@Override
+		public String toString() {
+			return "n=" + getCount() + " mean=" + getMean() + " p50<=" + getPercentile(50) +
+					" p90<=" + getPercentile(90) + " p99<=" + getPercentile(99) + " max=" + getMax();
+		}
+	}
+
+	/** Metrics of one device */
+	public static class DeviceMetrics {
+		private final Histogram _connect = new Histogram();
+		private final Histogram _discover = new Histogram();
+		private final Histogram _read = new Histogram();
+		private final Histogram _disconnect = new Histogram();
+		private final AtomicLong _successes = new AtomicLong();
+		private final AtomicLong _notifications = new AtomicLong();
+		private final ConcurrentHashMap<Integer, AtomicLong> _failures = new ConcurrentHashMap<>();
+
+		public Histogram getConnect() {
+			return _connect;
+		}
+
+		public Histogram getDiscover() {
+			return _discover;
+		}
+
+		public Histogram getRead() {
+			return _read;
+		}
+
+		public Histogram getDisconnect() {
+			return _disconnect;
+		}
+
+		public long getSuccesses() {
+			return _successes.get();
+		}
+
+		public long getNotifications() {
+			return _notifications.get();
+		}
+
+		/**
+		 * @return number of failures per error code
+		 */
+		public Map<Integer, AtomicLong> getFailures() {
+			return Collections.unmodifiableMap(_failures);
+		}
+
+		private void recordTimings(SamplingSession.Timings timings) {
+			if (timings == null) {
+				return;
+			}
+			_connect.record(timings.getConnect());
+			if (timings.getDiscover() > 0) {
+				_discover.record(timings.getDiscover());
+			}
+			if (timings.getRead() > 0) {
+				_read.record(timings.getRead());
+			}
+			_disconnect.record(timings.getDisconnect());
+		}
+
+		private void recordFailure(int error) {
+			AtomicLong counter = _failures.get(error);
+			if (counter == null) {
+				_failures.putIfAbsent(error, new AtomicLong());
+				counter = _failures.get(error);
+			}
+			counter.incrementAndGet();
+		}
+	}
+
+	private final ConcurrentHashMap<String, DeviceMetrics> _devices = new ConcurrentHashMap<>();
+	private final Histogram _cycle = new Histogram();
+	private final AtomicLong _samples = new AtomicLong();
+	// samples per second over the last minute, indexed by second modulo the window
+	private final AtomicLongArray _rateCounts = new AtomicLongArray(RATE_WINDOW_SECONDS);
+	private final AtomicLongArray _rateSeconds = new AtomicLongArray(RATE_WINDOW_SECONDS);
+	private final long _startTime = System.currentTimeMillis();
+
+	public DeviceMetrics getDevice(String address) {
+		DeviceMetrics metrics = _devices.get(address);
+		if (metrics == null) {
+			_devices.putIfAbsent(address, new DeviceMetrics());
+			metrics = _devices.get(address);
+		}
+		return metrics;
+	}
+
+	/**
+	 * A device was sampled by connecting to it
+	 */
+	public void onSampled(String address, SamplingSession.Timings timings) {
+		DeviceMetrics metrics = getDevice(address);
+		metrics._successes.incrementAndGet();
+		metrics.recordTimings(timings);
+		countSample();
+	}
+
+	/**
+	 * A streamed device notified its temperature
+	 */
+	public void onNotification(String address) {
+		getDevice(address)._notifications.incrementAndGet();
+		countSample();
+	}
+
+	public void onFailed(String address, int error, SamplingSession.Timings timings) {
+		DeviceMetrics metrics = getDevice(address);
+		metrics.recordFailure(error);
+		metrics.recordTimings(timings);
+	}
+
+	/**
+	 * A cycle is the time from the moment sessions start sampling until they are all idle again
+	 */
+	public void onCycle(long duration) {
+		_cycle.record(duration);
+	}
+
+	public Histogram getCycle() {
+		return _cycle;
+	}
+
+	public long getSamples() {
+		return _samples.get();
+	}
+
+	/**
+	 * @return number of samples in the last minute
+	 */
+	public long getSamplesPerMinute() {
+		long second = System.currentTimeMillis() / 1000;
+		long total = 0;
+		for (int i = 0; i < RATE_WINDOW_SECONDS; i++) {
+			if (second - _rateSeconds.get(i) < RATE_WINDOW_SECONDS) {
+				total += _rateCounts.get(i);
+			}
+		}
+		return total;
+	}
+
+	private void countSample() {
+		_samples.incrementAndGet();
+		long second = System.currentTimeMillis() / 1000;
+		int index = (int) (second % RATE_WINDOW_SECONDS);
+		long bucketSecond = _rateSeconds.get(index);
+		if (bucketSecond != second && _rateSeconds.compareAndSet(index, bucketSecond, second)) {
+			// first sample in this second, the bucket still holds an old count
+			_rateCounts.set(index, 0);
+		}
+		_rateCounts.incrementAndGet(index);
+	}
+
+	/**
+	 * @return human readable overview of all metrics
+	 */
+	public String dump() {
+		StringBuilder sb = new StringBuilder();
+		long uptime = (System.currentTimeMillis() - _startTime) / 1000;
+		sb.append("uptime: ").append(uptime).append(" s\n");
+		sb.append("samples: ").append(getSamples()).append(", last minute: ").append(getSamplesPerMinute()).append("\n");
+		sb.append("cycle [ms]: ").append(_cycle).append("\n");
+
+		List<String> addresses = new ArrayList<>(_devices.keySet());
+		Collections.sort(addresses);
+		for (String address : addresses) {
+			DeviceMetrics metrics = _devices.get(address);
+			sb.append("\n").append(address).append("\n");
+			sb.append("  ok: ").append(metrics.getSuccesses());
+			sb.append(", notifications: ").append(metrics.getNotifications());
+			sb.append(", failed:");
+			if (metrics._failures.isEmpty()) {
+				sb.append(" 0");
+			}
+			for (Map.Entry<Integer, AtomicLong> failure : metrics._failures.entrySet()) {
+				sb.append(" ").append(failure.getValue().get()).append(" (error ").append(failure.getKey()).append(")");
+			}
+			sb.append("\n");
+			sb.append("  connect [ms]: ").append(metrics.getConnect()).append("\n");
+			sb.append("  discover [ms]: ").append(metrics.getDiscover()).append("\n");
+			sb.append("  read [ms]: ").append(metrics.getRead()).append("\n");
+			sb.append("  disconnect [ms]: ").append(metrics.getDisconnect()).append("\n");
+		}
+		return sb.toString();
+	}
+}
@@ -0,0 +1,484 @@
+package nl.dobots.fridgefile;
+
+import android.util.Log;
+
+import nl.dobots.bluenet.ble.base.callbacks.IAlertCallback;
+import nl.dobots.bluenet.ble.base.callbacks.IDiscoveryCallback;
+import nl.dobots.bluenet.ble.base.callbacks.IIntegerCallback;
+import nl.dobots.bluenet.ble.base.callbacks.IStatusCallback;
+import nl.dobots.bluenet.ble.base.structs.BleAlertState;
+import nl.dobots.bluenet.ble.extended.BleDeviceConnectionState;
+
+/**
+ * Copyright (c) 2026 agent <agent@local>. All rights reserved.
+ * <p/>
+ * This code is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License version 3, as
+ * published by the Free Software Foundation.
+ * <p/>
+ * This code is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE.  See the GNU General Public License
+ * version 3 for more details (a copy is included in the LICENSE file that
+ * accompanied this code).
+ * <p/>
+ * Created on 17-10-26
+ *
+ * @author agent
+ */
+
+/**
+ * One GATT connection used for sampling. Each session has its own BleBackend, so several
+ * sessions can sample different devices at the same time.
+ *
+ * A sample goes through the states connecting, reading and disconnecting, and back to idle.
+ * Each sample gets a token, a cancelled sample disconnects right away and all callbacks
+ * belonging to its token that still come in are ignored. Every state has a timeout, a sample
+ * that takes too long is aborted the same way as a cancelled one.
+ */
+public class SamplingSession {
+	private static final String TAG = SamplingSession.class.getCanonicalName();
+
+	/** Error given to the sample callback when the sample was cancelled */
+	public static final int ERROR_CANCELLED = -100;
+	/** Error given to the sample callback when connecting or reading took too long */
+	public static final int ERROR_TIMEOUT = -101;
+
+	public enum State {
+		idle,
+		connecting,
+		discovering,
+		reading,
+		disconnecting,
+		/** the disconnect timed out, closing the link again */
+		closing
+	}
+
+	/** Time spent in each phase of a sample */
+	public static class Timings {
+		private long _connect;
+		private long _discover;
+		private long _read;
+		private long _disconnect;
+
+		private void add(State state, long duration) {
+			switch (state) {
+				case connecting:
+					_connect += duration;
+					break;
+				case discovering:
+					_discover += duration;
+					break;
+				case reading:
+					_read += duration;
+					break;
+				case disconnecting:
+				case closing:
+					_disconnect += duration;
+					break;
+			}
+		}
+
+		public long getConnect() {
+			return _connect;
+		}
+
+		public long getDiscover() {
+			return _discover;
+		}
+
+		public long getRead() {
+			return _read;
+		}
+
+		public long getDisconnect() {
+			return _disconnect;
+		}
+
+		public long getTotal() {
+			return _connect + _discover + _read + _disconnect;
+		}
+
+		@Override
+		public String toString() {
+			return "connect " + _connect + " ms, discover " + _discover + " ms, read " + _read +
+					" ms, disconnect " + _disconnect + " ms";
+		}
+	}
+
+	/** Identifies one sample, callbacks of an older or cancelled sample are ignored */
+	private static class SampleToken {
+		final StoredBleDevice device;
+		final IStatusCallback callback;
+		boolean cancelled;
+		int error;
+		final Timings timings = new Timings();
+		long phaseStartTime;
+
+		SampleToken(StoredBleDevice device, IStatusCallback callback) {
+			this.device = device;
+			this.callback = callback;
+		}
+	}
+
+	private final int _id;
+	private final BleBackend _ble;
+	private final Clock _clock;
+	private final BleFridgeServiceListener _resultListener;
+	private volatile State _state = State.idle;
+	private SampleToken _token;
+	private Runnable _timeoutRunnable;
+	private volatile Timings _lastTimings;
+
+	public SamplingSession(int id, BleBackend ble, Clock clock, BleFridgeServiceListener resultListener) {
+		_id = id;
+		_ble = ble;
+		_clock = clock;
+		_resultListener = resultListener;
+	}
+
+	public int getId() {
+		return _id;
+	}
+
+	public State getState() {
+		return _state;
+	}
+
+	public boolean isIdle() {
+		return _state == State.idle;
+	}
+
+	/**
+	 * @return the device currently being sampled, null if idle
+	 */
+	public synchronized StoredBleDevice getDevice() {
+		return _token == null ? null : _token.device;
+	}
+
+	/**
+	 * Connect to the device, discover its services, read temperature and alerts back to back
+	 * and disconnect again. The results are given to the result listener, the callback is
+	 * called once the session is idle again.
+	 */
+	public synchronized void sample(final StoredBleDevice device, final IStatusCallback callback) {
+		if (_state != State.idle) {
+			callback.onError(ERROR_CANCELLED);
+			return;
+		}
+		final SampleToken token = new SampleToken(device, callback);
+		_token = token;
+		token.phaseStartTime = _clock.now();
+		setState(State.connecting);
+		Log.d(TAG, "[" + _id + "] checking device: " + device.getAddress() + "(" + device.getName() + ")");
+		_ble.connect(device.getAddress(), new IStatusCallback() {
+			@Override
+			public void onSuccess() {
+				if (setState(token, State.discovering)) {
+					discover(token);
+				}
+			}
+
+			@Override
+			public void onError(int error) {
+				disconnect(token, error);
+			}
+		});
+	}
+
+	private void discover(final SampleToken token) {
+		_ble.discoverServices(new IDiscoveryCallback() {
+			@Override
+			public void onDiscovery(String serviceUuid, String characteristicUuid) {
+
+			}
+
+			@Override
+			public void onSuccess() {
+				if (setState(token, State.reading)) {
+					read(token);
+				}
+			}
+
+			@Override
+			public void onError(int error) {
+				disconnect(token, error);
+			}
+		});
+	}
+
+	private void read(final SampleToken token) {
+		checkTemperature(token, new IStatusCallback() {
+
+			@Override
+			public void onError(int error) {
+				disconnect(token, error);
+			}
+
+			@Override
+			public void onSuccess() {
+				checkAlerts(token, new IStatusCallback() {
+
+					@Override
+					public void onError(int error) {
+						disconnect(token, error);
+					}
+
+					@Override
+					public void onSuccess() {
+						disconnect(token, 0);
+					}
+				});
+			}
+		});
+	}
+
+	/**
+	 * @return time spent in each phase of the last finished sample, null if there was none
+	 */
+	public Timings getLastTimings() {
+		return _lastTimings;
+	}
+
+	/**
+	 * Cancel the current sample, if any. The session disconnects right away and the
+	 * callback of the sample gets ERROR_CANCELLED once the session is idle.
+	 */
+	public void cancel() {
+		SampleToken token;
+		synchronized (this) {
+			token = _token;
+		}
+		if (token != null) {
+			abort(token, ERROR_CANCELLED);
+		}
+	}
+
+	private synchronized void abort(SampleToken token, int error) {
+		if (token != _token || token.cancelled) {
+			return;
+		}
+		Log.d(TAG, "[" + _id + "] abort sample of " + token.device.getAddress() + " while " + _state + ", error: " + error);
+		if (_state == State.disconnecting || _state == State.closing) {
+			// already on its way to idle, just report the error
+			token.error = error;
+			return;
+		}
+		disconnect(token, error);
+		token.cancelled = true;
+	}
+
+	private void onTimeout(SampleToken token, State state) {
+		synchronized (this) {
+			if (token != _token || _state != state) {
+				return;
+			}
+		}
+		Log.w(TAG, "[" + _id + "] timeout while " + state + " " + token.device.getAddress());
+		if (state == State.disconnecting) {
+			forceClose(token);
+		} else {
+			abort(token, ERROR_TIMEOUT);
+		}
+	}
+
+	/**
+	 * Disconnect if connected, the callback is called when done
+	 */
+	public void close(final IStatusCallback callback) {
+		switch (_ble.getConnectionState()) {
+			case connected:
+			case connecting: {
+				_ble.disconnectAndClose(false, callback);
+				break;
+			}
+			default:
+				callback.onSuccess();
+		}
+	}
+
+	/**
+	 * Close the connection and destroy the backend of the session, it can't be used anymore
+	 * afterwards
+	 */
+	public void destroy() {
+		close(new IStatusCallback() {
+			@Override
+			public void onSuccess() {
+				_ble.destroy();
+			}
+
+			@Override
+			public void onError(int error) {
+				_ble.destroy();
+			}
+		});
+	}
+
+	public BleDeviceConnectionState getConnectionState() {
+		return _ble.getConnectionState();
+	}
+
+	private void setState(final State state) {
+		Log.d(TAG, "[" + _id + "] " + _state + " -> " + state);
+		if (_token != null) {
+			long now = _clock.now();
+			_token.timings.add(_state, now - _token.phaseStartTime);
+			_token.phaseStartTime = now;
+		}
+		_state = state;
+
+		if (_timeoutRunnable != null) {
+			_clock.removeCallbacks(_timeoutRunnable);
+			_timeoutRunnable = null;
+		}
+		final SampleToken token = _token;
+		long timeout = getTimeout(state);
+		if (token != null && timeout > 0) {
+			_timeoutRunnable = new Runnable() {
+				@Override
+				public void run() {
+					onTimeout(token, state);
+				}
+			};
+			_clock.postDelayed(_timeoutRunnable, timeout);
+		}
+	}
+
+	private long getTimeout(State state) {
+		switch (state) {
+			case connecting:
+				return Config.SAMPLE_CONNECT_TIMEOUT_MILLIS;
+			case discovering:
+				return Config.SAMPLE_DISCOVER_TIMEOUT_MILLIS;
+			case reading:
+				return Config.SAMPLE_READ_TIMEOUT_MILLIS;
+			case disconnecting:
+				return Config.SAMPLE_DISCONNECT_TIMEOUT_MILLIS;
+			default:
+				return 0;
+		}
+	}
+
+	/**
+	 * Move to the next state, but only if the token is still the current one
+	 *
+	 * @return false if the sample was cancelled or replaced
+	 */
+	private synchronized boolean setState(SampleToken token, State state) {
+		if (token != _token || token.cancelled) {
+			return false;
+		}
+		setState(state);
+		return true;
+	}
+
+	private synchronized void disconnect(final SampleToken token, int error) {
+		if (token != _token || token.cancelled || _state == State.disconnecting) {
+			return;
+		}
+		if (error != 0) {
+			Log.d(TAG, "[" + _id + "] failed to sample " + token.device.getAddress() + ", error: " + error);
+		}
+		token.error = error;
+		setState(State.disconnecting);
+		_ble.disconnectAndClose(false, new IStatusCallback() {
+			@Override
+			public void onSuccess() {
+				sampleDone(token);
+			}
+
+			@Override
+			public void onError(int error) {
+				sampleDone(token);
+			}
+		});
+	}
+
+	/**
+	 * The disconnect takes too long, but the link might still be open. Close it again, clearing
+	 * the cache, the session stays out of use until either close is done.
+	 */
+	private void forceClose(final SampleToken token) {
+		synchronized (this) {
+			if (token != _token || _state != State.disconnecting) {
+				return;
+			}
+			setState(State.closing);
+		}
+		_ble.disconnectAndClose(true, new IStatusCallback() {
+			@Override
+			public void onSuccess() {
+				sampleDone(token);
+			}
+
+			@Override
+			public void onError(int error) {
+				sampleDone(token);
+			}
+		});
+	}
+
+	private void sampleDone(SampleToken token) {
+		synchronized (this) {
+			if (token != _token) {
+				return;
+			}
+			setState(State.idle);
+			_token = null;
+		}
+		_lastTimings = token.timings;
+		Log.d(TAG, "[" + _id + "] sampled " + token.device.getAddress() + " in " + token.timings.getTotal() +
+				" ms: " + token.timings);
+		if (token.error == 0) {
+			token.callback.onSuccess();
+		} else {
+			token.callback.onError(token.error);
+		}
+	}
+
+	private void checkTemperature(final SampleToken token, final IStatusCallback callback) {
+		Log.d(TAG, "checking temperature ...");
+		final StoredBleDevice device = token.device;
+		_ble.readTemperature(new IIntegerCallback() {
+			@Override
+			public void onSuccess(int result) {
+				if (token.cancelled) {
+					return;
+				}
+				Log.d(TAG, "Current temperature of " + device.getAddress() + "(" + device.getName() + ") = " + result);
+				device.setCurrentTemperature(result);
+				_resultListener.onTemperature(device, result);
+				callback.onSuccess();
+			}
+
+			@Override
+			public void onError(int error) {
+				callback.onError(error);
+			}
+		});
+	}
+
+	private void checkAlerts(final SampleToken token, final IStatusCallback callback) {
+		Log.d(TAG, "checking alerts ...");
+		final StoredBleDevice device = token.device;
+		_ble.readAlert(new IAlertCallback() {
+			@Override
+			public void onSuccess(BleAlertState result) {
+				if (token.cancelled) {
+					return;
+				}
+				Log.d(TAG, "Current alerts of device " + device.getAddress() + "(" + device.getName() + ") = " + result);
+				BleAlertState oldAlertState = device.getCurrentAlert();
+				device.setCurrentAlert(result);
+				_resultListener.onAlert(device, oldAlertState, result);
+				callback.onSuccess();
+			}
+
+			@Override
+			public void onError(int error) {
+				callback.onError(error);
+			}
+		});
+	}
+}
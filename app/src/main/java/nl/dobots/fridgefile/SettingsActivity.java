@@ -15,7 +15,6 @@ import java.util.List;
 
 import nl.dobots.bluenet.ble.base.callbacks.IStatusCallback;
 import nl.dobots.bluenet.ble.cfg.BleErrors;
-import nl.dobots.bluenet.ble.extended.BleExt;
 
 /**
  * Copyright (c) 2015 Bart van Vliet <bart@dobots.nl>. All rights reserved.
@@ -39,7 +38,7 @@ public class SettingsActivity extends AppCompatActivity {
 	private static final String TAG = SettingsActivity.class.getCanonicalName();
 
 	private Handler _handler;
-	private BleExt _ble;
+	private BleBackend _ble;
 
 	private ProgressDialog _progressDialog;
 
@@ -95,8 +94,20 @@ public class SettingsActivity extends AppCompatActivity {
 					List<StoredBleDevice> deviceList = FridgeFile.getInstance().getStoredDeviceList().toList();
 					final Iterator<StoredBleDevice> deviceIt = deviceList.iterator();
 					if (deviceIt.hasNext()) {
-						FridgeFile.getInstance().stopSampling();
-						setNextDevice(deviceIt, minTemp, maxTemp);
+						final int min = minTemp;
+						final int max = maxTemp;
+						FridgeFile.getInstance().stopSampling(new IStatusCallback() {
+							@Override
+							public void onSuccess() {
+								setNextDevice(deviceIt, min, max);
+							}
+
+							@Override
+							public void onError(int error) {
+								Log.d(TAG, "sampling restarted before it was stopped");
+								_progressDialog.dismiss();
+							}
+						});
 					} else {
 						Toast.makeText(getApplicationContext(), "No devices selected!", Toast.LENGTH_SHORT).show();
 					}
@@ -149,6 +160,7 @@ public class SettingsActivity extends AppCompatActivity {
 			public void onSuccess() {
 				Log.d(TAG, "Successfully set minTemp");
 				device.setMinTemperature(minTemp);
+				FridgeFile.getInstance().getStoredDeviceList().update(device);
 
 				// Set max temp
 				_ble.setMaxEnvTemp(maxTemp, new IStatusCallback() {
@@ -157,6 +169,7 @@ public class SettingsActivity extends AppCompatActivity {
 					public void onSuccess() {
 						Log.d(TAG, "Successfully set maxTemp");
 						device.setMaxTemperature(maxTemp);
+						FridgeFile.getInstance().getStoredDeviceList().update(device);
 						disconnectAndSetNextDevice(deviceIt, minTemp, maxTemp);
 					}
 
@@ -0,0 +1,361 @@
+package nl.dobots.fridgefile;
+
+import android.content.Context;
+
+import nl.dobots.bluenet.ble.base.callbacks.IAlertCallback;
+import nl.dobots.bluenet.ble.base.callbacks.IDiscoveryCallback;
+import nl.dobots.bluenet.ble.base.callbacks.IIntegerCallback;
+import nl.dobots.bluenet.ble.base.callbacks.IStatusCallback;
+import nl.dobots.bluenet.ble.base.structs.BleAlertState;
+import nl.dobots.bluenet.ble.extended.BleDeviceConnectionState;
+import nl.dobots.bluenet.ble.extended.BleDeviceFilter;
+import nl.dobots.bluenet.ble.extended.callbacks.IBleDeviceCallback;
+import nl.dobots.bluenet.ble.extended.structs.BleDeviceMap;
+
+/**
+ * Copyright (c) 2026 agent <agent@local>. All rights reserved.
+ * <p/>
+ * This code is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License version 3, as
+ * published by the Free Software Foundation.
+ * <p/>
+ * This code is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE.  See the GNU General Public License
+ * version 3 for more details (a copy is included in the LICENSE file that
+ * accompanied this code).
+ * <p/>
+ * Created on 17-10-26
+ *
+ * @author agent
+ */
+
+/**
+ * BleBackend that talks to the virtual fridges of a SimulatedFleet. Like BleExt, one instance
+ * has at most one connection. Unreachable fridges never answer a connect, the sessions time out
+ * on that. Writes to unreachable fridges fail with ERROR_UNREACHABLE after
+ * Config.SAMPLE_CONNECT_TIMEOUT_MILLIS, as their callers don't time out. Random failures are
+ * reported with ERROR_SIMULATED.
+ */
+public class SimulatedBleBackend implements BleBackend {
+	private static final String TAG = SimulatedBleBackend.class.getCanonicalName();
+
+	/** Error of a simulated failure */
+	public static final int ERROR_SIMULATED = -200;
+	/** Error when an operation needs a connection but there is none */
+	public static final int ERROR_NOT_CONNECTED = -201;
+	/** Error given to subscribers when the connection drops */
+	public static final int ERROR_LINK_LOST = -202;
+	/** Error of a write to a fridge that is out of range */
+	public static final int ERROR_UNREACHABLE = -203;
+
+	private final SimulatedFleet _fleet;
+	private volatile BleDeviceConnectionState _state = BleDeviceConnectionState.uninitialized;
+	private SimulatedFleet.Fridge _fridge;
+	// incremented on every disconnect, operations of an older connection are dropped
+	private volatile int _connection;
+	private volatile IIntegerCallback _temperatureSubscriber;
+	private volatile IAlertCallback _alertSubscriber;
+	// connection for which changes are being checked
+	private int _notifyingConnection = -1;
+	private int _notifiedTemperature;
+	private int _notifiedAlert;
+
+	public SimulatedBleBackend(SimulatedFleet fleet) {
+		_fleet = fleet;
+	}
+
+	@Override
+	public void init(Context context, IStatusCallback callback) {
+		_state = BleDeviceConnectionState.initialized;
+		callback.onSuccess();
+	}
+
+	@Override
+	public void destroy() {
+		_state = BleDeviceConnectionState.uninitialized;
+	}
+
+	@Override
+	public BleDeviceConnectionState getConnectionState() {
+		return _state;
+	}
+
+	@Override
+	public void setScanFilter(BleDeviceFilter filter) {
+
+	}
+
+	@Override
+	public void startScan(IBleDeviceCallback callback) {
+		// virtual fridges don't advertise
+	}
+
+	@Override
+	public void stopScan(IStatusCallback callback) {
+		callback.onSuccess();
+	}
+
+	@Override
+	public BleDeviceMap getDeviceMap() {
+		return new BleDeviceMap();
+	}
+
+	@Override
+	public void connect(String address, final IStatusCallback callback) {
+		final SimulatedFleet.Fridge fridge = _fleet.getFridge(address);
+		final int connection = _connection;
+		_state = BleDeviceConnectionState.connecting;
+		if (fridge == null || !fridge.isReachable()) {
+			// out of range, the connect never finishes
+			return;
+		}
+		_fleet.post(new Runnable() {
+			@Override
+			public void run() {
+				if (connection != _connection) {
+					return;
+				}
+				if (_fleet.nextFails(fridge)) {
+					_state = BleDeviceConnectionState.initialized;
+					callback.onError(ERROR_SIMULATED);
+					return;
+				}
+				_fridge = fridge;
+				_state = BleDeviceConnectionState.connected;
+				callback.onSuccess();
+			}
+		}, _fleet.getConnectLatency(fridge));
+	}
+
+	@Override
+	public void discoverServices(final IDiscoveryCallback callback) {
+		final int connection = _connection;
+		_fleet.post(new Runnable() {
+			@Override
+			public void run() {
+				if (connection != _connection) {
+					return;
+				}
+				if (_fridge == null) {
+					callback.onError(ERROR_NOT_CONNECTED);
+				} else if (_fleet.nextFails(_fridge)) {
+					callback.onError(ERROR_SIMULATED);
+				} else {
+					callback.onSuccess();
+				}
+			}
+		}, _fleet.getDiscoverLatency(_fridge));
+	}
+
+	@Override
+	public void disconnect(final IStatusCallback callback) {
+		_connection++;
+		_state = BleDeviceConnectionState.disconnecting;
+		_temperatureSubscriber = null;
+		_alertSubscriber = null;
+		_fleet.post(new Runnable() {
+			@Override
+			public void run() {
+				_fridge = null;
+				_state = BleDeviceConnectionState.initialized;
+				if (callback != null) {
+					callback.onSuccess();
+				}
+			}
+		}, _fleet.getDisconnectLatency(_fridge));
+	}
+
+	@Override
+	public void disconnectAndClose(boolean clearCache, IStatusCallback callback) {
+		disconnect(callback);
+	}
+
+	@Override
+	public void readTemperature(final IIntegerCallback callback) {
+		final int connection = _connection;
+		_fleet.post(new Runnable() {
+			@Override
+			public void run() {
+				if (connection != _connection) {
+					return;
+				}
+				if (_fridge == null) {
+					callback.onError(ERROR_NOT_CONNECTED);
+				} else if (_fleet.nextFails(_fridge)) {
+					callback.onError(ERROR_SIMULATED);
+				} else {
+					callback.onSuccess(_fleet.getTemperature(_fridge));
+				}
+			}
+		}, _fleet.getReadLatency(_fridge));
+	}
+
+	@Override
+	public void readAlert(final IAlertCallback callback) {
+		final int connection = _connection;
+		_fleet.post(new Runnable() {
+			@Override
+			public void run() {
+				if (connection != _connection) {
+					return;
+				}
+				if (_fridge == null) {
+					callback.onError(ERROR_NOT_CONNECTED);
+				} else if (_fleet.nextFails(_fridge)) {
+					callback.onError(ERROR_SIMULATED);
+				} else {
+					int alert = _fridge.getAlert(_fleet.getTemperature(_fridge));
+					callback.onSuccess(new BleAlertState(alert, 0));
+				}
+			}
+		}, _fleet.getReadLatency(_fridge));
+	}
+
+	@Override
+	public void subscribeTemperature(IIntegerCallback callback) {
+		if (_fridge == null) {
+			callback.onError(ERROR_NOT_CONNECTED);
+			return;
+		}
+		_notifiedTemperature = Integer.MIN_VALUE;
+		_temperatureSubscriber = callback;
+		startNotifying();
+	}
+
+	@Override
+	public void unsubscribeTemperature(IIntegerCallback callback) {
+		if (_temperatureSubscriber == callback) {
+			_temperatureSubscriber = null;
+		}
+	}
+
+	@Override
+	public void subscribeAlert(IAlertCallback callback) {
+		if (_fridge == null) {
+			callback.onError(ERROR_NOT_CONNECTED);
+			return;
+		}
+		_notifiedAlert = -1;
+		_alertSubscriber = callback;
+		startNotifying();
+	}
+
+	@Override
+	public void unsubscribeAlert(IAlertCallback callback) {
+		if (_alertSubscriber == callback) {
+			_alertSubscriber = null;
+		}
+	}
+
+	/**
+	 * Like a real fridge, subscribers are only notified of changes
+	 */
+	private synchronized void startNotifying() {
+		if (_notifyingConnection == _connection) {
+			return;
+		}
+		final int connection = _connection;
+		_notifyingConnection = connection;
+		_fleet.post(new Runnable() {
+			@Override
+			public void run() {
+				if (connection != _connection || _fridge == null) {
+					return;
+				}
+				if (_fleet.nextLinkDrops(_fridge)) {
+					linkLost();
+					return;
+				}
+				int temperature = _fleet.getTemperature(_fridge);
+				IIntegerCallback temperatureSubscriber = _temperatureSubscriber;
+				if (temperatureSubscriber != null && temperature != _notifiedTemperature) {
+					_notifiedTemperature = temperature;
+					temperatureSubscriber.onSuccess(temperature);
+				}
+				int alert = _fridge.getAlert(temperature);
+				IAlertCallback alertSubscriber = _alertSubscriber;
+				if (alertSubscriber != null && alert != _notifiedAlert) {
+					_notifiedAlert = alert;
+					alertSubscriber.onSuccess(new BleAlertState(alert, 0));
+				}
+				_fleet.post(this, _fleet.getNotificationInterval());
+			}
+		}, _fleet.getNotificationInterval());
+	}
+
+	private void linkLost() {
+		_connection++;
+		_fridge = null;
+		_state = BleDeviceConnectionState.initialized;
+		IIntegerCallback temperatureSubscriber = _temperatureSubscriber;
+		IAlertCallback alertSubscriber = _alertSubscriber;
+		_temperatureSubscriber = null;
+		_alertSubscriber = null;
+		if (temperatureSubscriber != null) {
+			temperatureSubscriber.onError(ERROR_LINK_LOST);
+		}
+		if (alertSubscriber != null) {
+			alertSubscriber.onError(ERROR_LINK_LOST);
+		}
+	}
+
+	/**
+	 * Connect for a write. Unlike connect(), an unreachable fridge gives an error.
+	 */
+	private void connectForWrite(String address, final IStatusCallback callback) {
+		SimulatedFleet.Fridge fridge = _fleet.getFridge(address);
+		if (fridge == null || !fridge.isReachable()) {
+			_fleet.post(new Runnable() {
+				@Override
+				public void run() {
+					callback.onError(ERROR_UNREACHABLE);
+				}
+			}, Config.SAMPLE_CONNECT_TIMEOUT_MILLIS);
+			return;
+		}
+		connect(address, callback);
+	}
+
+	@Override
+	public void resetAlert(String address, final IStatusCallback callback) {
+		connectForWrite(address, new IStatusCallback() {
+			@Override
+			public void onSuccess() {
+				_fridge.resetAlert();
+				callback.onSuccess();
+			}
+
+			@Override
+			public void onError(int error) {
+				callback.onError(error);
+			}
+		});
+	}
+
+	@Override
+	public void setMinEnvTemp(String address, final int temperature, final IStatusCallback callback) {
+		connectForWrite(address, new IStatusCallback() {
+			@Override
+			public void onSuccess() {
+				_fridge.setMinTemperature(temperature);
+				callback.onSuccess();
+			}
+
+			@Override
+			public void onError(int error) {
+				callback.onError(error);
+			}
+		});
+	}
+
+	@Override
+	public void setMaxEnvTemp(int temperature, IStatusCallback callback) {
+		if (_fridge == null) {
+			callback.onError(ERROR_NOT_CONNECTED);
+			return;
+		}
+		_fridge.setMaxTemperature(temperature);
+		callback.onSuccess();
+	}
+}
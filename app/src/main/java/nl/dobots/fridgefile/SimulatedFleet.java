@@ -0,0 +1,292 @@
+package nl.dobots.fridgefile;
+
+import android.os.Handler;
+import android.os.HandlerThread;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * Copyright (c) 2026 agent <agent@local>. All rights reserved.
+ * <p/>
+ * This code is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License version 3, as
+ * published by the Free Software Foundation.
+ * <p/>
+ * This code is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE.  See the GNU General Public License
+ * version 3 for more details (a copy is included in the LICENSE file that
+ * accompanied this code).
+ * <p/>
+ * Created on 17-10-26
+ *
+ * @author agent
+ */
+
+/**
+ * A fleet of virtual fridges for SimulatedBleBackend. The fridges, their temperature curves
+ * and which of them are out of range only depend on the seed. Each fridge draws its latencies
+ * and failures from a random generator of its own, derived from the seed, so the order in
+ * which sessions use the fleet doesn't matter. On a clock that only runs when told to, like in
+ * the unit tests, a run can be repeated exactly.
+ */
+public class SimulatedFleet {
+	private static final String TAG = SimulatedFleet.class.getCanonicalName();
+
+	/** Alert bits as reported in the alert characteristic */
+	public static final int ALERT_TEMPERATURE_LOW = 1;
+	public static final int ALERT_TEMPERATURE_HIGH = 1 << 1;
+
+	/** One virtual fridge */
+	public static class Fridge {
+		private final String _address;
+		private final String _name;
+		private int _minTemperature = Config.DEFAULT_MIN_TEMPERATURE;
+		private int _maxTemperature = Config.DEFAULT_MAX_TEMPERATURE;
+		private final double _base;
+		private final double _amplitude;
+		private final long _period;
+		private final double _phase;
+		// degrees per hour, most fridges don't drift
+		private final double _drift;
+		private final boolean _reachable;
+		private final Random _random;
+		// alerts stay raised until they're reset, like on the firmware
+		private int _alert;
+
+		private Fridge(int index, long seed, double unreachableRate) {
+			Random random = new Random(seed);
+			_address = String.format("5E:00:00:%02X:%02X:%02X", (index >> 16) & 0xFF, (index >> 8) & 0xFF, index & 0xFF);
+			_name = "Sim " + index;
+			_base = 3 + random.nextDouble() * 4;
+			_amplitude = random.nextDouble() * 2;
+			_period = (30 + random.nextInt(90)) * 60000L;
+			_phase = random.nextDouble() * 2 * Math.PI;
+			_drift = random.nextDouble() < 0.05 ? 1 + random.nextDouble() * 2 : 0;
+			_reachable = random.nextDouble() >= unreachableRate;
+			_random = random;
+		}
+
+		public String getAddress() {
+			return _address;
+		}
+
+		public boolean isReachable() {
+			return _reachable;
+		}
+
+		/**
+		 * @param elapsed time since the start of the simulation, in ms
+		 */
+		public int getTemperature(long elapsed) {
+			double hours = elapsed / 3600000.0;
+			double value = _base + _amplitude * Math.sin(2 * Math.PI * elapsed / _period + _phase) + _drift * hours;
+			return (int) Math.round(value);
+		}
+
+		/**
+		 * Raise the alerts for the temperature
+		 *
+		 * @return the raised alerts, including earlier ones that weren't reset
+		 */
+		public synchronized int getAlert(int temperature) {
+			if (temperature < _minTemperature) {
+				_alert |= ALERT_TEMPERATURE_LOW;
+			}
+			if (temperature > _maxTemperature) {
+				_alert |= ALERT_TEMPERATURE_HIGH;
+			}
+			return _alert;
+		}
+
+		public synchronized void resetAlert() {
+			_alert = 0;
+		}
+
+		public void setMinTemperature(int minTemperature) {
+			_minTemperature = minTemperature;
+		}
+
+		public void setMaxTemperature(int maxTemperature) {
+			_maxTemperature = maxTemperature;
+		}
+	}
+
+	private final HashMap<String, Fridge> _fridges = new HashMap<>();
+	private final List<Fridge> _fridgeList = new ArrayList<>();
+	private final Clock _clock;
+	private final long _startTime;
+	// only set when the fleet runs its own callback thread
+	private HandlerThread _thread;
+
+	private int _connectLatency = 300;
+	private int _discoverLatency = 150;
+	private int _readLatency = 50;
+	private int _disconnectLatency = 100;
+	private double _latencyJitter = 0.5;
+	private double _failureRate = 0.02;
+	private int _notificationInterval = 1000;
+	private double _linkDropRate = 0.001;
+
+	/**
+	 * Create a fleet on the system time, callbacks come from a thread of its own, like they do
+	 * from the bluetooth stack
+	 *
+	 * @param size number of fridges
+	 * @param seed seed of the random generators
+	 * @param unreachableRate fraction of the fridges that never answer a connect
+	 */
+	public SimulatedFleet(int size, long seed, double unreachableRate) {
+		this(size, seed, unreachableRate, startThread());
+	}
+
+	/**
+	 * @param size number of fridges
+	 * @param seed seed of the random generators
+	 * @param unreachableRate fraction of the fridges that never answer a connect
+	 * @param clock clock the temperatures follow and callbacks are posted on
+	 */
+	public SimulatedFleet(int size, long seed, double unreachableRate, Clock clock) {
+		Random seeds = new Random(seed);
+		for (int i = 0; i < size; i++) {
+			Fridge fridge = new Fridge(i, seeds.nextLong(), unreachableRate);
+			_fridges.put(fridge.getAddress(), fridge);
+			_fridgeList.add(fridge);
+		}
+		_clock = clock;
+		_startTime = clock.now();
+	}
+
+	private SimulatedFleet(int size, long seed, double unreachableRate, HandlerThread thread) {
+		this(size, seed, unreachableRate, new HandlerClock(new Handler(thread.getLooper())));
+		_thread = thread;
+	}
+
+	private static HandlerThread startThread() {
+		HandlerThread thread = new HandlerThread("SimulatedFleet");
+		thread.start();
+		return thread;
+	}
+
+	/**
+	 * Set the mean latency of each operation in ms
+	 */
+	public void setLatencies(int connect, int discover, int read, int disconnect) {
+		_connectLatency = connect;
+		_discoverLatency = discover;
+		_readLatency = read;
+		_disconnectLatency = disconnect;
+	}
+
+	/**
+	 * @param latencyJitter latencies vary randomly by this fraction around their mean
+	 */
+	public void setLatencyJitter(double latencyJitter) {
+		_latencyJitter = latencyJitter;
+	}
+
+	/**
+	 * @param failureRate chance that an operation on a reachable fridge fails
+	 */
+	public void setFailureRate(double failureRate) {
+		_failureRate = failureRate;
+	}
+
+	/**
+	 * @param notificationInterval time between checks for changes to notify subscribers of, in ms
+	 */
+	public void setNotificationInterval(int notificationInterval) {
+		_notificationInterval = notificationInterval;
+	}
+
+	/**
+	 * @param linkDropRate chance that a connection is lost at each notification interval
+	 */
+	public void setLinkDropRate(double linkDropRate) {
+		_linkDropRate = linkDropRate;
+	}
+
+	public int size() {
+		return _fridgeList.size();
+	}
+
+	public Fridge getFridge(String address) {
+		return _fridges.get(address);
+	}
+
+	public List<Fridge> getFridges() {
+		return Collections.unmodifiableList(_fridgeList);
+	}
+
+	public List<StoredBleDevice> createStoredDevices() {
+		List<StoredBleDevice> devices = new ArrayList<>();
+		for (Fridge fridge : _fridgeList) {
+			devices.add(new StoredBleDevice(fridge._address, fridge._name, fridge._minTemperature, fridge._maxTemperature));
+		}
+		return devices;
+	}
+
+	public int getTemperature(Fridge fridge) {
+		return fridge.getTemperature(_clock.now() - _startTime);
+	}
+
+	int getConnectLatency(Fridge fridge) {
+		return latency(fridge, _connectLatency);
+	}
+
+	int getDiscoverLatency(Fridge fridge) {
+		return latency(fridge, _discoverLatency);
+	}
+
+	int getReadLatency(Fridge fridge) {
+		return latency(fridge, _readLatency);
+	}
+
+	/**
+	 * @param fridge fridge that is disconnected from, null if the connect never finished
+	 */
+	int getDisconnectLatency(Fridge fridge) {
+		return latency(fridge, _disconnectLatency);
+	}
+
+	boolean nextFails(Fridge fridge) {
+		return fridge._random.nextDouble() < _failureRate;
+	}
+
+	int getNotificationInterval() {
+		return _notificationInterval;
+	}
+
+	boolean nextLinkDrops(Fridge fridge) {
+		return fridge._random.nextDouble() < _linkDropRate;
+	}
+
+	void post(Runnable runnable, long delay) {
+		_clock.postDelayed(runnable, delay);
+	}
+
+	/**
+	 * Stop the callback thread, if the fleet runs one. Pending callbacks are dropped.
+	 */
+	public void quit() {
+		if (_thread != null) {
+			_thread.quit();
+		}
+	}
+
+	/**
+	 * @return the mean jittered with the random generator of the fridge, the mean itself if
+	 * there is no fridge
+	 */
+	private int latency(Fridge fridge, int mean) {
+		if (fridge == null) {
+			return mean;
+		}
+		double factor = 1 + _latencyJitter * (2 * fridge._random.nextDouble() - 1);
+		return (int) Math.max(0, mean * factor);
+	}
+}
@@ -5,7 +5,6 @@ import android.graphics.Color;
 import android.graphics.Paint;
 import android.os.Bundle;
 import android.support.v7.app.AppCompatActivity;
-import android.util.Pair;
 import android.view.Menu;
 import android.view.MenuItem;
 import android.view.View;
@@ -20,30 +19,63 @@ import org.achartengine.model.TimeSeries;
 import org.achartengine.model.XYMultipleSeriesDataset;
 import org.achartengine.renderer.XYMultipleSeriesRenderer;
 import org.achartengine.renderer.XYSeriesRenderer;
+import org.achartengine.tools.PanListener;
 import org.achartengine.tools.ZoomEvent;
 import org.achartengine.tools.ZoomListener;
+import org.achartengine.util.MathHelper;
 
-import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Date;
 import java.util.HashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 
 import nl.dobots.bluenet.ble.base.structs.BleAlertState;
 
-public class StatisticsActivity extends AppCompatActivity implements ZoomListener {
+public class StatisticsActivity extends AppCompatActivity implements ZoomListener, PanListener {
 
 	private static final String TAG = StatisticsActivity.class.getCanonicalName();
 
 	private RelativeLayout _layGraph;
 
 	private TemperatureDbAdapter _temperatureDb;
-
-	private HashMap<String, Integer> deviceSeriesMap = new HashMap<>();
+	private AlertDbAdapter _alertDb;
+
+	// series and renderers of the devices shown, by address
+	private HashMap<String, TemperatureChartSeries> _deviceSeries = new HashMap<>();
+	private HashMap<String, XYSeriesRenderer> _deviceRenderers = new HashMap<>();
+	// temperatures of the devices shown in the loaded range, by address. the series only get a
+	// part of them, see updateSampling
+	private HashMap<String, TemperatureSeries> _deviceData = new HashMap<>();
+	// times the alerts of the devices shown went off, in the loaded range and since, by address
+	private HashMap<String, long[]> _deviceAlerts = new HashMap<>();
+	// series and renderers of the alerts of the devices shown, by address, see fillAlertSeries
+	private HashMap<String, TimeSeries> _alertSeries = new HashMap<>();
+	private HashMap<String, XYSeriesRenderer> _alertRenderers = new HashMap<>();
+	// temperatures that came in since the data was loaded, by address
+	private HashMap<String, LiveSeries> _liveData = new HashMap<>();
+	// time range that is loaded and the series are sampled for, a view width on both sides of
+	// the view, so panning doesn't need new data right away
+	private long _sampledMinTime;
+	private long _sampledMaxTime;
+	// the data is loaded on this thread, off the ui thread
+	private ExecutorService _loadExecutor;
+	// loads that haven't been shown in the graph yet, by address
+	private HashMap<String, DeviceLoad> _loads = new HashMap<>();
+	// whether the user was told there's no data, only done for the first loads
+	private boolean _noDataChecked;
+	private StoredBleDeviceList _deviceList;
+	private int _currentPointStyle;
+	private int _currentSeriesColor;
 	private XYMultipleSeriesRenderer _multipleSeriesRenderer;
 	private XYMultipleSeriesDataset _dataSet;
 	private GraphicalView _graphView;
 	private long _minTemp;
 	private long _maxTemp;
-	private long _minTime;
+	// bounds of the loaded temperatures, _minTemp and _maxTemp have a margin around them
+	private long _dataMinTemp;
+	private long _dataMaxTemp;
 	private long _maxTime;
 	private ImageButton _btnZoomIn;
 	private ImageButton _btnZoomOut;
@@ -59,12 +91,29 @@ public class StatisticsActivity extends AppCompatActivity implements ZoomListene
 		super.onCreate(savedInstanceState);
 
 		_temperatureDb = FridgeFile.getInstance().getTemperatureDb();
+		_alertDb = FridgeFile.getInstance().getAlertDb();
+		_loadExecutor = Executors.newSingleThreadExecutor();
 
 		initUI();
 
-		showGraph();
+		// the devices and their temperatures can only be loaded once the database is open
+		FridgeFile.getInstance().runWhenReady(_showGraphRunnable);
 	}
 
+	private final Runnable _showGraphRunnable = new Runnable() {
+		@Override
+		public void run() {
+			showGraph();
+		}
+	};
+
+	private final Runnable _addFridgeListenerRunnable = new Runnable() {
+		@Override
+		public void run() {
+			FridgeFile.getInstance().getFridgeService().addListener(_fridgeListener);
+		}
+	};
+
 	private void initUI() {
 		setContentView(R.layout.activity_statistics);
 
@@ -78,6 +127,7 @@ public class StatisticsActivity extends AppCompatActivity implements ZoomListene
 			public void onClick(View v) {
 				_graphView.zoomIn();
 				_zoomLevel++;
+				updateSampling();
 			}
 		});
 		_btnZoomOut = (ImageButton) findViewById(R.id.zoomOut);
@@ -86,6 +136,7 @@ public class StatisticsActivity extends AppCompatActivity implements ZoomListene
 			public void onClick(View v) {
 				_graphView.zoomOut();
 				_zoomLevel--;
+				updateSampling();
 			}
 		});
 		_btnZoomReset = (ImageButton) findViewById(R.id.zoomReset);
@@ -94,62 +145,201 @@ public class StatisticsActivity extends AppCompatActivity implements ZoomListene
 			public void onClick(View v) {
 				_graphView.zoomReset();
 				_zoomLevel = 0;
+				updateSampling();
 			}
 		});
+		// there's no graph until the database is open
+		setZoomEnabled(false);
+	}
+
+	private void setZoomEnabled(boolean enabled) {
+		_btnZoomIn.setEnabled(enabled);
+		_btnZoomOut.setEnabled(enabled);
+		_btnZoomReset.setEnabled(enabled);
 	}
 
 	@Override
 	protected void onStart() {
 		super.onStart();
-		FridgeFile.getInstance().getFridgeService().addListener(_fridgeListener);
+		FridgeFile.getInstance().runWhenReady(_addFridgeListenerRunnable);
 	}
 
 	@Override
 	protected void onStop() {
 		super.onStop();
-		FridgeFile.getInstance().getFridgeService().removeListener(_fridgeListener);
+		FridgeFile.getInstance().removeReadyCallback(_addFridgeListenerRunnable);
+		BleFridgeService service = FridgeFile.getInstance().getFridgeService();
+		if (service != null) {
+			service.removeListener(_fridgeListener);
+		}
+	}
+
+	@Override
+	protected void onDestroy() {
+		super.onDestroy();
+		FridgeFile.getInstance().removeReadyCallback(_showGraphRunnable);
+		if (_deviceList != null) {
+			_deviceList.removeListener(_deviceListListener);
+		}
+		for (DeviceLoad load : _loads.values()) {
+			load.cancel();
+		}
+		_loads.clear();
+		_loadExecutor.shutdown();
 	}
 
 	private void showGraph() {
 
-		Date now = new Date();
+		createTemperatureGraph();
+		setZoomEnabled(true);
+
+		// the data is loaded in the background, a device at a time, and each one is shown as
+		// soon as it's loaded
+		_deviceList = FridgeFile.getInstance().getStoredDeviceList();
+		_deviceList.addListener(_deviceListListener);
+		updateSampling();
+		checkNoData();
 
-		StoredBleDeviceList deviceList = FridgeFile.getInstance().getStoredDeviceList();
-		ArrayList<Pair<String, ArrayList<Pair<Long, Long>>>> deviceDataList = new ArrayList<>();
-		for (StoredBleDevice device : deviceList.toList()) {
-			String address = device.getAddress();
-			ArrayList<Pair<Long, Long>> deviceData = getData(address, now);
-			deviceDataList.add(new Pair<>(address, deviceData));
+	}
+
+	// loads the data of a device in the background and shows it in the graph
+	private class DeviceLoad implements Runnable {
+		final String address;
+		final long startTime;
+		final long endTime;
+		final int width;
+		// set on the ui thread, once set the data is not shown anymore
+		volatile boolean cancelled;
+		Future<?> future;
+
+		DeviceLoad(String address, long startTime, long endTime, int width) {
+			this.address = address;
+			this.startTime = startTime;
+			this.endTime = endTime;
+			this.width = width;
 		}
 
-		createTemperatureGraph(deviceDataList);
+		@Override
+		public void run() {
+			if (cancelled) {
+				return;
+			}
+			final TemperatureSeries data = getData(address, startTime, endTime, width);
+			final long[] alerts = getAlerts(address, startTime, endTime);
+			runOnUiThread(new Runnable() {
+				@Override
+				public void run() {
+					if (cancelled || isFinishing()) {
+						return;
+					}
+					_loads.remove(address);
+					_deviceAlerts.put(address, alerts);
+					showDeviceData(address, data);
+					fillAlertSeries(address);
+					checkNoData();
+				}
+			});
+		}
 
+		void cancel() {
+			cancelled = true;
+			// takes it out of the queue if it didn't start yet
+			future.cancel(false);
+		}
 	}
 
-	private ArrayList<Pair<Long, Long>> getData(String address, Date date) {
+	// tells the user when the first loads are done and none of them had data
+	private void checkNoData() {
+		if (_noDataChecked || !_loads.isEmpty()) {
+			return;
+		}
+		_noDataChecked = true;
+		for (TemperatureSeries data : _deviceData.values()) {
+			if (!data.isEmpty()) {
+				return;
+			}
+		}
+		Toast.makeText(this, "No Data found", Toast.LENGTH_LONG).show();
+	}
 
-		ArrayList<Pair<Long, Long>> data = new ArrayList<>();
+	// loads the sampled range of a device, instead of a load that is still going
+	private void loadDevice(String address) {
+		DeviceLoad load = _loads.remove(address);
+		if (load != null) {
+			load.cancel();
+		}
+		load = new DeviceLoad(address, _sampledMinTime, _sampledMaxTime, 3 * getGraphWidth());
+		load.future = _loadExecutor.submit(load);
+		_loads.put(address, load);
+	}
 
-		// fetch entries for given date
-		Cursor cursor = _temperatureDb.fetchEntriesForDate(address, date);
+	// called on the loader thread. every load gets a series of its own, the ui thread may
+	// still be showing the previous one of the device
+	private TemperatureSeries getData(String address, long startTime, long endTime, int width) {
 
-		// as long as there are entries
-		while (!cursor.isAfterLast()) {
+		// fetch entries at the resolution that fills the width
+		return _temperatureDb.fetchHistorySeries(address, startTime, endTime, width, new TemperatureSeries());
+	}
 
-			// get count
-			long temperature = cursor.getLong(cursor.getColumnIndexOrThrow(TemperatureDbAdapter.KEY_TEMPERATURE));
-			// get timestamp
-			long time = cursor.getLong(cursor.getColumnIndexOrThrow(TemperatureDbAdapter.KEY_DATETIME));
+	// called on the loader thread, gives the times the alerts that were active in the range went off
+	private long[] getAlerts(String address, long startTime, long endTime) {
+		Cursor cursor = _alertDb.fetchAlerts(address, new Date(startTime), new Date(endTime));
+		try {
+			int column = cursor.getColumnIndexOrThrow(AlertDbAdapter.KEY_DATETIME);
+			long[] times = new long[cursor.getCount()];
+			for (int i = 0; i < times.length && cursor.moveToPosition(i); i++) {
+				times[i] = cursor.getLong(column);
+			}
+			return times;
+		} finally {
+			cursor.close();
+		}
+	}
+
+	// devices are added and removed from the graph while it's shown
+	private final StoredBleDeviceList.Listener _deviceListListener = new StoredBleDeviceList.Listener() {
+		@Override
+		public void onDeviceAdded(final StoredBleDevice device) {
+			runOnUiThread(new Runnable() {
+				@Override
+				public void run() {
+					removeDevice(device.getAddress());
+					loadDevice(device.getAddress());
+				}
+			});
+		}
 
-			// add to list
-			data.add(new Pair<>(time, temperature));
+		@Override
+		public void onDeviceRemoved(final StoredBleDevice device) {
+			runOnUiThread(new Runnable() {
+				@Override
+				public void run() {
+					removeDevice(device.getAddress());
+				}
+			});
+		}
 
-			// go to next
-			cursor.moveToNext();
+		@Override
+		public void onDeviceChanged(StoredBleDevice device) {
 		}
-		cursor.close();
+	};
 
-		return data;
+	private void removeDevice(String address) {
+		DeviceLoad load = _loads.remove(address);
+		if (load != null) {
+			load.cancel();
+		}
+		_deviceData.remove(address);
+		_liveData.remove(address);
+		_deviceAlerts.remove(address);
+		TemperatureChartSeries series = _deviceSeries.remove(address);
+		if (series != null) {
+			_dataSet.removeSeries(series);
+			_multipleSeriesRenderer.removeSeriesRenderer(_deviceRenderers.remove(address));
+			_dataSet.removeSeries(_alertSeries.remove(address));
+			_multipleSeriesRenderer.removeSeriesRenderer(_alertRenderers.remove(address));
+			_graphView.repaint();
+		}
 	}
 
 	private PointStyle[] listOfPointStyles = new PointStyle[] { PointStyle.CIRCLE, PointStyle.DIAMOND,
@@ -158,112 +348,156 @@ public class StatisticsActivity extends AppCompatActivity implements ZoomListene
 	private int[] listOfSeriesColors = new int[] { 0xFF00BFFF, Color.GREEN, Color.RED, Color.YELLOW,
 		Color.MAGENTA, Color.CYAN, Color.BLACK };
 
-	private void createTemperatureGraph(ArrayList<Pair<String, ArrayList<Pair<Long, Long>>>> data) {
+	// creates the graph without data, the devices are added by showDeviceData
+	private void createTemperatureGraph() {
 
 		// get graph renderer
 		_multipleSeriesRenderer = getRenderer();
 
 		_dataSet = new XYMultipleSeriesDataset();
 
-		int currentPointStyle = 0;
-		int currentSeriesColor = 0;
-		int currentSeires = 0;
+		_dataMinTemp = Integer.MAX_VALUE;
+		_dataMaxTemp = Integer.MIN_VALUE;
+		_minTemp = (long) _multipleSeriesRenderer.getYAxisMin();
+		_maxTemp = (long) _multipleSeriesRenderer.getYAxisMax();
 
-		_minTemp = Integer.MAX_VALUE;
-		_maxTemp = Integer.MIN_VALUE;
+		_maxTime = new Date().getTime();
 
-		_minTime = Long.MAX_VALUE;
-		_maxTime = Long.MIN_VALUE;
+		_liveMinTime = _maxTime - Config.LIVE_WINDOW_MILLIS;
 
-		StoredBleDeviceList storedDeviceList = FridgeFile.getInstance().getStoredDeviceList();
+		_multipleSeriesRenderer.setInitialRange(new double[] {_liveMinTime, _maxTime, _minTemp, _maxTemp});
 
-		for (Pair<String, ArrayList<Pair<Long, Long>>> device : data) {
-			// make sure data is not empty
-			if (device.second.isEmpty()) {
-				Toast.makeText(this, "No Data found", Toast.LENGTH_LONG).show();
-				return;
-			}
+		// create graph
+		_graphView = ChartFactory.getTimeChartView(this, _dataSet, _multipleSeriesRenderer, null);
+		_graphView.addZoomListener(this, false, true);
+		_graphView.addPanListener(this);
 
-			String seriesTitle = storedDeviceList.get(device.first).getName();
+		// add to screen
+		_layGraph.addView(_graphView);
+	}
 
-			// create time series (series with x = timestamp, y = temperature)
-			TimeSeries series = new TimeSeries(seriesTitle);
+	// shows newly loaded data of a device, replacing what was loaded before
+	private void showDeviceData(String address, TemperatureSeries deviceData) {
+		StoredBleDevice device = _deviceList.get(address);
+		if (device == null) {
+			return;
+		}
 
-			for (Pair<Long, Long> entry : device.second) {
-				series.add(new Date(entry.first), entry.second);
-				if (entry.second < _minTemp) {
-					_minTemp = entry.second;
-				}
-				if (entry.second > _maxTemp) {
-					_maxTemp = entry.second;
-				}
-				if (entry.first < _minTime) {
-					_minTime = entry.first;
-				}
-				if (entry.first > _maxTime) {
-					_maxTime = entry.first;
-				}
+		_deviceData.put(address, deviceData);
+		TemperatureChartSeries series = _deviceSeries.get(address);
+		if (series == null) {
+			series = addDeviceSeries(device);
+		}
+		fillSeries(series, address);
+
+		if (!deviceData.isEmpty()) {
+			// the bounds were found while loading
+			_dataMinTemp = Math.min(_dataMinTemp, deviceData.getMinTemperature());
+			_dataMaxTemp = Math.max(_dataMaxTemp, deviceData.getMaxTemperature());
+			long diff = _dataMaxTemp - _dataMinTemp;
+			_minTemp = Math.min(0, (long)(_dataMinTemp - diff * 0.2));
+			_maxTemp = (long)(_dataMaxTemp + diff * 0.2);
+
+			if (_zoomLevel == 0 && !_offline) {
+				_multipleSeriesRenderer.setInitialRange(new double[] {_liveMinTime, _maxTime, _minTemp, _maxTemp});
+				_multipleSeriesRenderer.setRange(new double[] {_liveMinTime, _maxTime, _minTemp, _maxTemp});
+				fillAlertSeries();
 			}
-
-			_dataSet.addSeries(series);
-
-			// create new renderer for the new series
-			XYSeriesRenderer renderer = new XYSeriesRenderer();
-			_multipleSeriesRenderer.addSeriesRenderer(renderer);
-
-			renderer.setPointStyle(listOfPointStyles[currentPointStyle]);
-			renderer.setColor(listOfSeriesColors[currentSeriesColor]);
-			renderer.setFillPoints(false);
-			renderer.setDisplayChartValues(true);
-			renderer.setDisplayChartValuesDistance(200);
-			renderer.setChartValuesTextSize(30f);
-			renderer.setShowLegendItem(true);
-
-			currentPointStyle = (currentPointStyle + 1) % listOfPointStyles.length;
-			currentSeriesColor = (currentSeriesColor + 1) % listOfSeriesColors.length;
-
-			deviceSeriesMap.put(device.first, currentSeires);
-			currentSeires++;
 		}
 
-		long diff = _maxTemp - _minTemp;
-		_minTemp = Math.min(0, (long)(_minTemp - diff * 0.2));
-		_maxTemp = (long)(_maxTemp + diff * 0.2);
-
-		_liveMinTime = new Date().getTime() - 30 * 60 * 1000;
-
-		addAlertSeries();
+		// redraw
+		_graphView.repaint();
+	}
 
-		_multipleSeriesRenderer.setInitialRange(new double[] {_liveMinTime, _maxTime, _minTemp, _maxTemp});
+	private TemperatureChartSeries addDeviceSeries(StoredBleDevice device) {
+		// create time series (series with x = timestamp, y = temperature), which reads the
+		// live temperatures from the ring buffer of the device
+		LiveSeries live = new LiveSeries(Config.LIVE_SERIES_CAPACITY);
+		TemperatureChartSeries series = new TemperatureChartSeries(device.getName(), live);
+		_dataSet.addSeries(series);
 
-		// create graph
-		_graphView = ChartFactory.getTimeChartView(this, _dataSet, _multipleSeriesRenderer, null);
-		_graphView.addZoomListener(this, false, true);
+		// create new renderer for the new series
+		XYSeriesRenderer renderer = new XYSeriesRenderer();
+		_multipleSeriesRenderer.addSeriesRenderer(renderer);
 
-		// add to screen
-		_layGraph.addView(_graphView);
+		renderer.setPointStyle(listOfPointStyles[_currentPointStyle]);
+		renderer.setColor(listOfSeriesColors[_currentSeriesColor]);
+		renderer.setFillPoints(false);
+		renderer.setDisplayChartValues(true);
+		renderer.setDisplayChartValuesDistance(200);
+		renderer.setChartValuesTextSize(30f);
+		renderer.setShowLegendItem(true);
+
+		_currentPointStyle = (_currentPointStyle + 1) % listOfPointStyles.length;
+		_currentSeriesColor = (_currentSeriesColor + 1) % listOfSeriesColors.length;
+
+		_deviceSeries.put(device.getAddress(), series);
+		_deviceRenderers.put(device.getAddress(), renderer);
+		_liveData.put(device.getAddress(), live);
+		addAlertSeries(device.getAddress(), renderer.getColor());
+		return series;
 	}
 
-	private void addAlertSeries() {
-		TimeSeries alertSeries = new TimeSeries("Alerts");
-		long alertTime = _maxTime - 5000 * 60;
-		alertSeries.add(alertTime, Long.MAX_VALUE);
-		alertSeries.add(alertTime, Long.MIN_VALUE);
-
-		_dataSet.addSeries(alertSeries);
+	// the alerts of a device are drawn in its color, they are filled in by fillAlertSeries
+	private void addAlertSeries(String address, int color) {
+		TimeSeries series = new TimeSeries("Alerts");
+		_dataSet.addSeries(series);
 
 		// create new renderer for the new series
 		XYSeriesRenderer renderer = new XYSeriesRenderer();
 		_multipleSeriesRenderer.addSeriesRenderer(renderer);
 
 		renderer.setPointStyle(PointStyle.POINT);
-		renderer.setColor(Color.RED);
+		renderer.setColor(color);
 		renderer.setFillPoints(false);
 		renderer.setDisplayChartValues(false);
-//		renderer.setDisplayChartValuesDistance(1);
-//		renderer.setChartValuesTextSize(30f);
 		renderer.setShowLegendItem(false);
 
+		_alertSeries.put(address, series);
+		_alertRenderers.put(address, renderer);
+	}
+
+	// puts a vertical line in the alert series of the device at every alert, from the bottom
+	// to the top of the visible temperatures. a null value after each line breaks the series,
+	// so nothing is drawn in between alerts
+	private void fillAlertSeries(String address) {
+		TimeSeries series = _alertSeries.get(address);
+		if (series == null) {
+			return;
+		}
+		series.clear();
+		long[] alerts = _deviceAlerts.get(address);
+		if (alerts == null) {
+			return;
+		}
+		double bottom = _multipleSeriesRenderer.isMinYSet() ? _multipleSeriesRenderer.getYAxisMin() : _minTemp;
+		double top = _multipleSeriesRenderer.isMaxYSet() ? _multipleSeriesRenderer.getYAxisMax() : _maxTemp;
+		for (long time : alerts) {
+			series.add(time, bottom);
+			series.add(time, top);
+			series.add(time, MathHelper.NULL_VALUE);
+		}
+	}
+
+	// the lines follow the visible temperatures, so they are filled again when those change
+	private void fillAlertSeries() {
+		for (String address : _alertSeries.keySet()) {
+			fillAlertSeries(address);
+		}
+	}
+
+	// shows an alert that went off while the graph is shown, it's written to the database in
+	// the background, so a reload finds it as well
+	private void addLiveAlert(String address, long time) {
+		if (!_deviceSeries.containsKey(address)) {
+			return;
+		}
+		long[] alerts = _deviceAlerts.get(address);
+		alerts = alerts == null ? new long[1] : Arrays.copyOf(alerts, alerts.length + 1);
+		alerts[alerts.length - 1] = time;
+		_deviceAlerts.put(address, alerts);
+		fillAlertSeries(address);
+		_graphView.repaint();
 	}
 
 	/**
@@ -313,7 +547,7 @@ public class StatisticsActivity extends AppCompatActivity implements ZoomListene
 		// todo: need to get background colour of activity, transparent is not good enough
 //		renderer.setMarginsColor(((ColorDrawable) _layGraph.getBackground()).getColor());
 
-		renderer.setXAxisMin(new Date().getTime() - 30 * 60 * 1000);
+		renderer.setXAxisMin(new Date().getTime() - Config.LIVE_WINDOW_MILLIS);
 
 		renderer.setZoomButtonsVisible(false);
 		renderer.setExternalZoomEnabled(true);
@@ -339,45 +573,28 @@ public class StatisticsActivity extends AppCompatActivity implements ZoomListene
 	//////////////////////////////////////////
 	final BleFridgeServiceListener _fridgeListener = new BleFridgeServiceListener() {
 		@Override
-		public void onTemperature(StoredBleDevice device, int temperature) {
-			if (_offline) {
-				return;
-			}
-
-			// add new point
-			int seriesIdx = deviceSeriesMap.get(device.getAddress());
-			TimeSeries series = (TimeSeries)_dataSet.getSeriesAt(seriesIdx);
-			series.add(new Date(), temperature);
-
-			// update y-axis range
-			if (temperature > _maxTemp) {
-				_maxTemp = (long)(temperature + (temperature - _minTemp) * 0.2);
-			}
-			if (temperature < _minTemp) {
-				_minTemp = Math.min(0, (long)(temperature - (_maxTemp - temperature) * 0.2));
-			}
-
-			// update x-axis range
-			_maxTime = new Date().getTime();
-			_liveMinTime = _maxTime - 30 * 60 * 1000;
-
-			// update range
-			if (_zoomLevel == 0) {
-				_multipleSeriesRenderer.setInitialRange(new double[]{_liveMinTime, _maxTime, _minTemp, _maxTemp});
-				_multipleSeriesRenderer.setRange(new double[]{_liveMinTime, _maxTime, _minTemp, _maxTemp});
-			}
-
-			// redraw
+		public void onTemperature(final StoredBleDevice device, final int temperature) {
+			// called on the sampling thread, the series and renderer are only touched on the ui thread
 			runOnUiThread(new Runnable() {
 				@Override
 				public void run() {
-					_graphView.repaint();
+					addLivePoint(device, temperature);
 				}
 			});
 		}
 
 		@Override
-		public void onAlert(StoredBleDevice device, BleAlertState oldAlertState, BleAlertState newAlertState) {
+		public void onAlert(final StoredBleDevice device, BleAlertState oldAlertState, BleAlertState newAlertState) {
+			if ((newAlertState.isTemperatureLowActive() && !oldAlertState.isTemperatureLowActive()) ||
+					(newAlertState.isTemperatureHighActive() && !oldAlertState.isTemperatureHighActive())) {
+				final long time = System.currentTimeMillis();
+				runOnUiThread(new Runnable() {
+					@Override
+					public void run() {
+						addLiveAlert(device.getAddress(), time);
+					}
+				});
+			}
 
 //			// checking alert levels
 //			if (newAlertState.isTemperatureLowActive() && !oldAlertState.isTemperatureLowActive()) {
@@ -398,19 +615,114 @@ public class StatisticsActivity extends AppCompatActivity implements ZoomListene
 		}
 	};
 
+	/**
+	 * Load the data around the view again once the view gets within half a view of the edge
+	 * of the loaded range, or was zoomed so far that the resolution doesn't fit anymore. The
+	 * loaded range is the view and a view on both sides, so the adjacent parts are loaded
+	 * before they're shown, and it's all that is kept, however far back the view goes.
+	 */
+	private void updateSampling() {
+		fillAlertSeries();
+		long viewMin = _multipleSeriesRenderer.isMinXSet() ? (long) _multipleSeriesRenderer.getXAxisMin() : _liveMinTime;
+		long viewMax = _multipleSeriesRenderer.isMaxXSet() ? (long) _multipleSeriesRenderer.getXAxisMax() : _maxTime;
+		long span = Math.max(1, viewMax - viewMin);
+		long sampledSpan = (_sampledMaxTime - _sampledMinTime) / 3;
+		if (viewMin >= _sampledMinTime + sampledSpan / 2 && viewMax <= _sampledMaxTime - sampledSpan / 2 &&
+				span * 3 > sampledSpan * 2 && span * 2 < sampledSpan * 3) {
+			return;
+		}
+		_sampledMinTime = viewMin - span;
+		_sampledMaxTime = viewMax + span;
+		for (StoredBleDevice device : _deviceList.toList()) {
+			loadDevice(device.getAddress());
+		}
+		// until the loads are in, the series show what is already loaded of the new range
+		for (String address : _deviceSeries.keySet()) {
+			fillSeries(_deviceSeries.get(address), address);
+		}
+		_graphView.repaint();
+	}
+
+	private int getGraphWidth() {
+		int width = _graphView.getWidth();
+		if (width == 0) {
+			// not laid out yet
+			width = getResources().getDisplayMetrics().widthPixels;
+		}
+		return width;
+	}
+
+	// puts the temperatures of the sampled range into the series, at most two per pixel of
+	// the loaded ones, and the live ones after them as they are. x is the timestamp in ms
+	private void fillSeries(TemperatureChartSeries series, String address) {
+		TemperatureSeries data = _deviceData.get(address);
+		// the sampled range is three views wide
+		data.downsample(_sampledMinTime, _sampledMaxTime, 3 * getGraphWidth(), series.getSampled());
+		// the live temperatures are not copied, the series reads them from the ring buffer
+		series.update(data.getMaxTime(), _sampledMinTime, _sampledMaxTime);
+	}
+
+	private void addLivePoint(StoredBleDevice device, int temperature) {
+		if (_offline) {
+			return;
+		}
+
+		// add new point, unless the data of the device is still loading
+		TemperatureChartSeries series = _deviceSeries.get(device.getAddress());
+		if (series == null) {
+			return;
+		}
+		long now = new Date().getTime();
+		// the series reads the ring buffer, so it never shows more live points than it holds
+		_liveData.get(device.getAddress()).add(now, temperature);
+		series.update(_deviceData.get(device.getAddress()).getMaxTime(), _sampledMinTime, _sampledMaxTime);
+
+		// update y-axis range
+		if (temperature > _maxTemp) {
+			_maxTemp = (long)(temperature + (temperature - _minTemp) * 0.2);
+		}
+		if (temperature < _minTemp) {
+			_minTemp = Math.min(0, (long)(temperature - (_maxTemp - temperature) * 0.2));
+		}
+
+		// update x-axis range
+		_maxTime = new Date().getTime();
+		_liveMinTime = _maxTime - Config.LIVE_WINDOW_MILLIS;
+
+		// update range
+		if (_zoomLevel == 0) {
+			_multipleSeriesRenderer.setInitialRange(new double[]{_liveMinTime, _maxTime, _minTemp, _maxTemp});
+			_multipleSeriesRenderer.setRange(new double[]{_liveMinTime, _maxTime, _minTemp, _maxTemp});
+			updateSampling();
+		}
+
+		// redraw
+		_graphView.repaint();
+	}
+
 	@Override
 	public void zoomApplied(ZoomEvent zoomEvent) {
 		_zoomLevel = 100;
+		updateSampling();
 	}
 
 	@Override
 	public void zoomReset() {
 		_zoomLevel = 0;
+		updateSampling();
+	}
+
+	@Override
+	public void panApplied() {
+		updateSampling();
 	}
 
 	private void showToday() {
-		_multipleSeriesRenderer.setInitialRange(new double[] {_minTime, _maxTime, _minTemp, _maxTemp});
-		_multipleSeriesRenderer.setRange(new double[] {_minTime, _maxTime, _minTemp, _maxTemp});
+		Date now = new Date();
+		long startOfDay = new Date(now.getYear(), now.getMonth(), now.getDate()).getTime();
+		_multipleSeriesRenderer.setInitialRange(new double[] {startOfDay, now.getTime(), _minTemp, _maxTemp});
+		_multipleSeriesRenderer.setRange(new double[] {startOfDay, now.getTime(), _minTemp, _maxTemp});
+		updateSampling();
 		// redraw
 		runOnUiThread(new Runnable() {
 			@Override
@@ -421,9 +733,10 @@ public class StatisticsActivity extends AppCompatActivity implements ZoomListene
 	}
 
 	private void showLive() {
-		_liveMinTime = new Date().getTime() - 30 * 60 * 1000;
+		_liveMinTime = new Date().getTime() - Config.LIVE_WINDOW_MILLIS;
 		_multipleSeriesRenderer.setRange(new double[] {_liveMinTime, new Date().getTime(), _minTemp, _maxTemp});
 		_multipleSeriesRenderer.setInitialRange(new double[] {_liveMinTime, new Date().getTime(), _minTemp, _maxTemp});
+		updateSampling();
 		// redraw
 		runOnUiThread(new Runnable() {
 			@Override
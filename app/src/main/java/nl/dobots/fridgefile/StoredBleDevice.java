@@ -24,14 +24,17 @@ import nl.dobots.bluenet.ble.base.structs.BleAlertState;
 
 public class StoredBleDevice {
 	private static final String TAG = StoredBleDevice.class.getCanonicalName();
-	private String _address;
-	private String _name;
-	private int _minTemperature;
-	private int _maxTemperature;
-	private int _currentTemperature;
-	private long _lastRefreshTime;
-
-	private BleAlertState _currentAlert;
+	private final String _address;
+	// fields are volatile, they're set from ble callbacks and read on the ui thread
+	private volatile String _name;
+	private volatile int _minTemperature;
+	private volatile int _maxTemperature;
+	private volatile int _currentTemperature;
+	private volatile long _lastRefreshTime;
+	// critical devices are streamed over a connection that is kept open
+	private volatile boolean _critical;
+
+	private volatile BleAlertState _currentAlert;
 
 	public StoredBleDevice(String address, String name, int minTemperature, int maxTemperature) {
 		_address = address;
@@ -90,6 +93,14 @@ public class StoredBleDevice {
 		return _lastRefreshTime;
 	}
 
+	public boolean isCritical() {
+		return _critical;
+	}
+
+	public void setCritical(boolean critical) {
+		_critical = critical;
+	}
+
 	public void setCurrentAlert(BleAlertState alert) {
 		_currentAlert = alert;
 	}
@@ -1,15 +1,22 @@
 package nl.dobots.fridgefile;
 
-import android.content.ContentValues;
 import android.content.Context;
 import android.database.Cursor;
+import android.database.SQLException;
 import android.database.sqlite.SQLiteDatabase;
-import android.database.sqlite.SQLiteOpenHelper;
+import android.database.sqlite.SQLiteStatement;
 import android.util.Log;
 
 import java.util.ArrayList;
-import java.util.HashMap;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
 
 /**
  * Copyright (c) 2015 Bart van Vliet <bart@dobots.nl>. All rights reserved.
@@ -29,34 +36,87 @@ import java.util.List;
  * @author Bart van Vliet
  */
 
-public class StoredBleDeviceList extends HashMap<String, StoredBleDevice> {
+/**
+ * The stored devices, by address. Readers get a snapshot that is never modified, changes
+ * replace the snapshot by a new one (copy on write), so reading never locks and never copies.
+ * Changes are saved in the background: changed addresses are collected and written in one
+ * transaction a little later, or right away on save().
+ */
+public class StoredBleDeviceList {
 	private static final String TAG = StoredBleDeviceList.class.getCanonicalName();
-	private Context _context;
-	private DatabaseHelper _databaseHelper;
 
+	/**
+	 * Gets told about changes of the list, on the thread that made the change
+	 */
+	public interface Listener {
+		void onDeviceAdded(StoredBleDevice device);
+		void onDeviceRemoved(StoredBleDevice device);
+		void onDeviceChanged(StoredBleDevice device);
+	}
+
+	// the devices as map and as list, replaced as a whole on every change
+	private static class Snapshot {
+		final Map<String, StoredBleDevice> map;
+		final List<StoredBleDevice> list;
 
-	public StoredBleDeviceList(Context context) {
-		_context = context;
-		_databaseHelper = new DatabaseHelper(_context);
+		Snapshot(LinkedHashMap<String, StoredBleDevice> devices) {
+			map = Collections.unmodifiableMap(devices);
+			list = Collections.unmodifiableList(new ArrayList<>(devices.values()));
+		}
 	}
 
+	private volatile Snapshot _snapshot = new Snapshot(new LinkedHashMap<String, StoredBleDevice>());
+	private final List<Listener> _listeners = new CopyOnWriteArrayList<>();
+
+	private DatabaseHelper _databaseHelper;
+	private ScheduledExecutorService _executor;
+	// addresses of devices that were added, changed or removed since the last save
+	private final Set<String> _dirty = new HashSet<>();
+	private boolean _saveScheduled;
+
 	/**
-	 * Adds an item, overwrites existing
-	 * Also adds it to the database
+	 * A list that only lives in memory
 	 */
-	public void add(StoredBleDevice device) {
-		put(device.getAddress(), device);
+	public StoredBleDeviceList() {
+	}
+
+	/**
+	 * A list that is saved in the database
+	 *
+	 * @param executor the executor the changes are saved on
+	 */
+	public StoredBleDeviceList(Context context, ScheduledExecutorService executor) {
+		_databaseHelper = new DatabaseHelper(context);
+		_executor = executor;
+	}
+
+	public void addListener(Listener listener) {
+		_listeners.add(listener);
+	}
+
+	public void removeListener(Listener listener) {
+		_listeners.remove(listener);
 	}
 
 	/**
 	 * Adds an item, overwrites existing
 	 * Also adds it to the database
 	 */
-	@Override
-	public StoredBleDevice put(String key, StoredBleDevice value) {
-		Log.d(TAG, "Put " + key);
-		_databaseHelper.put(value);
-		return super.put(key, value);
+	public void add(StoredBleDevice device) {
+		Log.d(TAG, "Put " + device.getAddress());
+		StoredBleDevice old;
+		synchronized (this) {
+			LinkedHashMap<String, StoredBleDevice> devices = new LinkedHashMap<>(_snapshot.map);
+			old = devices.put(device.getAddress(), device);
+			_snapshot = new Snapshot(devices);
+			markDirty(device.getAddress());
+		}
+		for (Listener listener : _listeners) {
+			if (old != null) {
+				listener.onDeviceRemoved(old);
+			}
+			listener.onDeviceAdded(device);
+		}
 	}
 
 	/**
@@ -71,146 +131,259 @@ public class StoredBleDeviceList extends HashMap<String, StoredBleDevice> {
 	 * Removes an item
 	 * Also removes it from the database
 	 */
-	@Override
-	public StoredBleDevice remove(Object key) {
-		Log.d(TAG, "Remove " + key);
-		_databaseHelper.remove(this.get(key));
-		return super.remove(key);
+	public StoredBleDevice remove(String address) {
+		Log.d(TAG, "Remove " + address);
+		StoredBleDevice old;
+		synchronized (this) {
+			if (!_snapshot.map.containsKey(address)) {
+				return null;
+			}
+			LinkedHashMap<String, StoredBleDevice> devices = new LinkedHashMap<>(_snapshot.map);
+			old = devices.remove(address);
+			_snapshot = new Snapshot(devices);
+			markDirty(address);
+		}
+		for (Listener listener : _listeners) {
+			listener.onDeviceRemoved(old);
+		}
+		return old;
 	}
 
 	/**
 	 * Removes all items
 	 * Also clears the database
 	 */
-	@Override
 	public void clear() {
-		super.clear();
-		_databaseHelper.clear();
+		List<StoredBleDevice> old;
+		synchronized (this) {
+			old = _snapshot.list;
+			_snapshot = new Snapshot(new LinkedHashMap<String, StoredBleDevice>());
+			for (StoredBleDevice device : old) {
+				markDirty(device.getAddress());
+			}
+		}
+		for (StoredBleDevice device : old) {
+			for (Listener listener : _listeners) {
+				listener.onDeviceRemoved(device);
+			}
+		}
+	}
+
+	/**
+	 * Tell the list a stored field of the device changed (name, min or max temperature, or
+	 * whether it's critical), so that it gets saved
+	 */
+	public void update(StoredBleDevice device) {
+		synchronized (this) {
+			if (_snapshot.map.get(device.getAddress()) != device) {
+				return;
+			}
+			markDirty(device.getAddress());
+		}
+		for (Listener listener : _listeners) {
+			listener.onDeviceChanged(device);
+		}
 	}
 
 	public boolean contains(StoredBleDevice device) {
-		return containsKey(device.getAddress());
+		return contains(device.getAddress());
 	}
 
 	public boolean contains(String address) {
-		return containsKey(address);
+		return _snapshot.map.containsKey(address);
 	}
 
 	public StoredBleDevice get(StoredBleDevice device) {
-		return super.get(device.getAddress());
+		return get(device.getAddress());
+	}
+
+	public StoredBleDevice get(String address) {
+		return _snapshot.map.get(address);
+	}
+
+	public int size() {
+		return _snapshot.list.size();
 	}
 
+	/**
+	 * @return the devices at this moment, the list doesn't change and can't be modified
+	 */
 	public List<StoredBleDevice> toList() {
-		return new ArrayList<StoredBleDevice>(values());
+		return _snapshot.list;
 	}
 
+	/**
+	 * Save the changes now instead of a little later
+	 */
 	public void save() {
-		_databaseHelper.saveAll(this);
+		if (_databaseHelper != null) {
+			_executor.execute(_saveRunnable);
+		}
 	}
 
+	/**
+	 * Replace the list by the devices in the database, without telling the listeners
+	 */
 	public void load() {
-		_databaseHelper.loadAll(this);
+		if (_databaseHelper != null) {
+			LinkedHashMap<String, StoredBleDevice> devices = new LinkedHashMap<>();
+			for (StoredBleDevice device : _databaseHelper.loadAll()) {
+				devices.put(device.getAddress(), device);
+			}
+			synchronized (this) {
+				_snapshot = new Snapshot(devices);
+			}
+		}
 	}
 
+	// called with the lock held
+	private void markDirty(String address) {
+		if (_databaseHelper == null) {
+			return;
+		}
+		_dirty.add(address);
+		if (!_saveScheduled) {
+			_saveScheduled = true;
+			_executor.schedule(_saveRunnable, Config.DEVICE_SAVE_DELAY_MILLIS, TimeUnit.MILLISECONDS);
+		}
+	}
+
+	private final Runnable _saveRunnable = new Runnable() {
+		@Override
+		public void run() {
+			List<StoredBleDevice> changed = new ArrayList<>();
+			List<String> removed = new ArrayList<>();
+			synchronized (StoredBleDeviceList.this) {
+				_saveScheduled = false;
+				if (_dirty.isEmpty()) {
+					return;
+				}
+				for (String address : _dirty) {
+					StoredBleDevice device = _snapshot.map.get(address);
+					if (device != null) {
+						changed.add(device);
+					} else {
+						removed.add(address);
+					}
+				}
+				_dirty.clear();
+			}
+			try {
+				_databaseHelper.saveChanges(changed, removed);
+			} catch (SQLException e) {
+				Log.e(TAG, "failed to save devices", e);
+				synchronized (StoredBleDeviceList.this) {
+					// try again with the next change or save
+					for (StoredBleDevice device : changed) {
+						_dirty.add(device.getAddress());
+					}
+					_dirty.addAll(removed);
+				}
+			}
+		}
+	};
+
 	// From http://www.androidhive.info/2011/11/android-sqlite-database-tutorial/
-	private class DatabaseHelper extends SQLiteOpenHelper {
-		private static final String TABLE_NAME = "StoredDeviceList";
+	// The table is part of the database of the app, see FridgeDatabase, which stays open
+	static class DatabaseHelper {
+		static final String TABLE_NAME = "StoredDeviceList";
 		private static final String KEY_ADDRESS = "address";
 		private static final String KEY_NAME = "name";
 		private static final String KEY_MIN_TEMP = "minTemp";
 		private static final String KEY_MAX_TEMP = "maxTemp";
+		private static final String KEY_CRITICAL = "critical";
 		// See: https://www.sqlite.org/datatype3.html
-		private static final String DATABASE_CREATE = "create table " + TABLE_NAME + " (" +
+		static final String DATABASE_CREATE = "create table " + TABLE_NAME + " (" +
 				KEY_ADDRESS + " text primary key, " +
 				KEY_NAME + " text not null, " +
 				KEY_MIN_TEMP + " integer," +
-				KEY_MAX_TEMP + " integer" +
+				KEY_MAX_TEMP + " integer," +
+				KEY_CRITICAL + " integer not null default 0" +
 				");";
 
-		public DatabaseHelper(Context context) {
-			super(context, Config.DATABASE_NAME, null, Config.DATABASE_VERSION);
-		}
+		private final FridgeDatabase _database;
+		// Replace inserts or replaces when the key already exists, compiled on first use
+		private SQLiteStatement _replaceStatement;
 
-		@Override
-		public void onCreate(SQLiteDatabase db) {
-			db.execSQL(DATABASE_CREATE);
+		public DatabaseHelper(Context context) {
+			_database = FridgeDatabase.getInstance(context);
 		}
 
-		@Override
-		public void onUpgrade(SQLiteDatabase db, int oldVersion, int newVersion) {
-			Log.i(TAG, "Upgrading from v" + oldVersion + " to v" + newVersion);
-			// TODO: this isn't the best way..
-			Log.w(TAG, "This will destroy all data!");
-			db.execSQL("DROP TABLE IF EXISTS " + TABLE_NAME);
-			onCreate(db);
-		}
-
-		public void saveAll(StoredBleDeviceList devices) {
-			SQLiteDatabase database = this.getWritableDatabase();
-			ContentValues values = new ContentValues();
-//			Iterator it = devices.entrySet().iterator();
-//			while (it.hasNext()) {
-//				Map.Entry pair = (Map.Entry)it.next();
-//				deviceToValue(pair.getValue(), values);
-//			}
-			for (StoredBleDevice device : devices.values()) {
-				deviceToValue(device, values);
-				// Replace inserts or replaces when the key already exists
-				database.replace(TABLE_NAME, null, values);
-				Log.d(TAG, "replace " + values);
+		/**
+		 * Replaces the changed and deletes the removed devices, in one transaction
+		 */
+		public synchronized void saveChanges(List<StoredBleDevice> changed, List<String> removed) {
+			SQLiteDatabase database = _database.getDatabase();
+			SQLiteStatement statement = getReplaceStatement();
+			database.beginTransaction();
+			try {
+				for (StoredBleDevice device : changed) {
+					replace(statement, device);
+					Log.d(TAG, "replace " + device.getAddress());
+				}
+				for (String address : removed) {
+					database.delete(TABLE_NAME, KEY_ADDRESS + " = ?", new String[] { address });
+					Log.d(TAG, "delete " + address);
+				}
+				database.setTransactionSuccessful();
+			} finally {
+				database.endTransaction();
 			}
-			database.close();
-		}
-
-		public void put(StoredBleDevice device) {
-			SQLiteDatabase database = this.getWritableDatabase();
-			ContentValues values = new ContentValues();
-			deviceToValue(device, values);
-			database.replace(TABLE_NAME, null, values);
-			database.close();
-		}
-
-		public void deviceToValue(StoredBleDevice device, ContentValues values) {
-			values.put(KEY_ADDRESS, device.getAddress());
-			values.put(KEY_NAME, device.getName());
-			values.put(KEY_MIN_TEMP, device.getMinTemperature());
-			values.put(KEY_MAX_TEMP, device.getMaxTemperature());
 		}
 
-		public void remove(StoredBleDevice device) {
-			SQLiteDatabase database = this.getWritableDatabase();
-			database.delete(TABLE_NAME, KEY_ADDRESS + " = ?", new String[] { device.getAddress() });
-			database.close();
+		private SQLiteStatement getReplaceStatement() {
+			if (_replaceStatement == null) {
+				_replaceStatement = _database.getDatabase().compileStatement("insert or replace into " + TABLE_NAME + " (" +
+						KEY_ADDRESS + ", " + KEY_NAME + ", " + KEY_MIN_TEMP + ", " + KEY_MAX_TEMP + ", " + KEY_CRITICAL +
+						") values (?, ?, ?, ?, ?)");
+			}
+			return _replaceStatement;
 		}
 
-		public void clear() {
-			SQLiteDatabase database = this.getWritableDatabase();
-			database.delete(TABLE_NAME, null, null);
-			database.close();
+		private void replace(SQLiteStatement statement, StoredBleDevice device) {
+			statement.bindString(1, device.getAddress());
+			if (device.getName() == null) {
+				statement.bindNull(2);
+			} else {
+				statement.bindString(2, device.getName());
+			}
+			statement.bindLong(3, device.getMinTemperature());
+			statement.bindLong(4, device.getMaxTemperature());
+			statement.bindLong(5, device.isCritical() ? 1 : 0);
+			try {
+				statement.executeInsert();
+			} catch (SQLException e) {
+				// Like SQLiteDatabase.replace, log and go on with the other devices
+				Log.e(TAG, "failed to replace " + device.getAddress(), e);
+			}
 		}
 
 		/**
-		 * Loads devices from database and _adds_ them to the list
+		 * Loads all devices from the database
 		 */
-		public void loadAll(StoredBleDeviceList devices) {
+		public List<StoredBleDevice> loadAll() {
 			Log.d(TAG, "load from database");
-			String selectQuery = "SELECT * FROM " + TABLE_NAME;
-			SQLiteDatabase database = this.getWritableDatabase();
-			Cursor cursor = database.rawQuery(selectQuery, null);
-
-			if (cursor.moveToFirst()) {
-				do {
+			List<StoredBleDevice> devices = new ArrayList<>();
+			String selectQuery = "SELECT " + KEY_ADDRESS + ", " + KEY_NAME + ", " + KEY_MIN_TEMP + ", " +
+					KEY_MAX_TEMP + ", " + KEY_CRITICAL + " FROM " + TABLE_NAME;
+			Cursor cursor = _database.getDatabase().rawQuery(selectQuery, null);
+			try {
+				while (cursor.moveToNext()) {
 					StoredBleDevice device = new StoredBleDevice(
 							cursor.getString(0),
 							cursor.getString(1),
 							cursor.getInt(2),
 							cursor.getInt(3)
 					);
+					device.setCritical(cursor.getInt(4) != 0);
 					Log.d(TAG, "Loaded " +device.getName() + " (" + device.getAddress() + ") minTemp=" + device.getMinTemperature() + " maxTemp=" + device.getMaxTemperature());
 					devices.add(device);
-				} while (cursor.moveToNext());
+				}
+				Log.d(TAG, "Loaded " + cursor.getCount() + " items");
+			} finally {
+				cursor.close();
 			}
-			Log.d(TAG, "Loaded " + cursor.getCount() + " items");
+			return devices;
 		}
 	}
 }
@@ -0,0 +1,383 @@
+package nl.dobots.fridgefile;
+
+import android.os.Handler;
+import android.util.Log;
+
+import nl.dobots.bluenet.ble.base.callbacks.IAlertCallback;
+import nl.dobots.bluenet.ble.base.callbacks.IDiscoveryCallback;
+import nl.dobots.bluenet.ble.base.callbacks.IIntegerCallback;
+import nl.dobots.bluenet.ble.base.callbacks.IStatusCallback;
+import nl.dobots.bluenet.ble.base.structs.BleAlertState;
+import nl.dobots.bluenet.ble.extended.BleDeviceConnectionState;
+
+/**
+ * Copyright (c) 2026 agent <agent@local>. All rights reserved.
+ * <p/>
+ * This code is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License version 3, as
+ * published by the Free Software Foundation.
+ * <p/>
+ * This code is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE.  See the GNU General Public License
+ * version 3 for more details (a copy is included in the LICENSE file that
+ * accompanied this code).
+ * <p/>
+ * Created on 17-10-26
+ *
+ * @author agent
+ */
+
+/**
+ * Keeps a GATT connection to one critical device open and gets its temperature and alerts
+ * from notifications, instead of polling them. When the link drops, or the device has been
+ * silent for a while and doesn't answer a read either, the session reconnects with a growing
+ * delay.
+ */
+public class StreamingSession {
+	private static final String TAG = StreamingSession.class.getCanonicalName();
+
+	public enum State {
+		connecting,
+		discovering,
+		subscribing,
+		streaming,
+		waiting,
+		closing,
+		closed
+	}
+
+	private final BleBackend _ble;
+	private final Handler _handler;
+	private final StoredBleDevice _device;
+	private final BleFridgeServiceListener _resultListener;
+	private volatile State _state = State.closed;
+	// incremented on every (re)connect, callbacks of an older connection are ignored
+	private int _connection;
+	private long _reconnectDelay = Config.STREAM_RECONNECT_DELAY_MILLIS;
+	private volatile long _lastNotificationTime;
+	private volatile int _reconnects;
+	private IStatusCallback _closeCallback;
+
+	public StreamingSession(BleBackend ble, Handler handler, StoredBleDevice device, BleFridgeServiceListener resultListener) {
+		_ble = ble;
+		_handler = handler;
+		_device = device;
+		_resultListener = resultListener;
+	}
+
+	/**
+	 * Destroy the backend of the stream, once it's closed
+	 */
+	public void destroy() {
+		_ble.destroy();
+	}
+
+	public StoredBleDevice getDevice() {
+		return _device;
+	}
+
+	public State getState() {
+		return _state;
+	}
+
+	/**
+	 * @return number of times the connection had to be made again
+	 */
+	public int getReconnects() {
+		return _reconnects;
+	}
+
+	public long getLastNotificationTime() {
+		return _lastNotificationTime;
+	}
+
+	public synchronized void start() {
+		if (_state != State.closed) {
+			return;
+		}
+		connect();
+	}
+
+	/**
+	 * Unsubscribe and disconnect, the callback is called once disconnected
+	 */
+	public synchronized void close(final IStatusCallback callback) {
+		if (_state == State.closed) {
+			callback.onSuccess();
+			return;
+		}
+		_closeCallback = callback;
+		if (_state == State.closing) {
+			return;
+		}
+		_connection++;
+		_handler.removeCallbacks(_timeoutRunnable);
+		_handler.removeCallbacks(_reconnectRunnable);
+		_handler.removeCallbacks(_watchdogRunnable);
+		_ble.unsubscribeTemperature(_temperatureCallback);
+		_ble.unsubscribeAlert(_alertCallback);
+		setState(State.closing);
+		final int connection = _connection;
+		_ble.disconnectAndClose(false, new IStatusCallback() {
+			@Override
+			public void onSuccess() {
+				closed(connection);
+			}
+
+			@Override
+			public void onError(int error) {
+				closed(connection);
+			}
+		});
+		// don't wait forever for the disconnect
+		_handler.postDelayed(_timeoutRunnable, Config.SAMPLE_DISCONNECT_TIMEOUT_MILLIS);
+	}
+
+	private void closed(int connection) {
+		IStatusCallback callback;
+		synchronized (this) {
+			if (connection != _connection || _state != State.closing) {
+				return;
+			}
+			_handler.removeCallbacks(_timeoutRunnable);
+			setState(State.closed);
+			callback = _closeCallback;
+			_closeCallback = null;
+		}
+		Log.d(TAG, "closed stream of " + _device.getAddress());
+		if (callback != null) {
+			callback.onSuccess();
+		}
+	}
+
+	private void connect() {
+		final int connection = ++_connection;
+		setState(State.connecting);
+		_handler.postDelayed(_timeoutRunnable, Config.SAMPLE_CONNECT_TIMEOUT_MILLIS);
+		Log.d(TAG, "connecting stream of " + _device.getAddress());
+		_ble.connect(_device.getAddress(), new IStatusCallback() {
+			@Override
+			public void onSuccess() {
+				if (setState(connection, State.discovering, Config.SAMPLE_DISCOVER_TIMEOUT_MILLIS)) {
+					discover(connection);
+				}
+			}
+
+			@Override
+			public void onError(int error) {
+				reconnect(connection, error);
+			}
+		});
+	}
+
+	private void discover(final int connection) {
+		_ble.discoverServices(new IDiscoveryCallback() {
+			@Override
+			public void onDiscovery(String serviceUuid, String characteristicUuid) {
+
+			}
+
+			@Override
+			public void onSuccess() {
+				if (setState(connection, State.subscribing, Config.SAMPLE_READ_TIMEOUT_MILLIS)) {
+					subscribe(connection);
+				}
+			}
+
+			@Override
+			public void onError(int error) {
+				reconnect(connection, error);
+			}
+		});
+	}
+
+	private void subscribe(final int connection) {
+		_ble.subscribeTemperature(_temperatureCallback);
+		_ble.subscribeAlert(_alertCallback);
+		synchronized (this) {
+			if (connection != _connection || _state != State.subscribing) {
+				return;
+			}
+			_handler.removeCallbacks(_timeoutRunnable);
+			setState(State.streaming);
+			Log.i(TAG, "streaming " + _device.getAddress());
+			_reconnectDelay = Config.STREAM_RECONNECT_DELAY_MILLIS;
+			_lastNotificationTime = System.currentTimeMillis();
+			_handler.postDelayed(_watchdogRunnable, Config.STREAM_WATCHDOG_MILLIS);
+		}
+	}
+
+	/** Subscription callbacks are the same objects for every connection, so they can be unsubscribed */
+	private final IIntegerCallback _temperatureCallback = new IIntegerCallback() {
+		@Override
+		public void onSuccess(int result) {
+			if (_state != State.streaming) {
+				return;
+			}
+			onTemperature(result);
+		}
+
+		@Override
+		public void onError(int error) {
+			linkLost(error);
+		}
+	};
+
+	private final IAlertCallback _alertCallback = new IAlertCallback() {
+		@Override
+		public void onSuccess(BleAlertState result) {
+			if (_state != State.streaming) {
+				return;
+			}
+			_lastNotificationTime = System.currentTimeMillis();
+			Log.d(TAG, "Notified alerts of device " + _device.getAddress() + "(" + _device.getName() + ") = " + result);
+			BleAlertState oldAlertState = _device.getCurrentAlert();
+			_device.setCurrentAlert(result);
+			_resultListener.onAlert(_device, oldAlertState, result);
+		}
+
+		@Override
+		public void onError(int error) {
+			linkLost(error);
+		}
+	};
+
+	private void onTemperature(int temperature) {
+		_lastNotificationTime = System.currentTimeMillis();
+		Log.d(TAG, "Notified temperature of " + _device.getAddress() + "(" + _device.getName() + ") = " + temperature);
+		_device.setCurrentTemperature(temperature);
+		_resultListener.onTemperature(_device, temperature);
+	}
+
+	private void linkLost(int error) {
+		int connection;
+		synchronized (this) {
+			if (_state != State.streaming && _state != State.subscribing) {
+				return;
+			}
+			connection = _connection;
+		}
+		reconnect(connection, error);
+	}
+
+	/**
+	 * Checks that the connection is still there. A device that stays at the same temperature
+	 * doesn't notify, so when it has been silent for a while its temperature is read, which
+	 * also tells whether the link is still alive.
+	 */
+	private final Runnable _watchdogRunnable = new Runnable() {
+		@Override
+		public void run() {
+			final int connection;
+			synchronized (StreamingSession.this) {
+				if (_state != State.streaming) {
+					return;
+				}
+				connection = _connection;
+			}
+			if (_ble.getConnectionState() != BleDeviceConnectionState.connected) {
+				reconnect(connection, 0);
+				return;
+			}
+			if (System.currentTimeMillis() - _lastNotificationTime >= Config.STREAM_SILENCE_TIMEOUT_MILLIS) {
+				_ble.readTemperature(new IIntegerCallback() {
+					@Override
+					public void onSuccess(int result) {
+						synchronized (StreamingSession.this) {
+							if (connection != _connection || _state != State.streaming) {
+								return;
+							}
+						}
+						onTemperature(result);
+					}
+
+					@Override
+					public void onError(int error) {
+						reconnect(connection, error);
+					}
+				});
+			}
+			_handler.postDelayed(this, Config.STREAM_WATCHDOG_MILLIS);
+		}
+	};
+
+	private final Runnable _timeoutRunnable = new Runnable() {
+		@Override
+		public void run() {
+			int connection;
+			State state;
+			synchronized (StreamingSession.this) {
+				connection = _connection;
+				state = _state;
+			}
+			Log.w(TAG, "timeout while " + state + " " + _device.getAddress());
+			if (state == State.closing) {
+				closed(connection);
+			} else {
+				reconnect(connection, SamplingSession.ERROR_TIMEOUT);
+			}
+		}
+	};
+
+	private final Runnable _reconnectRunnable = new Runnable() {
+		@Override
+		public void run() {
+			synchronized (StreamingSession.this) {
+				if (_state == State.waiting) {
+					connect();
+				}
+			}
+		}
+	};
+
+	/**
+	 * Drop the connection and make it again after the reconnect delay, which doubles every
+	 * time up to Config.STREAM_MAX_RECONNECT_DELAY_MILLIS
+	 */
+	private synchronized void reconnect(int connection, int error) {
+		if (connection != _connection || _state == State.waiting || _state == State.closing || _state == State.closed) {
+			return;
+		}
+		Log.w(TAG, "lost stream of " + _device.getAddress() + " while " + _state + ", error: " + error +
+				", reconnect in " + _reconnectDelay + " ms");
+		_connection++;
+		_reconnects++;
+		_handler.removeCallbacks(_timeoutRunnable);
+		_handler.removeCallbacks(_watchdogRunnable);
+		_ble.unsubscribeTemperature(_temperatureCallback);
+		_ble.unsubscribeAlert(_alertCallback);
+		setState(State.waiting);
+		_ble.disconnectAndClose(false, new IStatusCallback() {
+			@Override
+			public void onSuccess() {
+
+			}
+
+			@Override
+			public void onError(int error) {
+
+			}
+		});
+		_handler.postDelayed(_reconnectRunnable, _reconnectDelay);
+		_reconnectDelay = Math.min(_reconnectDelay * 2, Config.STREAM_MAX_RECONNECT_DELAY_MILLIS);
+	}
+
+	private void setState(State state) {
+		Log.d(TAG, "[" + _device.getAddress() + "] " + _state + " -> " + state);
+		_state = state;
+	}
+
+	/**
+	 * Move to the next state with a new timeout, but only if the connection is still the current one
+	 */
+	private synchronized boolean setState(int connection, State state, long timeout) {
+		if (connection != _connection) {
+			return false;
+		}
+		_handler.removeCallbacks(_timeoutRunnable);
+		setState(state);
+		_handler.postDelayed(_timeoutRunnable, timeout);
+		return true;
+	}
+}
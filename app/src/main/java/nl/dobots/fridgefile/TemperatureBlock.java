@@ -0,0 +1,136 @@
+package nl.dobots.fridgefile;
+
+import java.io.ByteArrayOutputStream;
+
+/**
+ * Copyright (c) 2026 agent <agent@local>. All rights reserved.
+ * <p/>
+ * This code is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License version 3, as
+ * published by the Free Software Foundation.
+ * <p/>
+ * This code is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE.  See the GNU General Public License
+ * version 3 for more details (a copy is included in the LICENSE file that
+ * accompanied this code).
+ * <p/>
+ * Created on 17-10-26
+ *
+ * @author agent
+ */
+
+/**
+ * Packs the temperatures of one device into a single blob. The times are stored as the
+ * difference between consecutive deltas (delta of delta), which is 0 for a steady sample
+ * interval, and the temperatures as the difference to the previous one, which is mostly 0 or
+ * +-1. Both are zig-zag encoded as varints, so small values of either sign take a byte.
+ * All times come first, then all temperatures.
+ * The time of the first sample and the number of samples are not in the blob, they are kept
+ * next to it, with the time of the last sample and the minimum and maximum.
+ */
+public class TemperatureBlock {
+
+	// time of the first and last sample
+	public final long start;
+	public final long end;
+	public final int minimum;
+	public final int maximum;
+	// samples, ordered by time
+	public final long[] times;
+	public final int[] temperatures;
+
+	public TemperatureBlock(long[] times, int[] temperatures) {
+		this.times = times;
+		this.temperatures = temperatures;
+		start = times[0];
+		end = times[times.length - 1];
+		int minimum = Integer.MAX_VALUE;
+		int maximum = Integer.MIN_VALUE;
+		for (int temperature : temperatures) {
+			minimum = Math.min(minimum, temperature);
+			maximum = Math.max(maximum, temperature);
+		}
+		this.minimum = minimum;
+		this.maximum = maximum;
+	}
+
+	public int size() {
+		return times.length;
+	}
+
+	/**
+	 * @return the samples packed into a blob
+	 */
+	public byte[] encode() {
+		ByteArrayOutputStream out = new ByteArrayOutputStream(times.length * 2 + 8);
+		long previousDelta = 0;
+		for (int i = 1; i < times.length; i++) {
+			long delta = times[i] - times[i - 1];
+			writeVarint(out, zigZag(delta - previousDelta));
+			previousDelta = delta;
+		}
+		int previous = 0;
+		for (int temperature : temperatures) {
+			writeVarint(out, zigZag(temperature - previous));
+			previous = temperature;
+		}
+		return out.toByteArray();
+	}
+
+	/**
+	 * Unpack a blob made by encode
+	 *
+	 * @param data the blob
+	 * @param start time of the first sample
+	 * @param samples number of samples in the blob
+	 */
+	public static TemperatureBlock decode(byte[] data, long start, int samples) {
+		long[] times = new long[samples];
+		int[] temperatures = new int[samples];
+		int[] position = new int[1];
+		times[0] = start;
+		long delta = 0;
+		for (int i = 1; i < samples; i++) {
+			delta += unZigZag(readVarint(data, position));
+			times[i] = times[i - 1] + delta;
+		}
+		int temperature = 0;
+		for (int i = 0; i < samples; i++) {
+			temperature += (int) unZigZag(readVarint(data, position));
+			temperatures[i] = temperature;
+		}
+		return new TemperatureBlock(times, temperatures);
+	}
+
+	// maps signed to unsigned values, so small negative values stay small: 0, -1, 1, -2 -> 0, 1, 2, 3
+	private static long zigZag(long value) {
+		return (value << 1) ^ (value >> 63);
+	}
+
+	private static long unZigZag(long value) {
+		return (value >>> 1) ^ -(value & 1);
+	}
+
+	// 7 bits per byte, low bits first, the high bit is set on all but the last byte
+	private static void writeVarint(ByteArrayOutputStream out, long value) {
+		while ((value & ~0x7FL) != 0) {
+			out.write((int) ((value & 0x7F) | 0x80));
+			value >>>= 7;
+		}
+		out.write((int) value);
+	}
+
+	private static long readVarint(byte[] data, int[] position) {
+		long value = 0;
+		int shift = 0;
+		byte b;
+		do {
+			b = data[position[0]++];
+			value |= (long) (b & 0x7F) << shift;
+			shift += 7;
+		} while ((b & 0x80) != 0);
+		return value;
+	}
+
+}
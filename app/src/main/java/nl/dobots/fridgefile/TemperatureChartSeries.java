@@ -0,0 +1,279 @@
+package nl.dobots.fridgefile;
+
+import org.achartengine.model.TimeSeries;
+
+import java.util.AbstractMap;
+import java.util.AbstractSet;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+import java.util.Set;
+import java.util.SortedMap;
+
+/**
+ * Copyright (c) 2026 agent <agent@local>. All rights reserved.
+ * <p/>
+ * This code is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License version 3, as
+ * published by the Free Software Foundation.
+ * <p/>
+ * This code is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE.  See the GNU General Public License
+ * version 3 for more details (a copy is included in the LICENSE file that
+ * accompanied this code).
+ * <p/>
+ * Created on 18-10-26
+ *
+ * @author agent
+ */
+
+/**
+ * Series of the chart that reads the temperatures of a device straight from the arrays they
+ * are kept in, instead of holding a copy of every point: first the downsampled loaded
+ * temperatures, then the live ones that came in after them. Only the points of the range
+ * that is drawn are handed to the chart, one at a time.
+ */
+public class TemperatureChartSeries extends TimeSeries {
+
+	// downsampled loaded temperatures, filled by the owner, see getSampled
+	private final TemperatureSeries mSampled = new TemperatureSeries();
+	// latest temperatures, the ones from mLiveStart up to mLiveEnd are in the series
+	private final LiveSeries mLive;
+	private int mLiveStart;
+	private int mLiveEnd;
+
+	// bounds of the points, see update
+	private double mMinX;
+	private double mMaxX;
+	private double mMinY;
+	private double mMaxY;
+
+	public TemperatureChartSeries(String title, LiveSeries live) {
+		super(title);
+		mLive = live;
+		update(Long.MIN_VALUE, Long.MIN_VALUE, Long.MAX_VALUE);
+	}
+
+	/**
+	 * @return the series the downsampled temperatures are put in, call update after changing it
+	 */
+	public TemperatureSeries getSampled() {
+		return mSampled;
+	}
+
+	/**
+	 * Pick the live temperatures that are shown and find the bounds, after the sampled or the
+	 * live temperatures changed
+	 *
+	 * @param after live temperatures up to this time are in the sampled ones already
+	 * @param startTime start of the range live temperatures are shown in (inclusive)
+	 * @param endTime end of the range live temperatures are shown in (inclusive)
+	 */
+	public synchronized void update(long after, long startTime, long endTime) {
+		// the live temperatures are ordered by time, so the shown ones are in one piece
+		mLiveStart = 0;
+		while (mLiveStart < mLive.size() && (mLive.getTime(mLiveStart) <= after || mLive.getTime(mLiveStart) < startTime)) {
+			mLiveStart++;
+		}
+		mLiveEnd = mLiveStart;
+		while (mLiveEnd < mLive.size() && mLive.getTime(mLiveEnd) <= endTime) {
+			mLiveEnd++;
+		}
+
+		mMinX = Double.MAX_VALUE;
+		mMaxX = -Double.MAX_VALUE;
+		mMinY = Double.MAX_VALUE;
+		mMaxY = -Double.MAX_VALUE;
+		if (!mSampled.isEmpty()) {
+			mMinX = mSampled.getMinTime();
+			mMaxX = mSampled.getMaxTime();
+			mMinY = mSampled.getMinTemperature();
+			mMaxY = mSampled.getMaxTemperature();
+		}
+		for (int i = mLiveStart; i < mLiveEnd; i++) {
+			mMinX = Math.min(mMinX, mLive.getTime(i));
+			mMaxX = Math.max(mMaxX, mLive.getTime(i));
+			mMinY = Math.min(mMinY, mLive.getTemperature(i));
+			mMaxY = Math.max(mMaxY, mLive.getTemperature(i));
+		}
+	}
+
+	@Override
+	public synchronized int getItemCount() {
+		return mSampled.size() + mLiveEnd - mLiveStart;
+	}
+
+	@Override
+	public synchronized double getX(int index) {
+		if (index < mSampled.size()) {
+			return mSampled.getTime(index);
+		}
+		return mLive.getTime(mLiveStart + index - mSampled.size());
+	}
+
+	@Override
+	public synchronized double getY(int index) {
+		if (index < mSampled.size()) {
+			return mSampled.getTemperature(index);
+		}
+		return mLive.getTemperature(mLiveStart + index - mSampled.size());
+	}
+
+	@Override
+	public double getMinX() {
+		return mMinX;
+	}
+
+	@Override
+	public double getMaxX() {
+		return mMaxX;
+	}
+
+	@Override
+	public double getMinY() {
+		return mMinY;
+	}
+
+	@Override
+	public double getMaxY() {
+		return mMaxY;
+	}
+
+	@Override
+	public synchronized int getIndexForKey(double key) {
+		int index = ceilingIndex(key);
+		return index < getItemCount() && getX(index) == key ? index : -(index + 1);
+	}
+
+	@Override
+	public synchronized SortedMap<Double, Double> getRange(double start, double stop, boolean beforeAfterPoints) {
+		int from = ceilingIndex(start);
+		int to = higherIndex(stop);
+		if (beforeAfterPoints) {
+			from = Math.max(0, from - 1);
+			to = Math.min(getItemCount(), to + 1);
+		}
+		return new PointRange(from, to);
+	}
+
+	// index of the first point at or after x
+	private int ceilingIndex(double x) {
+		int low = 0;
+		int high = getItemCount();
+		while (low < high) {
+			int middle = (low + high) >>> 1;
+			if (getX(middle) < x) {
+				low = middle + 1;
+			} else {
+				high = middle;
+			}
+		}
+		return low;
+	}
+
+	// index of the first point after x
+	private int higherIndex(double x) {
+		int low = 0;
+		int high = getItemCount();
+		while (low < high) {
+			int middle = (low + high) >>> 1;
+			if (getX(middle) <= x) {
+				low = middle + 1;
+			} else {
+				high = middle;
+			}
+		}
+		return low;
+	}
+
+	// the points from index from up to to, as the map the chart reads them from. an entry is
+	// only made when the chart gets to it
+	private class PointRange extends AbstractMap<Double, Double> implements SortedMap<Double, Double> {
+		private final int mFrom;
+		private final int mTo;
+
+		PointRange(int from, int to) {
+			mFrom = from;
+			mTo = Math.max(from, to);
+		}
+
+		@Override
+		public int size() {
+			return mTo - mFrom;
+		}
+
+		@Override
+		public Set<Entry<Double, Double>> entrySet() {
+			return new AbstractSet<Entry<Double, Double>>() {
+				@Override
+				public Iterator<Entry<Double, Double>> iterator() {
+					return new Iterator<Entry<Double, Double>>() {
+						private int mIndex = mFrom;
+
+						@Override
+						public boolean hasNext() {
+							return mIndex < mTo;
+						}
+
+						@Override
+						public Entry<Double, Double> next() {
+							if (mIndex >= mTo) {
+								throw new NoSuchElementException();
+							}
+							Entry<Double, Double> entry = new SimpleImmutableEntry<>(getX(mIndex), getY(mIndex));
+							mIndex++;
+							return entry;
+						}
+
+						@Override
+						public void remove() {
+							throw new UnsupportedOperationException();
+						}
+					};
+				}
+
+				@Override
+				public int size() {
+					return mTo - mFrom;
+				}
+			};
+		}
+
+		@Override
+		public Comparator<? super Double> comparator() {
+			return null;
+		}
+
+		@Override
+		public SortedMap<Double, Double> subMap(Double fromKey, Double toKey) {
+			return new PointRange(Math.max(mFrom, ceilingIndex(fromKey)), Math.min(mTo, ceilingIndex(toKey)));
+		}
+
+		@Override
+		public SortedMap<Double, Double> headMap(Double toKey) {
+			return new PointRange(mFrom, Math.min(mTo, ceilingIndex(toKey)));
+		}
+
+		@Override
+		public SortedMap<Double, Double> tailMap(Double fromKey) {
+			return new PointRange(Math.max(mFrom, ceilingIndex(fromKey)), mTo);
+		}
+
+		@Override
+		public Double firstKey() {
+			if (mFrom == mTo) {
+				throw new NoSuchElementException();
+			}
+			return getX(mFrom);
+		}
+
+		@Override
+		public Double lastKey() {
+			if (mFrom == mTo) {
+				throw new NoSuchElementException();
+			}
+			return getX(mTo - 1);
+		}
+	}
+}
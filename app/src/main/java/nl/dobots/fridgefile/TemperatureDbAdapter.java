@@ -2,15 +2,22 @@ package nl.dobots.fridgefile;
 
 import android.content.ContentValues;
 import android.content.Context;
+import android.database.AbstractCursor;
 import android.database.Cursor;
+import android.database.DatabaseUtils;
 import android.database.SQLException;
 import android.database.sqlite.SQLiteDatabase;
-import android.database.sqlite.SQLiteOpenHelper;
+import android.database.sqlite.SQLiteStatement;
 import android.util.Log;
 
 import java.text.ParseException;
 import java.text.SimpleDateFormat;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
 import java.util.Date;
+import java.util.List;
+import java.util.TimeZone;
 
 /**
  * Copyright (c) 2015 Dominik Egger <dominik@dobots.nl>. All rights reserved.
@@ -38,27 +45,114 @@ public class TemperatureDbAdapter {
 
 	private static final String TAG = "TemperatureDbAdapter";
 
-	// database version, defines form of entries. increase if data changes
-	public static final int DATABASE_VERSION = 1;
-	// filename of the database
-	public static final String DATABASE_NAME = "temperature.db";
-
-	// key names of the database fields
+	// key names of the database fields. entries are returned with the columns date, device
+	// (the address) and temperature
 	public static final String KEY_DATETIME = "date";
 	public static final String KEY_DEVICE = "device";
 	public static final String KEY_TEMPERATURE = "temperature";
 	public static final String KEY_ROWID = "_id";
+	public static final String KEY_DEVICE_ID = "device_id";
+	public static final String KEY_ADDRESS = "address";
+	public static final String KEY_MINIMUM = "minimum";
+	public static final String KEY_MAXIMUM = "maximum";
+	public static final String KEY_TOTAL = "total";
+	public static final String KEY_SAMPLES = "samples";
+	public static final String KEY_LAST_DATETIME = "last_date";
+	public static final String KEY_DATA = "data";
 
 	// table name
 	public static final String TABLE_NAME = "temperature_log";
 
-	// database helper to manage database creation and version management.
-	private DatabaseHelper mDbHelper;
+	// table with the addresses of the devices, the entries refer to a device by its small
+	// integer id instead of repeating the address
+	public static final String TABLE_DEVICES = "devices";
+
+	// table with the older entries packed into blocks, see TemperatureBlock. a block is keyed
+	// by device and time of its first entry, and holds at most Config.TEMPERATURE_BLOCK_SIZE
+	// entries spanning at most Config.TEMPERATURE_BLOCK_MAX_SPAN_MILLIS
+	public static final String TABLE_BLOCKS = "temperature_block";
+
+	/**
+	 * Resolutions the temperatures can be fetched at. Next to the raw entries, the minimum,
+	 * maximum, sum and number of the temperatures of every device are kept per minute, hour
+	 * and day in rollup tables, updated with every write. Hours and days are those of the time
+	 * zone of the phone when the entry was written, so a day starts at local midnight and is
+	 * 23 or 25 hours long when daylight saving time starts or ends.
+	 */
+	public enum Resolution {
+		RAW(0, TABLE_NAME),
+		MINUTE(60 * 1000L, "temperature_minute"),
+		HOUR(3600 * 1000L, "temperature_hour"),
+		DAY(24 * 3600 * 1000L, "temperature_day");
+
+		// length of a bucket in ms, 0 for the raw entries. days can be an hour shorter or longer
+		public final long bucket;
+		public final String table;
+
+		Resolution(long bucket, String table) {
+			this.bucket = bucket;
+			this.table = table;
+		}
+
+		// start of the bucket the time falls in, in the given time zone
+		long getBucketStart(long time, TimeZone zone) {
+			if (this == MINUTE) {
+				return time - time % bucket;
+			}
+			int offset = zone.getOffset(time);
+			long local = time + offset;
+			long start = time - ((local % bucket) + bucket) % bucket;
+			if (this == DAY) {
+				// the offset at midnight differs on the days daylight saving time starts or ends
+				start += offset - zone.getOffset(start);
+			}
+			return start;
+		}
+
+		// start of the bucket after the one the time falls in
+		long getNextBucketStart(long time, TimeZone zone) {
+			return getBucketStart(getBucketStart(time, zone) + bucket * 3 / 2, zone);
+		}
+
+		// the start of the bucket of the entry in the given column, in sql, in the time zone
+		// of the phone
+		String getBucketStartSql(String column) {
+			if (this == MINUTE) {
+				return column + " - " + column + " % " + bucket;
+			}
+			String local = this == DAY ?
+					"strftime('%s', " + column + " / 1000, 'unixepoch', 'localtime', 'start of day', 'utc')" :
+					"strftime('%s', strftime('%Y-%m-%d %H:00:00', " + column + " / 1000, 'unixepoch', 'localtime'), 'utc')";
+			return local + " * 1000";
+		}
+	}
+
+	// rollup resolutions, from coarse to fine
+	private static final Resolution[] ROLLUPS = { Resolution.DAY, Resolution.HOUR, Resolution.MINUTE };
+
+	// index on device and time of version 2, which also holds the temperature. replaced by the
+	// primary key in version 3
+	private static final String INDEX_DEVICE_DATETIME = "temperature_log_device_date";
+
+	// database the tables are in
+	private final FridgeDatabase mDatabase;
+
+	// whether the database is of this adapter alone, and closed with it
+	private final boolean mOwnsDatabase;
 
 	// database object to read and write database
 	private SQLiteDatabase mDb;
 
-	// define query used to create the database
+	// statements compiled once when the database is opened, and used for every write. they
+	// are only used inside a transaction, so one write at a time binds them
+	private SQLiteStatement mInsertEntry;
+	private SQLiteStatement mReplaceEntry;
+	// per rollup, in the order of ROLLUPS
+	private SQLiteStatement[] mUpdateRollup;
+	private SQLiteStatement[] mInsertRollup;
+
+	// define query used to create the database, this is version 1, the migrations of
+	// FridgeDatabase bring it to the current version
 	public static final String DATABASE_CREATE =
 			"create table " + TABLE_NAME + " (" +
 					KEY_ROWID + " integer primary key autoincrement, " +
@@ -66,8 +160,17 @@ public class TemperatureDbAdapter {
 					KEY_DEVICE + " text not null," +
 					KEY_TEMPERATURE + " integer" + " )";
 
-	// application context
-	private final Context mContext;
+	// entries that are queued, but not written yet
+	private PendingEntries mPending = new PendingEntries();
+	// entries of the previous flush, emptied, swapped with mPending on the next flush
+	private PendingEntries mFlushed = new PendingEntries();
+	// only used while flushing, guarded by mFlushLock
+	private final RollupTable mRollups = new RollupTable();
+	private final Object mFlushLock = new Object();
+	// per device id, the end of the last block of the device. an entry before it can fall in
+	// a block, where the packed entry is kept. loaded on the first write after packing,
+	// guarded by mFlushLock
+	private long[] mPackedUntil;
 
 	// date formats to simplify entry access
 	private SimpleDateFormat sdf_date;
@@ -77,34 +180,359 @@ public class TemperatureDbAdapter {
 	/// Code
 	///////////////////////////////////////////////////////////////////////////////////////////
 
-	// helper class to manage database creation and version management, see SQLiteOpenHelper
-	private static class DatabaseHelper extends SQLiteOpenHelper {
+	// migrations of the temperature tables, in order of version, part of the migrations of
+	// FridgeDatabase
+	static final DbMigration[] MIGRATIONS = new DbMigration[] {
+			new DbMigration(2) {
+				@Override
+				public void migrate(SQLiteDatabase db) {
+					db.execSQL("create index if not exists " + INDEX_DEVICE_DATETIME + " on " + TABLE_NAME +
+							" (" + KEY_DEVICE + ", " + KEY_DATETIME + ", " + KEY_TEMPERATURE + ")");
+				}
+			},
+			new DbMigration(3) {
+				@Override
+				public void migrate(SQLiteDatabase db) {
+					db.execSQL("create table " + TABLE_DEVICES + " (" +
+							KEY_ROWID + " integer primary key, " +
+							KEY_ADDRESS + " text not null unique)");
+					db.execSQL("insert into " + TABLE_DEVICES + " (" + KEY_ADDRESS + ") " +
+							"select distinct " + KEY_DEVICE + " from " + TABLE_NAME);
+
+					db.execSQL(createEntriesTable(db, TABLE_NAME + "_v3"));
+					db.execSQL("insert or replace into " + TABLE_NAME + "_v3 " +
+							"(" + KEY_DEVICE_ID + ", " + KEY_DATETIME + ", " + KEY_TEMPERATURE + ") " +
+							"select d." + KEY_ROWID + ", t." + KEY_DATETIME + ", t." + KEY_TEMPERATURE +
+							" from " + TABLE_NAME + " t join " + TABLE_DEVICES + " d on d." + KEY_ADDRESS + " = t." + KEY_DEVICE);
+					// also drops the index of version 2, the primary key takes its place
+					db.execSQL("drop table " + TABLE_NAME);
+					db.execSQL("alter table " + TABLE_NAME + "_v3 rename to " + TABLE_NAME);
+				}
+			},
+			new DbMigration(4) {
+				@Override
+				public void migrate(SQLiteDatabase db) {
+					for (Resolution resolution : ROLLUPS) {
+						db.execSQL(createRollupTable(db, resolution.table));
+						db.execSQL("insert into " + resolution.table + " (" + KEY_DEVICE_ID + ", " + KEY_DATETIME + ", " +
+								KEY_MINIMUM + ", " + KEY_MAXIMUM + ", " + KEY_TOTAL + ", " + KEY_SAMPLES + ") " +
+								"select " + KEY_DEVICE_ID + ", " + resolution.getBucketStartSql(KEY_DATETIME) + " as bucket, " +
+								"min(" + KEY_TEMPERATURE + "), max(" + KEY_TEMPERATURE + "), sum(" + KEY_TEMPERATURE + "), count(*) " +
+								"from " + TABLE_NAME + " where " + KEY_TEMPERATURE + " is not null " +
+								"group by " + KEY_DEVICE_ID + ", bucket");
+					}
+				}
+			},
+			new DbMigration(5) {
+				@Override
+				public void migrate(SQLiteDatabase db) {
+					// a normal table, rows with a blob are too large to keep in the key b-tree
+					db.execSQL("create table " + TABLE_BLOCKS + " (" +
+							KEY_DEVICE_ID + " integer not null, " +
+							KEY_DATETIME + " integer not null, " +
+							KEY_LAST_DATETIME + " integer not null, " +
+							KEY_MINIMUM + " integer not null, " +
+							KEY_MAXIMUM + " integer not null, " +
+							KEY_SAMPLES + " integer not null, " +
+							KEY_DATA + " blob not null, " +
+							"primary key (" + KEY_DEVICE_ID + ", " + KEY_DATETIME + "))");
+				}
+			}
+	};
+
+	/**
+	 * The entries are keyed by device and time. Without rowid, the table is stored as the
+	 * primary key b-tree itself, so there is no separate rowid and index to keep. That needs
+	 * SQLite 3.8.2 (Android 5.0), older versions get a normal table with the same key.
+	 */
+	private static String createEntriesTable(SQLiteDatabase db, String tableName) {
+		String create = "create table " + tableName + " (" +
+				KEY_DEVICE_ID + " integer not null, " +
+				KEY_DATETIME + " integer not null, " +
+				KEY_TEMPERATURE + " integer, " +
+				"primary key (" + KEY_DEVICE_ID + ", " + KEY_DATETIME + "))";
+		if (supportsWithoutRowid(db)) {
+			create += " without rowid";
+		} else {
+			Log.w(TAG, "SQLite " + getSqliteVersion(db) + " doesn't support tables without rowid");
+		}
+		return create;
+	}
+
+	/**
+	 * Rollups are keyed by device and start of the bucket, like the entries
+	 */
+	private static String createRollupTable(SQLiteDatabase db, String tableName) {
+		String create = "create table " + tableName + " (" +
+				KEY_DEVICE_ID + " integer not null, " +
+				KEY_DATETIME + " integer not null, " +
+				KEY_MINIMUM + " integer not null, " +
+				KEY_MAXIMUM + " integer not null, " +
+				KEY_TOTAL + " integer not null, " +
+				KEY_SAMPLES + " integer not null, " +
+				"primary key (" + KEY_DEVICE_ID + ", " + KEY_DATETIME + "))";
+		if (supportsWithoutRowid(db)) {
+			create += " without rowid";
+		}
+		return create;
+	}
+
+	private static String getSqliteVersion(SQLiteDatabase db) {
+		return DatabaseUtils.stringForQuery(db, "select sqlite_version()", null);
+	}
+
+	private static boolean supportsWithoutRowid(SQLiteDatabase db) {
+		String[] version = getSqliteVersion(db).split("\\.");
+		int major = Integer.parseInt(version[0]);
+		int minor = version.length > 1 ? Integer.parseInt(version[1]) : 0;
+		int patch = version.length > 2 ? Integer.parseInt(version[2]) : 0;
+		return major > 3 || (major == 3 && (minor > 8 || (minor == 8 && patch >= 2)));
+	}
+
+	// temperatures per device and bucket of a rollup, that a batch adds to. kept in an open
+	// addressing table of arrays, so adding an entry doesn't allocate. reused for every flush
+	private static class RollupTable {
+		int[] deviceIds = new int[64];
+		long[] times = new long[64];
+		int[] minimums = new int[64];
+		int[] maximums = new int[64];
+		long[] totals = new long[64];
+		int[] samples = new int[64];
+		// index + 1 of the bucket in the arrays, 0 for a free slot
+		int[] slots = new int[128];
+		int size;
+
+		// empties the table, making room for the given number of buckets
+		void clear(int capacity) {
+			if (capacity > deviceIds.length) {
+				deviceIds = new int[capacity];
+				times = new long[capacity];
+				minimums = new int[capacity];
+				maximums = new int[capacity];
+				totals = new long[capacity];
+				samples = new int[capacity];
+			}
+			if (capacity * 2 > slots.length) {
+				slots = new int[Integer.highestOneBit(capacity * 2 - 1) << 1];
+			} else {
+				Arrays.fill(slots, 0);
+			}
+			size = 0;
+		}
+
+		void add(int deviceId, long time, int temperature) {
+			int mask = slots.length - 1;
+			long hash = (time ^ (time >>> 32)) * 31 + deviceId;
+			int slot = (int) (hash ^ (hash >>> 16)) & mask;
+			while (slots[slot] != 0) {
+				int index = slots[slot] - 1;
+				if (deviceIds[index] == deviceId && times[index] == time) {
+					minimums[index] = Math.min(minimums[index], temperature);
+					maximums[index] = Math.max(maximums[index], temperature);
+					totals[index] += temperature;
+					samples[index]++;
+					return;
+				}
+				slot = (slot + 1) & mask;
+			}
+			deviceIds[size] = deviceId;
+			times[size] = time;
+			minimums[size] = temperature;
+			maximums[size] = temperature;
+			totals[size] = temperature;
+			samples[size] = 1;
+			slots[slot] = ++size;
+		}
+	}
+
+	// entries of one device, ordered by time, one per time
+	private static class Samples {
+		long[] times = new long[64];
+		int[] temperatures = new int[64];
+		int size;
+		boolean ordered = true;
+
+		void add(long time, int temperature) {
+			if (size == times.length) {
+				times = Arrays.copyOf(times, size * 2);
+				temperatures = Arrays.copyOf(temperatures, size * 2);
+			}
+			if (size > 0 && time <= times[size - 1]) {
+				ordered = false;
+			}
+			times[size] = time;
+			temperatures[size] = temperature;
+			size++;
+		}
+
+		// entries written after the ones around them were packed end up out of order, and an
+		// entry that was written again after it was packed is there twice. the sort is stable,
+		// so of those the one that was added first is kept, like mergeBlock does with the packed one
+		void sort() {
+			if (ordered) {
+				return;
+			}
+			Integer[] order = new Integer[size];
+			for (int i = 0; i < size; i++) {
+				order[i] = i;
+			}
+			Arrays.sort(order, new Comparator<Integer>() {
+				@Override
+				public int compare(Integer lhs, Integer rhs) {
+					long diff = times[lhs] - times[rhs];
+					return diff < 0 ? -1 : (diff > 0 ? 1 : 0);
+				}
+			});
+			long[] sortedTimes = new long[size];
+			int[] sortedTemperatures = new int[size];
+			int sorted = 0;
+			for (int i = 0; i < size; i++) {
+				long time = times[order[i]];
+				if (sorted > 0 && sortedTimes[sorted - 1] == time) {
+					continue;
+				}
+				sortedTimes[sorted] = time;
+				sortedTemperatures[sorted] = temperatures[order[i]];
+				sorted++;
+			}
+			times = sortedTimes;
+			temperatures = sortedTemperatures;
+			size = sorted;
+			ordered = true;
+		}
+	}
+
+	// cursor over the entries of one device, that reads straight from the arrays of the samples
+	// instead of keeping a row of objects per entry. the date column has the time, the device
+	// column the address, and all other columns the temperature
+	private static class SamplesCursor extends AbstractCursor {
+		private final String[] mColumns;
+		private final String mAddress;
+		private final Samples mSamples;
+		private final int mDateColumn;
+		private final int mDeviceColumn;
+
+		SamplesCursor(String[] columns, String address, Samples samples) {
+			mColumns = columns;
+			mAddress = address;
+			mSamples = samples;
+			mDateColumn = Arrays.asList(columns).indexOf(KEY_DATETIME);
+			mDeviceColumn = Arrays.asList(columns).indexOf(KEY_DEVICE);
+		}
+
+		@Override
+		public int getCount() {
+			return mSamples.size;
+		}
+
+		@Override
+		public String[] getColumnNames() {
+			return mColumns;
+		}
+
+		@Override
+		public int getType(int column) {
+			return column == mDeviceColumn ? FIELD_TYPE_STRING : FIELD_TYPE_INTEGER;
+		}
+
+		@Override
+		public String getString(int column) {
+			if (column == mDeviceColumn) {
+				return mAddress;
+			}
+			return String.valueOf(getLong(column));
+		}
+
+		@Override
+		public long getLong(int column) {
+			checkPosition();
+			if (column == mDateColumn) {
+				return mSamples.times[mPos];
+			}
+			if (column == mDeviceColumn) {
+				throw new NumberFormatException("device column holds the address");
+			}
+			return mSamples.temperatures[mPos];
+		}
 
-		// default constructor
-		DatabaseHelper(Context context) {
-			super(context, DATABASE_NAME, null, DATABASE_VERSION);
+		@Override
+		public short getShort(int column) {
+			return (short) getLong(column);
 		}
 
-		// called when database should be created
 		@Override
-		public void onCreate(SQLiteDatabase db) {
-			db.execSQL(DATABASE_CREATE);
+		public int getInt(int column) {
+			return (int) getLong(column);
 		}
 
-		// called if version changed and database needs to be upgraded
 		@Override
-		public void onUpgrade(SQLiteDatabase db, int oldVersion, int newVersion) {
-			Log.w(TAG, "Upgrading database from version " + oldVersion + " to " +
-					newVersion + ", which will destroy all old data");
-			db.execSQL("DROP TABLE IF EXISTS notes");
-			onCreate(db);
+		public float getFloat(int column) {
+			return getLong(column);
+		}
+
+		@Override
+		public double getDouble(int column) {
+			return getLong(column);
+		}
+
+		@Override
+		public boolean isNull(int column) {
+			return false;
+		}
+	}
+
+	// entries that are waiting to be written in a batch, in arrays, so queueing an entry
+	// doesn't allocate once they have grown to the size of a batch. the device ids are only
+	// looked up when flushing, so queueing never touches the database
+	private static class PendingEntries {
+		String[] addresses = new String[64];
+		int[] deviceIds = new int[64];
+		long[] times = new long[64];
+		short[] temperatures = new short[64];
+		// set by the flush, whether the buckets of the entry have to be rebuilt
+		boolean[] rebuild = new boolean[64];
+		int size;
+
+		void add(String address, long time, int temperature) {
+			if (size == times.length) {
+				addresses = Arrays.copyOf(addresses, size * 2);
+				deviceIds = Arrays.copyOf(deviceIds, size * 2);
+				times = Arrays.copyOf(times, size * 2);
+				temperatures = Arrays.copyOf(temperatures, size * 2);
+				rebuild = Arrays.copyOf(rebuild, size * 2);
+			}
+			addresses[size] = address;
+			times[size] = time;
+			temperatures[size] = (short) temperature;
+			size++;
+		}
+
+		void addAll(PendingEntries entries) {
+			for (int i = 0; i < entries.size; i++) {
+				add(entries.addresses[i], entries.times[i], entries.temperatures[i]);
+			}
 		}
 
+		void clear() {
+			// don't keep the addresses of removed devices around
+			Arrays.fill(addresses, 0, size, null);
+			size = 0;
+		}
 	}
 
-	// default constructor, assigns context and initializes date formats
+	// default constructor, uses the database of the app and initializes date formats
 	public TemperatureDbAdapter(Context context) {
-		mContext = context;
+		this(FridgeDatabase.getInstance(context), false);
+	}
+
+	// constructor for a database with another filename, e.g. a scratch database for benchmarks
+	public TemperatureDbAdapter(Context context, String databaseName) {
+		this(new FridgeDatabase(context, databaseName), true);
+	}
+
+	private TemperatureDbAdapter(FridgeDatabase database, boolean ownsDatabase) {
+		mDatabase = database;
+		mOwnsDatabase = ownsDatabase;
 
 		sdf_date = new SimpleDateFormat("yyyy/MM/dd");
 		sdf_time = new SimpleDateFormat("yyyy/MM/dd-HH:mm");
@@ -120,75 +548,350 @@ public class TemperatureDbAdapter {
 	 * @throws SQLException if the database could be neither opened or created
 	 */
 	public TemperatureDbAdapter open() throws SQLException {
-		mDbHelper = new DatabaseHelper(mContext);
-		mDb = mDbHelper.getWritableDatabase();
+		mDb = mDatabase.getDatabase();
+		compileStatements();
 		return this;
 	}
 
+	private void compileStatements() {
+		mInsertEntry = mDb.compileStatement("insert or ignore into " + TABLE_NAME + " (" +
+				KEY_DEVICE_ID + ", " + KEY_DATETIME + ", " + KEY_TEMPERATURE + ") values (?, ?, ?)");
+		mReplaceEntry = mDb.compileStatement("insert or replace into " + TABLE_NAME + " (" +
+				KEY_DEVICE_ID + ", " + KEY_DATETIME + ", " + KEY_TEMPERATURE + ") values (?, ?, ?)");
+		mUpdateRollup = new SQLiteStatement[ROLLUPS.length];
+		mInsertRollup = new SQLiteStatement[ROLLUPS.length];
+		for (int i = 0; i < ROLLUPS.length; i++) {
+			mUpdateRollup[i] = mDb.compileStatement("update " + ROLLUPS[i].table + " set " +
+					KEY_MINIMUM + " = min(" + KEY_MINIMUM + ", ?), " +
+					KEY_MAXIMUM + " = max(" + KEY_MAXIMUM + ", ?), " +
+					KEY_TOTAL + " = " + KEY_TOTAL + " + ?, " +
+					KEY_SAMPLES + " = " + KEY_SAMPLES + " + ? " +
+					"where " + KEY_DEVICE_ID + " = ? and " + KEY_DATETIME + " = ?");
+			mInsertRollup[i] = mDb.compileStatement("insert into " + ROLLUPS[i].table + " (" +
+					KEY_MINIMUM + ", " + KEY_MAXIMUM + ", " + KEY_TOTAL + ", " + KEY_SAMPLES + ", " +
+					KEY_DEVICE_ID + ", " + KEY_DATETIME + ") values (?, ?, ?, ?, ?, ?)");
+		}
+	}
+
 	/**
-	 * Close the database
+	 * Close the adapter, the database is only closed if it isn't the one of the app
 	 */
 	public void close() {
-		mDbHelper.close();
+		mInsertEntry.close();
+		mReplaceEntry.close();
+		for (int i = 0; i < ROLLUPS.length; i++) {
+			mUpdateRollup[i].close();
+			mInsertRollup[i].close();
+		}
+		if (mOwnsDatabase) {
+			mDatabase.close();
+		}
 	}
 
 	/**
-	 * Create a new entry using the date and temperature provided. If the entry is
-	 * successfully created return the new rowId for that entry, otherwise return
-	 * a -1 to indicate failure.
+	 * Get the id of a device
+	 *
+	 * @param address the address of the device
+	 * @param create add the device if it isn't known yet
+	 * @return the id, or -1 if the device isn't known and create is false
+	 */
+	public long getDeviceId(String address, boolean create) {
+		return mDatabase.getDeviceId(address, create);
+	}
+
+	/**
+	 * Create a new entry using the date and temperature provided. An entry of the
+	 * same device at the same time is replaced. Since version 3 the entries have no row id,
+	 * so unlike before this doesn't return one.
 	 *
 	 * @param date the date of the entry
 	 * @param temperature the temperature for the entry
-	 * @return rowId or -1 if failed
+	 * @return true if created successfully, false otherwise
 	 */
-	public long createEntry(String deviceAddress, Date date, int temperature) {
-		ContentValues values = new ContentValues();
+	public boolean createEntry(String deviceAddress, Date date, int temperature) {
+		// written like a flush of a single entry, so the rollups are kept the same way
+		PendingEntries entries = new PendingEntries();
+		entries.add(deviceAddress, date.getTime(), temperature);
+		synchronized (mFlushLock) {
+			try {
+				entries.deviceIds[0] = (int) getDeviceId(deviceAddress, true);
+				mDb.beginTransaction();
+				try {
+					writeEntries(entries);
+					mDb.setTransactionSuccessful();
+				} finally {
+					mDb.endTransaction();
+				}
+			} catch (SQLException e) {
+				Log.e(TAG, "failed to write entry", e);
+				return false;
+			}
+		}
+		return true;
+	}
 
-		values.put(KEY_DATETIME, date.getTime());
-		values.put(KEY_DEVICE, deviceAddress);
-		values.put(KEY_TEMPERATURE, temperature);
+	/**
+	 * Queue a new entry, it is written with the other queued entries on the next flush.
+	 * Writing many entries in one transaction is a lot cheaper than one transaction per entry.
+	 * Queueing doesn't touch the database, so it can be done on any thread; a device is only
+	 * added to the database by the flush.
+	 *
+	 * @param deviceAddress the address of the device
+	 * @param time the time of the entry, in ms since the epoch
+	 * @param temperature the temperature for the entry
+	 * @return number of entries waiting to be written
+	 */
+	public synchronized int queueEntry(String deviceAddress, long time, int temperature) {
+		mPending.add(deviceAddress, time, temperature);
+		return mPending.size;
+	}
 
-		return mDb.insert(TABLE_NAME, null, values);
+	/**
+	 * @return number of entries waiting to be written
+	 */
+	public synchronized int getPendingCount() {
+		return mPending.size;
 	}
 
 	/**
-	 * Update existing entry. Return true if entry was updated
-	 * successfully
+	 * Write all queued entries in a single transaction. If writing fails, the entries are
+	 * queued again.
 	 *
-	 * @param id the row id of the entry to be updated
-	 * @param date the date of the entry
-	 * @param temperature the temperature for the entry
-	 * @return true if updated successfully, false otherwise
+	 * @return number of entries written
 	 */
-	public boolean updateEntry(long id, Date date, String deviceAddress, int temperature) {
-		ContentValues values = new ContentValues();
+	public int flush() {
+		synchronized (mFlushLock) {
+			PendingEntries entries;
+			synchronized (this) {
+				if (mPending.size == 0) {
+					return 0;
+				}
+				entries = mPending;
+				mPending = mFlushed;
+			}
+
+			int written = entries.size;
+			try {
+				// before the transaction, adding a device takes the lock of the database
+				for (int i = 0; i < entries.size; i++) {
+					entries.deviceIds[i] = (int) getDeviceId(entries.addresses[i], true);
+				}
+				mDb.beginTransaction();
+				try {
+					writeEntries(entries);
+					mDb.setTransactionSuccessful();
+				} finally {
+					mDb.endTransaction();
+				}
+			} catch (SQLException e) {
+				Log.e(TAG, "failed to write " + entries.size + " entries", e);
+				written = 0;
+				synchronized (this) {
+					// the failed entries go before the ones queued in the meantime
+					entries.addAll(mPending);
+					PendingEntries queued = mPending;
+					mPending = entries;
+					entries = queued;
+				}
+			}
+			entries.clear();
+			mFlushed = entries;
+			return written;
+		}
+	}
+
+	/**
+	 * Write the entries and add them to the rollups, has to be called in a transaction and
+	 * with mFlushLock held. Adding an entry that replaces one of the same device and time, or
+	 * that falls in a block where the packed entry is kept, would leave the old temperature
+	 * in the rollups, so the buckets of those entries are rebuilt from the entries instead.
+	 */
+	private void writeEntries(PendingEntries entries) {
+		if (mPackedUntil == null) {
+			loadPackedUntil();
+		}
+		int rebuilds = 0;
+		for (int i = 0; i < entries.size; i++) {
+			int deviceId = entries.deviceIds[i];
+			long time = entries.times[i];
+			boolean added = insertEntry(deviceId, time, entries.temperatures[i]);
+			if (!added) {
+				replaceEntry(deviceId, time, entries.temperatures[i]);
+			}
+			entries.rebuild[i] = !added || (deviceId < mPackedUntil.length && time <= mPackedUntil[deviceId]);
+			if (entries.rebuild[i]) {
+				rebuilds++;
+			}
+		}
 
-		values.put(KEY_DATETIME, date.getTime());
-		values.put(KEY_DEVICE, deviceAddress);
-		values.put(KEY_TEMPERATURE, temperature);
+		TimeZone zone = TimeZone.getDefault();
+		for (int r = 0; r < ROLLUPS.length; r++) {
+			Resolution resolution = ROLLUPS[r];
+			// one update per bucket, however many entries fall in it
+			mRollups.clear(entries.size);
+			for (int i = 0; i < entries.size; i++) {
+				if (!entries.rebuild[i]) {
+					mRollups.add(entries.deviceIds[i], resolution.getBucketStart(entries.times[i], zone),
+							entries.temperatures[i]);
+				}
+			}
+			for (int i = 0; i < mRollups.size; i++) {
+				writeRollup(r, mRollups.deviceIds[i], mRollups.times[i], mRollups.minimums[i], mRollups.maximums[i],
+						mRollups.totals[i], mRollups.samples[i]);
+			}
+			if (rebuilds == 0) {
+				continue;
+			}
+			// after the adds, since a rebuilt bucket has all entries in it. once per bucket
+			mRollups.clear(rebuilds);
+			for (int i = 0; i < entries.size; i++) {
+				if (entries.rebuild[i]) {
+					mRollups.add(entries.deviceIds[i], resolution.getBucketStart(entries.times[i], zone), 0);
+				}
+			}
+			for (int i = 0; i < mRollups.size; i++) {
+				rebuildRollup(r, mRollups.deviceIds[i], mRollups.times[i], zone);
+			}
+		}
+	}
+
+	// adds an entry, returns false if there already is one of the same device and time.
+	// has to be called in a transaction
+	private boolean insertEntry(long deviceId, long time, int temperature) {
+		mInsertEntry.bindLong(1, deviceId);
+		mInsertEntry.bindLong(2, time);
+		mInsertEntry.bindLong(3, temperature);
+		return mInsertEntry.executeUpdateDelete() > 0;
+	}
 
-		int num = mDb.update(TABLE_NAME, values, "_id "+"="+ id, null);
-		return num == 1;
+	// replaces an entry of the same device and time, has to be called in a transaction
+	private void replaceEntry(long deviceId, long time, int temperature) {
+		mReplaceEntry.bindLong(1, deviceId);
+		mReplaceEntry.bindLong(2, time);
+		mReplaceEntry.bindLong(3, temperature);
+		mReplaceEntry.executeInsert();
+	}
+
+	// computes a bucket of the rollup at the given index of ROLLUPS again from the entries in
+	// it, packed or not. has to be called in a transaction
+	private void rebuildRollup(int rollup, long deviceId, long time, TimeZone zone) {
+		Resolution resolution = ROLLUPS[rollup];
+		Samples samples = fetchSamples(deviceId, time, resolution.getNextBucketStart(time, zone) - 1);
+		mDb.delete(resolution.table, KEY_DEVICE_ID + "=? AND " + KEY_DATETIME + "=?",
+				new String[] { String.valueOf(deviceId), String.valueOf(time) });
+		if (samples.size == 0) {
+			return;
+		}
+		int minimum = Integer.MAX_VALUE;
+		int maximum = Integer.MIN_VALUE;
+		long total = 0;
+		for (int i = 0; i < samples.size; i++) {
+			minimum = Math.min(minimum, samples.temperatures[i]);
+			maximum = Math.max(maximum, samples.temperatures[i]);
+			total += samples.temperatures[i];
+		}
+		writeRollup(rollup, deviceId, time, minimum, maximum, total, samples.size);
+	}
+
+	// reads the end of the last block of every device
+	private void loadPackedUntil() {
+		long[] packedUntil = new long[0];
+		Cursor cursor = mDb.rawQuery("select " + KEY_DEVICE_ID + ", max(" + KEY_LAST_DATETIME + ") from " +
+				TABLE_BLOCKS + " group by " + KEY_DEVICE_ID, null);
+		try {
+			while (cursor.moveToNext()) {
+				int deviceId = cursor.getInt(0);
+				if (deviceId >= packedUntil.length) {
+					int length = packedUntil.length;
+					packedUntil = Arrays.copyOf(packedUntil, Math.max(deviceId + 1, length * 2));
+					Arrays.fill(packedUntil, length, packedUntil.length, Long.MIN_VALUE);
+				}
+				packedUntil[deviceId] = cursor.getLong(1);
+			}
+		} finally {
+			cursor.close();
+		}
+		mPackedUntil = packedUntil;
+	}
+
+	// adds temperatures to a bucket of the rollup at the given index of ROLLUPS, creating the
+	// bucket if it isn't there yet. has to be called in a transaction
+	private void writeRollup(int rollup, long deviceId, long time, int minimum, int maximum, long total, int samples) {
+		SQLiteStatement update = mUpdateRollup[rollup];
+		bindRollup(update, deviceId, time, minimum, maximum, total, samples);
+		if (update.executeUpdateDelete() == 0) {
+			SQLiteStatement insert = mInsertRollup[rollup];
+			bindRollup(insert, deviceId, time, minimum, maximum, total, samples);
+			insert.executeInsert();
+		}
+	}
+
+	// both statements take the same arguments in the same order
+	private void bindRollup(SQLiteStatement statement, long deviceId, long time, int minimum, int maximum, long total,
+							int samples) {
+		statement.bindLong(1, minimum);
+		statement.bindLong(2, maximum);
+		statement.bindLong(3, total);
+		statement.bindLong(4, samples);
+		statement.bindLong(5, deviceId);
+		statement.bindLong(6, time);
 	}
 
 	/**
-	 * Delete the entry with the given rowId
+	 * Get the coarsest resolution that still gives at least one point per pixel
 	 *
-	 * @param rowId id of note to delete
-	 * @return true if deleted, false otherwise
+	 * @param startTime start of the range (inclusive)
+	 * @param endTime end of the range (inclusive)
+	 * @param width number of pixels the range is drawn on
+	 * @return the resolution, RAW if even the minutes would give too few points
 	 */
-	public boolean deleteEntry(long rowId) {
-		return mDb.delete(TABLE_NAME, KEY_ROWID + "=" + rowId, null) > 0;
+	public static Resolution getResolution(long startTime, long endTime, int width) {
+		long span = endTime - startTime;
+		for (Resolution resolution : ROLLUPS) {
+			if (span / resolution.bucket >= width) {
+				return resolution;
+			}
+		}
+		return Resolution.RAW;
 	}
 
 	/**
-	 * Fetch all entries in the database
+	 * Fetch the history of a device for a chart, at the coarsest resolution that still fills
+	 * the width. The cursor has the columns date (start of the bucket), temperature (the
+	 * average), minimum and maximum, ordered by date. For the raw resolution, minimum and
+	 * maximum are the temperature itself.
 	 *
+	 * @param address the address of the device
+	 * @param startTime start of the range (inclusive)
+	 * @param endTime end of the range (inclusive)
+	 * @param width number of pixels the range is drawn on
 	 * @return cursor to access the entries
 	 */
-	public Cursor fetchAllEntries() {
-		Cursor mCursor = mDb.query(TABLE_NAME, new String[] {KEY_DATETIME, KEY_DEVICE, KEY_TEMPERATURE},
-				null, null, null, null, null);
+	public Cursor fetchHistory(String address, Date startTime, Date endTime, int width) {
+		Resolution resolution = getResolution(startTime.getTime(), endTime.getTime(), width);
+		return fetchHistory(address, startTime, endTime, resolution);
+	}
+
+	/**
+	 * Fetch the history of a device at the given resolution, see fetchHistory
+	 */
+	public Cursor fetchHistory(String address, Date startTime, Date endTime, Resolution resolution) {
+		long start = startTime.getTime();
+		if (resolution == Resolution.RAW) {
+			Samples samples = fetchSamples(getDeviceId(address, false), start, endTime.getTime());
+			Cursor cursor = new SamplesCursor(new String[] { KEY_DATETIME, KEY_TEMPERATURE, KEY_MINIMUM, KEY_MAXIMUM },
+					address, samples);
+			cursor.moveToFirst();
+			return cursor;
+		}
+		String columns = KEY_DATETIME + ", " + "cast(" + KEY_TOTAL + " as real) / " + KEY_SAMPLES + " as " + KEY_TEMPERATURE +
+				", " + KEY_MINIMUM + ", " + KEY_MAXIMUM;
+		// include the bucket the start falls in
+		start = resolution.getBucketStart(start, TimeZone.getDefault());
+		String[] args = new String[] { String.valueOf(getDeviceId(address, false)), String.valueOf(start),
+				String.valueOf(endTime.getTime()) };
+		Cursor mCursor = mDb.rawQuery("select " + columns + " from " + resolution.table + " where " +
+				KEY_DEVICE_ID + "=? AND " + KEY_DATETIME + " between ? and ? order by " + KEY_DATETIME, args);
 		if (mCursor != null) {
 			mCursor.moveToFirst();
 		}
@@ -196,20 +899,387 @@ public class TemperatureDbAdapter {
 	}
 
 	/**
-	 * Fetch entry defined by row id
+	 * Fetch the history of a device into a series, at the coarsest resolution that still fills
+	 * the width, see fetchHistory. Of a bucket of a rollup, the minimum is put at the start and
+	 * the maximum halfway, so the series keeps the extremes instead of the average.
 	 *
-	 * @param rowId the id of the entry which should be returned
-	 * @return cursor to access the entry
+	 * @param address the address of the device
+	 * @param startTime start of the range (inclusive)
+	 * @param endTime end of the range (inclusive)
+	 * @param width number of pixels the range is drawn on
+	 * @param series the series to fill, its entries are replaced
+	 * @return the series
 	 */
-	public Cursor fetchEntry(long rowId) {
-		Cursor mCursor = mDb.query(TABLE_NAME, new String[] {KEY_DATETIME, KEY_DEVICE, KEY_TEMPERATURE},
-				KEY_ROWID + "=" + rowId, null, null, null, null);
-		if (mCursor != null) {
-			mCursor.moveToFirst();
+	public TemperatureSeries fetchHistorySeries(String address, long startTime, long endTime, int width,
+												TemperatureSeries series) {
+		Resolution resolution = getResolution(startTime, endTime, width);
+		if (resolution == Resolution.RAW) {
+			return fetchSeries(address, startTime, endTime, series);
+		}
+		series.clear();
+		Cursor cursor = fetchHistory(address, new Date(startTime), new Date(endTime), resolution);
+		try {
+			int timeColumn = cursor.getColumnIndexOrThrow(KEY_DATETIME);
+			int minimumColumn = cursor.getColumnIndexOrThrow(KEY_MINIMUM);
+			int maximumColumn = cursor.getColumnIndexOrThrow(KEY_MAXIMUM);
+			for (boolean row = cursor.moveToFirst(); row; row = cursor.moveToNext()) {
+				long time = cursor.getLong(timeColumn);
+				int minimum = cursor.getInt(minimumColumn);
+				int maximum = cursor.getInt(maximumColumn);
+				series.add(time, minimum);
+				if (maximum != minimum) {
+					series.add(time + resolution.bucket / 2, maximum);
+				}
+			}
+		} finally {
+			cursor.close();
 		}
+		return series;
+	}
+
+	/**
+	 * Delete the oldest entries before the given time, of all devices together at most about
+	 * limit, in one transaction. Meant to be called repeatedly, so writers get their turn
+	 * in between.
+	 *
+	 * @param resolution the raw entries or one of the rollups
+	 * @param before entries older than this are deleted
+	 * @param limit maximum number of entries to delete
+	 * @return number of entries deleted
+	 */
+	public int deleteEntriesBefore(Resolution resolution, long before, int limit) {
+		List<Long> deviceIds = getDeviceIds();
+
+		int deleted = 0;
+		mDb.beginTransaction();
+		try {
+			for (long deviceId : deviceIds) {
+				if (deleted >= limit) {
+					break;
+				}
+				// the time of the last entry that still fits in the limit bounds the delete,
+				// when there are fewer entries, all of them before the time are deleted
+				String device = String.valueOf(deviceId);
+				String[] args = new String[] { device, String.valueOf(before), device, String.valueOf(before),
+						String.valueOf(before) };
+				deleted += mDb.delete(resolution.table, KEY_DEVICE_ID + "=? AND " + KEY_DATETIME + " < ? AND " +
+						KEY_DATETIME + " <= coalesce((select " + KEY_DATETIME + " from " + resolution.table +
+						" where " + KEY_DEVICE_ID + "=? AND " + KEY_DATETIME + " < ? order by " + KEY_DATETIME +
+						" limit 1 offset " + (limit - deleted - 1) + "), ?)", args);
+			}
+			mDb.setTransactionSuccessful();
+		} finally {
+			mDb.endTransaction();
+		}
+		return deleted;
+	}
+
+	/**
+	 * Delete blocks of which all entries are older than the given time, at most limit
+	 * blocks in one go
+	 *
+	 * @return number of blocks deleted
+	 */
+	public int deleteBlocksBefore(long before, int limit) {
+		return mDb.delete(TABLE_BLOCKS, "rowid in (select rowid from " + TABLE_BLOCKS + " where " +
+				KEY_LAST_DATETIME + " < ? limit " + limit + ")", new String[] { String.valueOf(before) });
+	}
+
+	/**
+	 * Pack the oldest entries before the given time into blocks, in one transaction. Only
+	 * full blocks are made, unless the entries are older than a block may span, so entries
+	 * of a device that stopped reporting get packed as well. Entries without a temperature
+	 * are dropped. Entries written after the block around them was packed are merged into it.
+	 *
+	 * @param before only entries older than this are packed
+	 * @param limit maximum number of blocks to make
+	 * @return number of blocks made
+	 */
+	public int packEntries(long before, int limit) {
+		List<Long> deviceIds = getDeviceIds();
+		int blocks = 0;
+		// the flush has to see the new blocks, see writeEntries
+		synchronized (mFlushLock) {
+			mDb.beginTransaction();
+			try {
+				for (long deviceId : deviceIds) {
+					while (blocks < limit && packBlock(deviceId, before)) {
+						blocks++;
+					}
+				}
+				mDb.setTransactionSuccessful();
+			} finally {
+				mDb.endTransaction();
+				// read again on the next write
+				mPackedUntil = null;
+			}
+		}
+		return blocks;
+	}
+
+	// pack the oldest entries of the device into a block, returns false if there aren't enough yet.
+	// an entry written after the block around it was packed is merged into that block instead,
+	// so blocks never overlap
+	private boolean packBlock(long deviceId, long before) {
+		String device = String.valueOf(deviceId);
+		long first;
+		Cursor cursor = mDb.rawQuery("select " + KEY_DATETIME + " from " + TABLE_NAME + " where " + KEY_DEVICE_ID +
+				"=? AND " + KEY_DATETIME + " < ? AND " + KEY_TEMPERATURE + " is not null order by " + KEY_DATETIME +
+				" limit 1", new String[] { device, String.valueOf(before) });
+		try {
+			if (!cursor.moveToFirst()) {
+				return false;
+			}
+			first = cursor.getLong(0);
+		} finally {
+			cursor.close();
+		}
+
+		cursor = mDb.query(TABLE_BLOCKS, new String[] { KEY_DATETIME, KEY_SAMPLES, KEY_DATA },
+				KEY_DEVICE_ID + "=? AND " + KEY_DATETIME + " <= ? AND " + KEY_LAST_DATETIME + " >= ?",
+				new String[] { device, String.valueOf(first), String.valueOf(first) }, null, null, null);
+		try {
+			if (cursor.moveToFirst()) {
+				mergeBlock(deviceId, TemperatureBlock.decode(cursor.getBlob(2), cursor.getLong(0), cursor.getInt(1)));
+				return true;
+			}
+		} finally {
+			cursor.close();
+		}
+
+		// a block made of late entries in between two blocks has to end before the next one
+		long next = DatabaseUtils.longForQuery(mDb, "select ifnull(min(" + KEY_DATETIME + "), " + Long.MAX_VALUE +
+				") from " + TABLE_BLOCKS + " where " + KEY_DEVICE_ID + "=? AND " + KEY_DATETIME + " > ?",
+				new String[] { device, String.valueOf(first) });
+		long[] times = new long[Config.TEMPERATURE_BLOCK_SIZE];
+		int[] temperatures = new int[Config.TEMPERATURE_BLOCK_SIZE];
+		int size = 0;
+		boolean full = next <= before;
+		cursor = mDb.rawQuery("select " + KEY_DATETIME + ", " + KEY_TEMPERATURE + " from " + TABLE_NAME +
+				" where " + KEY_DEVICE_ID + "=? AND " + KEY_DATETIME + " < ? AND " + KEY_TEMPERATURE + " is not null" +
+				" order by " + KEY_DATETIME + " limit " + Config.TEMPERATURE_BLOCK_SIZE,
+				new String[] { device, String.valueOf(Math.min(before, next)) });
+		try {
+			while (cursor.moveToNext()) {
+				long time = cursor.getLong(0);
+				if (size > 0 && time - times[0] > Config.TEMPERATURE_BLOCK_MAX_SPAN_MILLIS) {
+					full = true;
+					break;
+				}
+				times[size] = time;
+				temperatures[size] = cursor.getInt(1);
+				size++;
+			}
+		} finally {
+			cursor.close();
+		}
+		full |= size == Config.TEMPERATURE_BLOCK_SIZE;
+		if (!full && times[0] >= before - Config.TEMPERATURE_BLOCK_MAX_SPAN_MILLIS) {
+			return false;
+		}
+
+		TemperatureBlock block = new TemperatureBlock(Arrays.copyOf(times, size), Arrays.copyOf(temperatures, size));
+		ContentValues values = new ContentValues();
+		values.put(KEY_DEVICE_ID, deviceId);
+		values.put(KEY_DATETIME, block.start);
+		values.put(KEY_LAST_DATETIME, block.end);
+		values.put(KEY_MINIMUM, block.minimum);
+		values.put(KEY_MAXIMUM, block.maximum);
+		values.put(KEY_SAMPLES, block.size());
+		values.put(KEY_DATA, block.encode());
+		mDb.insertOrThrow(TABLE_BLOCKS, null, values);
+		// also removes the entries without temperature in between
+		mDb.delete(TABLE_NAME, KEY_DEVICE_ID + "=? AND " + KEY_DATETIME + " <= ?",
+				new String[] { device, String.valueOf(block.end) });
+		return true;
+	}
+
+	// merge the entries that were written after the block was packed into it. the block keeps
+	// its start and end, so it doesn't grow into the blocks next to it. of an entry that was
+	// written again after it was packed, the packed one is kept
+	private void mergeBlock(long deviceId, TemperatureBlock block) {
+		String device = String.valueOf(deviceId);
+		String[] args = new String[] { device, String.valueOf(block.start), String.valueOf(block.end) };
+		Samples merged = new Samples();
+		int i = 0;
+		Cursor cursor = mDb.rawQuery("select " + KEY_DATETIME + ", " + KEY_TEMPERATURE + " from " + TABLE_NAME +
+				" where " + KEY_DEVICE_ID + "=? AND " + KEY_DATETIME + " between ? and ? AND " +
+				KEY_TEMPERATURE + " is not null order by " + KEY_DATETIME, args);
+		try {
+			while (cursor.moveToNext()) {
+				long time = cursor.getLong(0);
+				while (i < block.size() && block.times[i] <= time) {
+					merged.add(block.times[i], block.temperatures[i]);
+					i++;
+				}
+				if (merged.size == 0 || merged.times[merged.size - 1] != time) {
+					merged.add(time, cursor.getInt(1));
+				}
+			}
+		} finally {
+			cursor.close();
+		}
+		for (; i < block.size(); i++) {
+			merged.add(block.times[i], block.temperatures[i]);
+		}
+
+		TemperatureBlock mergedBlock = new TemperatureBlock(Arrays.copyOf(merged.times, merged.size),
+				Arrays.copyOf(merged.temperatures, merged.size));
+		ContentValues values = new ContentValues();
+		values.put(KEY_MINIMUM, mergedBlock.minimum);
+		values.put(KEY_MAXIMUM, mergedBlock.maximum);
+		values.put(KEY_SAMPLES, mergedBlock.size());
+		values.put(KEY_DATA, mergedBlock.encode());
+		mDb.update(TABLE_BLOCKS, values, KEY_DEVICE_ID + "=? AND " + KEY_DATETIME + "=?",
+				new String[] { device, String.valueOf(block.start) });
+		mDb.delete(TABLE_NAME, KEY_DEVICE_ID + "=? AND " + KEY_DATETIME + " between ? and ?", args);
+	}
+
+	private List<Long> getDeviceIds() {
+		List<Long> deviceIds = new ArrayList<>();
+		Cursor cursor = mDb.query(TABLE_DEVICES, new String[] {KEY_ROWID}, null, null, null, null, null);
+		try {
+			while (cursor.moveToNext()) {
+				deviceIds.add(cursor.getLong(0));
+			}
+		} finally {
+			cursor.close();
+		}
+		return deviceIds;
+	}
+
+	/**
+	 * Get the entries of a device from the blocks and the entries that aren't packed yet.
+	 * An entry that is in both is only returned once, see Samples.sort
+	 *
+	 * @param startTime start of the range (inclusive)
+	 * @param endTime end of the range (inclusive)
+	 */
+	private Samples fetchSamples(long deviceId, long startTime, long endTime) {
+		Samples samples = new Samples();
+		String device = String.valueOf(deviceId);
+
+		// a block that overlaps the range starts at most the maximum span before it, which
+		// bounds the part of the key that is searched
+		Cursor cursor = mDb.query(TABLE_BLOCKS, new String[] { KEY_DATETIME, KEY_SAMPLES, KEY_DATA },
+				KEY_DEVICE_ID + "=? AND " + KEY_DATETIME + " between ? and ? AND " + KEY_LAST_DATETIME + " >= ?",
+				new String[] { device, String.valueOf(startTime - Config.TEMPERATURE_BLOCK_MAX_SPAN_MILLIS),
+						String.valueOf(endTime), String.valueOf(startTime) }, null, null, KEY_DATETIME);
+		try {
+			while (cursor.moveToNext()) {
+				TemperatureBlock block = TemperatureBlock.decode(cursor.getBlob(2), cursor.getLong(0), cursor.getInt(1));
+				for (int i = 0; i < block.size(); i++) {
+					if (block.times[i] >= startTime && block.times[i] <= endTime) {
+						samples.add(block.times[i], block.temperatures[i]);
+					}
+				}
+			}
+		} finally {
+			cursor.close();
+		}
+
+		cursor = mDb.rawQuery("select " + KEY_DATETIME + ", " + KEY_TEMPERATURE + " from " + TABLE_NAME +
+				" where " + KEY_DEVICE_ID + "=? AND " + KEY_DATETIME + " between ? and ? AND " +
+				KEY_TEMPERATURE + " is not null order by " + KEY_DATETIME,
+				new String[] { device, String.valueOf(startTime), String.valueOf(endTime) });
+		try {
+			while (cursor.moveToNext()) {
+				samples.add(cursor.getLong(0), cursor.getInt(1));
+			}
+		} finally {
+			cursor.close();
+		}
+		samples.sort();
+		return samples;
+	}
+
+	/**
+	 * @return size of the database file in bytes
+	 */
+	public long getDatabaseSize() {
+		return DatabaseUtils.longForQuery(mDb, "pragma page_count", null) * DatabaseUtils.longForQuery(mDb, "pragma page_size", null);
+	}
+
+	/**
+	 * @return number of bytes in free pages, which incremental vacuum can give back
+	 */
+	public long getFreeSize() {
+		return DatabaseUtils.longForQuery(mDb, "pragma freelist_count", null) * DatabaseUtils.longForQuery(mDb, "pragma page_size", null);
+	}
+
+	/**
+	 * @return true if free pages can be given back with incrementalVacuum. Databases that were
+	 * too big to switch when they were opened keep their free pages for new entries
+	 */
+	public boolean isIncrementalVacuum() {
+		return FridgeDatabase.isIncrementalVacuum(mDb);
+	}
+
+	/**
+	 * Give at most the given number of free pages back to the file system, does nothing
+	 * unless isIncrementalVacuum
+	 */
+	public void incrementalVacuum(int pages) {
+		// the pragma returns a row per page it frees, the cursor has to be stepped through
+		Cursor cursor = mDb.rawQuery("pragma incremental_vacuum(" + pages + ")", null);
+		try {
+			while (cursor.moveToNext()) {
+				// vacuuming
+			}
+		} finally {
+			cursor.close();
+		}
+	}
+
+	/**
+	 * Fetch the entries of a device, ordered by time. The address is put in the device
+	 * column, so the entries have the same columns as before they were packed.
+	 *
+	 * @param address the address of the device
+	 * @param startTime start of the range (inclusive)
+	 * @param endTime end of the range (inclusive)
+	 * @return cursor to access the entries
+	 */
+	private Cursor fetchEntries(String address, long startTime, long endTime) {
+		Samples samples = fetchSamples(getDeviceId(address, false), startTime, endTime);
+		Cursor mCursor = new SamplesCursor(new String[] { KEY_DATETIME, KEY_DEVICE, KEY_TEMPERATURE }, address, samples);
+		mCursor.moveToFirst();
 		return mCursor;
 	}
 
+	/**
+	 * Fetch the entries of a device into a series, without a cursor in between, so no object
+	 * is made per entry
+	 *
+	 * @param address the address of the device
+	 * @param startTime start of the range (inclusive)
+	 * @param endTime end of the range (inclusive)
+	 * @param series the series to fill, its entries are replaced
+	 * @return the series
+	 */
+	public TemperatureSeries fetchSeries(String address, long startTime, long endTime, TemperatureSeries series) {
+		Samples samples = fetchSamples(getDeviceId(address, false), startTime, endTime);
+		series.clear();
+		for (int i = 0; i < samples.size; i++) {
+			series.add(samples.times[i], samples.temperatures[i]);
+		}
+		return series;
+	}
+
+	/**
+	 * Fetch the entries of a device for given date into a series, see fetchEntriesForDate
+	 *
+	 * @param series the series to fill, its entries are replaced
+	 * @return the series
+	 */
+	public TemperatureSeries fetchSeriesForDate(String address, Date date, TemperatureSeries series) {
+
+		Date startDate = new Date(date.getYear(), date.getMonth(), date.getDate(), 0, 0);
+		Date endDate = new Date(date.getYear(), date.getMonth(), date.getDate(), 23, 59);
+
+		return fetchSeries(address, startDate.getTime(), endDate.getTime(), series);
+	}
+
 	/**
 	 * Fetch entries for given date
 	 *
@@ -262,13 +1332,7 @@ public class TemperatureDbAdapter {
 	 * @throws ParseException if a wrong date string is provided
 	 */
 	public Cursor fetchEntriesForDateRange(String address, Date startDate, Date endDate) {
-		String[] args = new String[] { address, String.valueOf(startDate.getTime()), String.valueOf(endDate.getTime()) };
-		Cursor mCursor = mDb.query(TABLE_NAME, new String[] {KEY_DATETIME, KEY_DEVICE, KEY_TEMPERATURE},
-				KEY_DEVICE + "=? AND " + KEY_DATETIME + " between ? and ?", args, null, null, null);
-		if (mCursor != null) {
-			mCursor.moveToFirst();
-		}
-		return mCursor;
+		return fetchEntries(address, startDate.getTime(), endDate.getTime());
 	}
 
 	/** Fetch entries with given time stamp
@@ -289,13 +1353,7 @@ public class TemperatureDbAdapter {
 	 * @return cursor to access the entries
 	 */
 	public Cursor fetchEntriesForTime(String address, Date time) {
-		String[] args = new String[] { address, String.valueOf(time.getTime()) };
-		Cursor mCursor = mDb.query(TABLE_NAME, new String[] {KEY_DATETIME, KEY_DEVICE, KEY_TEMPERATURE},
-				KEY_DEVICE + "=? AND " + KEY_DATETIME + "=?", null, null, null, null);
-		if (mCursor != null) {
-			mCursor.moveToFirst();
-		}
-		return mCursor;
+		return fetchEntries(address, time.getTime(), time.getTime());
 	}
 
 	/**
@@ -321,13 +1379,7 @@ public class TemperatureDbAdapter {
 	 * @throws ParseException if a wrong time string is provided
 	 */
 	public Cursor fetchEntriesForTimeRange(String address, Date startTime, Date endTime) {
-		String[] args = new String[] { address, String.valueOf(startTime.getTime()), String.valueOf(endTime.getTime()) };
-		Cursor mCursor = mDb.query(TABLE_NAME, new String[] {KEY_DATETIME, KEY_DEVICE, KEY_TEMPERATURE},
-				KEY_DEVICE + "=? AND " + KEY_DATETIME + "between ? and ?", args, null, null, null);
-		if (mCursor != null) {
-			mCursor.moveToFirst();
-		}
-		return mCursor;
+		return fetchEntries(address, startTime.getTime(), endTime.getTime());
 	}
 
 
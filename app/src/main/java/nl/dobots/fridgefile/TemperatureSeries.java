@@ -0,0 +1,196 @@
+package nl.dobots.fridgefile;
+
+import android.database.Cursor;
+
+import java.util.Arrays;
+
+/**
+ * Copyright (c) 2026 agent <agent@local>. All rights reserved.
+ * <p/>
+ * This code is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License version 3, as
+ * published by the Free Software Foundation.
+ * <p/>
+ * This code is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE.  See the GNU General Public License
+ * version 3 for more details (a copy is included in the LICENSE file that
+ * accompanied this code).
+ * <p/>
+ * Created on 17-10-26
+ *
+ * @author agent
+ */
+
+/**
+ * The temperatures of one device, as a column of times and a column of temperatures, with
+ * the bounds of both. Meant to be filled again and again: clear keeps the arrays, so loading
+ * the same range twice allocates nothing, and no object is made per sample.
+ */
+public class TemperatureSeries {
+
+	private long[] mTimes;
+	private short[] mTemperatures;
+	private int mSize;
+
+	// bounds of the samples, only valid if the series isn't empty
+	private long mMinTime;
+	private long mMaxTime;
+	private int mMinTemperature;
+	private int mMaxTemperature;
+
+	public TemperatureSeries() {
+		this(256);
+	}
+
+	public TemperatureSeries(int capacity) {
+		mTimes = new long[Math.max(1, capacity)];
+		mTemperatures = new short[mTimes.length];
+		clear();
+	}
+
+	// removes all samples, keeps the arrays
+	public void clear() {
+		mSize = 0;
+		mMinTime = Long.MAX_VALUE;
+		mMaxTime = Long.MIN_VALUE;
+		mMinTemperature = Integer.MAX_VALUE;
+		mMaxTemperature = Integer.MIN_VALUE;
+	}
+
+	public void add(long time, int temperature) {
+		if (mSize == mTimes.length) {
+			mTimes = Arrays.copyOf(mTimes, mSize * 2);
+			mTemperatures = Arrays.copyOf(mTemperatures, mSize * 2);
+		}
+		mTimes[mSize] = time;
+		mTemperatures[mSize] = (short) temperature;
+		mSize++;
+		if (time < mMinTime) {
+			mMinTime = time;
+		}
+		if (time > mMaxTime) {
+			mMaxTime = time;
+		}
+		if (temperature < mMinTemperature) {
+			mMinTemperature = temperature;
+		}
+		if (temperature > mMaxTemperature) {
+			mMaxTemperature = temperature;
+		}
+	}
+
+	/**
+	 * Replace the samples by all rows of a cursor with the columns KEY_DATETIME and
+	 * KEY_TEMPERATURE, e.g. one of TemperatureDbAdapter.fetchEntriesForDate. The cursor
+	 * isn't closed.
+	 *
+	 * @return the number of samples read
+	 */
+	public int read(Cursor cursor) {
+		clear();
+		// look the columns up once, not for every row
+		int timeColumn = cursor.getColumnIndexOrThrow(TemperatureDbAdapter.KEY_DATETIME);
+		int temperatureColumn = cursor.getColumnIndexOrThrow(TemperatureDbAdapter.KEY_TEMPERATURE);
+		for (boolean row = cursor.moveToFirst(); row; row = cursor.moveToNext()) {
+			add(cursor.getLong(timeColumn), cursor.getInt(temperatureColumn));
+		}
+		return mSize;
+	}
+
+	/**
+	 * Reduce the samples between two times to at most two per bucket, the lowest and the
+	 * highest, in the order they were taken. With buckets about a pixel wide, a line through
+	 * them covers the same pixels as one through all samples, so peaks are never lost. The
+	 * samples just outside the range are kept as well, so the line runs on to the edges.
+	 * The samples have to be ordered by time.
+	 *
+	 * @param buckets number of buckets the range is divided into
+	 * @param into the series to fill, its samples are replaced
+	 * @return into
+	 */
+	public TemperatureSeries downsample(long startTime, long endTime, int buckets, TemperatureSeries into) {
+		into.clear();
+		int first = Math.max(0, indexOf(startTime) - 1);
+		int last = Math.min(mSize - 1, indexOf(endTime));
+		if (last - first + 1 <= 2 * buckets + 2) {
+			for (int i = first; i <= last; i++) {
+				into.add(mTimes[i], mTemperatures[i]);
+			}
+			return into;
+		}
+		double bucketWidth = (double) (endTime - startTime) / buckets;
+		into.add(mTimes[first], mTemperatures[first]);
+		int i = first + 1;
+		while (i < last) {
+			long bucket = (long) ((mTimes[i] - startTime) / bucketWidth);
+			int min = i;
+			int max = i;
+			int j = i + 1;
+			for (; j < last && (long) ((mTimes[j] - startTime) / bucketWidth) == bucket; j++) {
+				if (mTemperatures[j] < mTemperatures[min]) {
+					min = j;
+				}
+				if (mTemperatures[j] > mTemperatures[max]) {
+					max = j;
+				}
+			}
+			int a = Math.min(min, max);
+			int b = Math.max(min, max);
+			into.add(mTimes[a], mTemperatures[a]);
+			if (b != a) {
+				into.add(mTimes[b], mTemperatures[b]);
+			}
+			i = j;
+		}
+		into.add(mTimes[last], mTemperatures[last]);
+		return into;
+	}
+
+	// index of the first sample at or after the time, the size if there is none
+	private int indexOf(long time) {
+		int low = 0;
+		int high = mSize;
+		while (low < high) {
+			int middle = (low + high) >>> 1;
+			if (mTimes[middle] < time) {
+				low = middle + 1;
+			} else {
+				high = middle;
+			}
+		}
+		return low;
+	}
+
+	public int size() {
+		return mSize;
+	}
+
+	public boolean isEmpty() {
+		return mSize == 0;
+	}
+
+	public long getTime(int index) {
+		return mTimes[index];
+	}
+
+	public int getTemperature(int index) {
+		return mTemperatures[index];
+	}
+
+	public long getMinTime() {
+		return mMinTime;
+	}
+
+	public long getMaxTime() {
+		return mMaxTime;
+	}
+
+	public int getMinTemperature() {
+		return mMinTemperature;
+	}
+
+	public int getMaxTemperature() {
+		return mMaxTemperature;
+	}
+}
@@ -0,0 +1,98 @@
+package nl.dobots.fridgefile;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Copyright (c) 2026 agent <agent@local>. All rights reserved.
+ * <p/>
+ * This code is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License version 3, as
+ * published by the Free Software Foundation.
+ * <p/>
+ * This code is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE.  See the GNU General Public License
+ * version 3 for more details (a copy is included in the LICENSE file that
+ * accompanied this code).
+ * <p/>
+ * Created on 17-10-26
+ *
+ * @author agent
+ */
+public class CircuitBreakerTest {
+
+	private CircuitBreaker _breaker;
+
+	@Before
+	public void setUp() {
+		_breaker = new CircuitBreaker();
+	}
+
+	private void failUntilOpen(long now) {
+		for (int i = 0; i < Config.CIRCUIT_BREAKER_FAILURE_THRESHOLD - 1; i++) {
+			assertFalse(_breaker.onFailure(now));
+		}
+		assertTrue(_breaker.onFailure(now));
+	}
+
+	@Test
+	public void staysClosedBelowThreshold() {
+		for (int i = 0; i < Config.CIRCUIT_BREAKER_FAILURE_THRESHOLD - 1; i++) {
+			assertFalse(_breaker.onFailure(1000));
+			assertEquals(CircuitBreaker.State.closed, _breaker.getState());
+			assertTrue(_breaker.allowAttempt(1000));
+		}
+	}
+
+	@Test
+	public void opensAtThreshold() {
+		failUntilOpen(1000);
+		assertEquals(CircuitBreaker.State.open, _breaker.getState());
+		assertEquals(1000 + Config.CIRCUIT_BREAKER_OPEN_MILLIS, _breaker.getOpenUntil());
+		assertFalse(_breaker.allowAttempt(1000));
+		assertFalse(_breaker.allowAttempt(_breaker.getOpenUntil() - 1));
+		assertEquals(CircuitBreaker.State.open, _breaker.getState());
+	}
+
+	@Test
+	public void halfOpenAfterOpenTime() {
+		failUntilOpen(1000);
+		assertTrue(_breaker.allowAttempt(_breaker.getOpenUntil()));
+		assertEquals(CircuitBreaker.State.halfOpen, _breaker.getState());
+	}
+
+	@Test
+	public void successCloses() {
+		failUntilOpen(1000);
+		_breaker.allowAttempt(_breaker.getOpenUntil());
+		_breaker.onSuccess();
+		assertEquals(CircuitBreaker.State.closed, _breaker.getState());
+		assertEquals(0, _breaker.getFailures());
+		// needs the full threshold to open again
+		failUntilOpen(2000);
+		assertEquals(2000 + Config.CIRCUIT_BREAKER_OPEN_MILLIS, _breaker.getOpenUntil());
+	}
+
+	@Test
+	public void failedProbeDoublesOpenTimeUpToMax() {
+		long now = 1000;
+		failUntilOpen(now);
+		long duration = Config.CIRCUIT_BREAKER_OPEN_MILLIS;
+		while (duration < Config.CIRCUIT_BREAKER_MAX_OPEN_MILLIS) {
+			now = _breaker.getOpenUntil();
+			assertTrue(_breaker.allowAttempt(now));
+			assertTrue(_breaker.onFailure(now));
+			duration = Math.min(duration * 2, Config.CIRCUIT_BREAKER_MAX_OPEN_MILLIS);
+			assertEquals(now + duration, _breaker.getOpenUntil());
+		}
+		now = _breaker.getOpenUntil();
+		_breaker.allowAttempt(now);
+		_breaker.onFailure(now);
+		assertEquals(now + Config.CIRCUIT_BREAKER_MAX_OPEN_MILLIS, _breaker.getOpenUntil());
+	}
+}
@@ -0,0 +1,99 @@
+package nl.dobots.fridgefile;
+
+import android.database.sqlite.SQLiteDatabase;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.fail;
+
+/**
+ * Copyright (c) 2026 agent <agent@local>. All rights reserved.
+ * <p/>
+ * This code is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License version 3, as
+ * published by the Free Software Foundation.
+ * <p/>
+ * This code is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE.  See the GNU General Public License
+ * version 3 for more details (a copy is included in the LICENSE file that
+ * accompanied this code).
+ * <p/>
+ * Created on 18-10-26
+ *
+ * @author agent
+ */
+public class DbMigrationTest {
+
+	// versions migrated to, in order
+	private final List<Integer> mMigrated = new ArrayList<>();
+
+	@Before
+	public void setUp() {
+		mMigrated.clear();
+	}
+
+	private DbMigration[] migrations(int... versions) {
+		DbMigration[] migrations = new DbMigration[versions.length];
+		for (int i = 0; i < versions.length; i++) {
+			migrations[i] = new DbMigration(versions[i]) {
+				@Override
+				public void migrate(SQLiteDatabase db) {
+					mMigrated.add(getVersion());
+				}
+			};
+		}
+		return migrations;
+	}
+
+	private void assertGap(int oldVersion, int newVersion, int... versions) {
+		try {
+			DbMigration.migrate(null, oldVersion, newVersion, migrations(versions));
+			fail("gap not detected");
+		} catch (IllegalStateException e) {
+			// expected
+		}
+	}
+
+	@Test
+	public void migratesInOrder() {
+		DbMigration.migrate(null, 1, 4, migrations(2, 3, 4));
+		assertEquals(Arrays.asList(2, 3, 4), mMigrated);
+	}
+
+	@Test
+	public void migratesOnlyFromOldToNewVersion() {
+		DbMigration.migrate(null, 2, 3, migrations(2, 3, 4));
+		assertEquals(Arrays.asList(3), mMigrated);
+	}
+
+	@Test
+	public void sameVersionMigratesNothing() {
+		DbMigration.migrate(null, 4, 4, migrations(2, 3, 4));
+		assertEquals(0, mMigrated.size());
+	}
+
+	@Test
+	public void detectsGapAtStart() {
+		assertGap(1, 4, 3, 4);
+		assertEquals(0, mMigrated.size());
+	}
+
+	@Test
+	public void detectsGapInBetween() {
+		assertGap(1, 4, 2, 4);
+		// stops before skipping a version
+		assertEquals(Arrays.asList(2), mMigrated);
+	}
+
+	@Test
+	public void detectsMissingLastMigration() {
+		assertGap(1, 4, 2, 3);
+	}
+}
@@ -0,0 +1,71 @@
+package nl.dobots.fridgefile;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Copyright (c) 2026 agent <agent@local>. All rights reserved.
+ * <p/>
+ * This code is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License version 3, as
+ * published by the Free Software Foundation.
+ * <p/>
+ * This code is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE.  See the GNU General Public License
+ * version 3 for more details (a copy is included in the LICENSE file that
+ * accompanied this code).
+ * <p/>
+ * Created on 18-10-26
+ *
+ * @author agent
+ */
+public class LiveSeriesTest {
+
+	@Test
+	public void fillsUpToCapacity() {
+		LiveSeries series = new LiveSeries(3);
+		assertFalse(series.add(1000, 1));
+		assertFalse(series.add(2000, 2));
+		assertFalse(series.isFull());
+		assertFalse(series.add(3000, 3));
+		assertTrue(series.isFull());
+		assertEquals(3, series.size());
+		assertEquals(3, series.capacity());
+		assertEquals(1000, series.getTime(0));
+		assertEquals(3000, series.getTime(2));
+	}
+
+	@Test
+	public void evictsOldest() {
+		LiveSeries series = new LiveSeries(3);
+		for (int i = 0; i < 3; i++) {
+			series.add(i * 1000, i);
+		}
+		// wraps around a few times
+		for (int i = 3; i < 10; i++) {
+			assertTrue(series.add(i * 1000, -i));
+			assertEquals(3, series.size());
+			// oldest first
+			assertEquals((i - 2) * 1000, series.getTime(0));
+			assertEquals(i * 1000, series.getTime(2));
+			assertEquals(-i, series.getTemperature(2));
+		}
+	}
+
+	@Test
+	public void clearStartsOver() {
+		LiveSeries series = new LiveSeries(2);
+		series.add(1000, 1);
+		series.add(2000, 2);
+		series.add(3000, 3);
+		series.clear();
+		assertEquals(0, series.size());
+		assertFalse(series.add(4000, 4));
+		assertEquals(4000, series.getTime(0));
+		assertEquals(4, series.getTemperature(0));
+	}
+}
@@ -0,0 +1,115 @@
+package nl.dobots.fridgefile;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.Arrays;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+
+/**
+ * Copyright (c) 2026 agent <agent@local>. All rights reserved.
+ * <p/>
+ * This code is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License version 3, as
+ * published by the Free Software Foundation.
+ * <p/>
+ * This code is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE.  See the GNU General Public License
+ * version 3 for more details (a copy is included in the LICENSE file that
+ * accompanied this code).
+ * <p/>
+ * Created on 17-10-26
+ *
+ * @author agent
+ */
+public class SampleSchedulerTest {
+
+	private SampleScheduler _scheduler;
+	private StoredBleDevice _device;
+	private StoredBleDevice _other;
+
+	@Before
+	public void setUp() {
+		_scheduler = new SampleScheduler();
+		_device = new StoredBleDevice("00:00:00:00:00:01", "fridge 1", 2, 8);
+		_other = new StoredBleDevice("00:00:00:00:00:02", "fridge 2", 2, 8);
+	}
+
+	/**
+	 * @return time at which the breaker opened
+	 */
+	private long failUntilOpen(long now) {
+		for (int i = 0; i < Config.CIRCUIT_BREAKER_FAILURE_THRESHOLD; i++) {
+			now = _scheduler.getNextDueTime();
+			assertSame(_device, _scheduler.pollDue(now));
+			_scheduler.failed(_device, now);
+		}
+		return now;
+	}
+
+	@Test
+	public void newDeviceIsDueRightAway() {
+		_scheduler.update(Arrays.asList(_device), 1000);
+		assertEquals(1000, _scheduler.getNextDueTime());
+		assertSame(_device, _scheduler.pollDue(1000));
+		// in flight until it's rescheduled
+		assertNull(_scheduler.pollDue(1000));
+		assertEquals(Long.MAX_VALUE, _scheduler.getNextDueTime());
+	}
+
+	@Test
+	public void sampledDeviceIsRescheduled() {
+		_device.setCurrentTemperature(5);
+		_scheduler.update(Arrays.asList(_device), 1000);
+		_scheduler.pollDue(1000);
+		_scheduler.sampled(_device, 1000);
+		assertNull(_scheduler.pollDue(1000));
+		assertEquals(1000 + Config.MIN_SAMPLE_INTERVAL_MILLIS, _scheduler.getNextDueTime());
+	}
+
+	@Test
+	public void removedDeviceIsNotPolled() {
+		_scheduler.update(Arrays.asList(_device, _other), 1000);
+		_scheduler.update(Arrays.asList(_other), 1000);
+		assertSame(_other, _scheduler.pollDue(1000));
+		assertNull(_scheduler.pollDue(1000));
+	}
+
+	@Test
+	public void failingDeviceIsBackedOff() {
+		_scheduler.update(Arrays.asList(_device), 1000);
+		long openUntil = failUntilOpen(1000) + Config.CIRCUIT_BREAKER_OPEN_MILLIS;
+		assertEquals(CircuitBreaker.State.open, _scheduler.getCircuitState(_device));
+		assertEquals(1, _scheduler.getOpenCircuitCount());
+		assertEquals(openUntil, _scheduler.getNextDueTime());
+		assertNull(_scheduler.pollDue(openUntil - 1));
+		assertSame(_device, _scheduler.pollDue(openUntil));
+		assertEquals(CircuitBreaker.State.halfOpen, _scheduler.getCircuitState(_device));
+	}
+
+	@Test
+	public void openBreakerHoldsBackPostponedDevice() {
+		_scheduler.update(Arrays.asList(_device), 1000);
+		long now = failUntilOpen(1000);
+		long openUntil = now + Config.CIRCUIT_BREAKER_OPEN_MILLIS;
+		_scheduler.postpone(_device, now);
+		assertNull(_scheduler.pollDue(now));
+		assertEquals(openUntil, _scheduler.getNextDueTime());
+		assertEquals(CircuitBreaker.State.open, _scheduler.getCircuitState(_device));
+		assertSame(_device, _scheduler.pollDue(openUntil));
+	}
+
+	@Test
+	public void openBreakerDoesNotHoldBackOthers() {
+		_scheduler.update(Arrays.asList(_device), 1000);
+		long now = failUntilOpen(1000);
+		_scheduler.postpone(_device, now);
+		_scheduler.update(Arrays.asList(_device, _other), now);
+		assertSame(_other, _scheduler.pollDue(now));
+		assertNull(_scheduler.pollDue(now));
+	}
+}
@@ -0,0 +1,96 @@
+package nl.dobots.fridgefile;
+
+import org.junit.Test;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Copyright (c) 2026 agent <agent@local>. All rights reserved.
+ * <p/>
+ * This code is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License version 3, as
+ * published by the Free Software Foundation.
+ * <p/>
+ * This code is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE.  See the GNU General Public License
+ * version 3 for more details (a copy is included in the LICENSE file that
+ * accompanied this code).
+ * <p/>
+ * Created on 18-10-26
+ *
+ * @author agent
+ */
+
+/**
+ * Runs the sampling loop against simulated fleets of 10, 100 and 500 fridges on a virtual
+ * clock, and reports cycle time, samples per second and failures for each. The fleets only
+ * depend on the seed, so the numbers can be compared between runs. Runs with the unit tests,
+ * or on its own through main.
+ */
+public class SamplingBenchmark {
+
+	private static final int[] FLEET_SIZES = { 10, 100, 500 };
+	/** Virtual time each fleet is sampled */
+	private static final long DURATION_MILLIS = 30 * 60000; // ms
+	/** Fraction of the fridges that never answer a connect */
+	private static final double UNREACHABLE_RATE = 0.05;
+	/** Chance that an operation on a reachable fridge fails */
+	private static final double FAILURE_RATE = 0.02;
+
+	public static void main(String[] args) {
+		for (int size : FLEET_SIZES) {
+			System.out.print(getReport(run(size)));
+		}
+	}
+
+	@Test
+	public void samplesEveryFleetSize() {
+		for (int size : FLEET_SIZES) {
+			SimulatedRun run = run(size);
+			System.out.print(getReport(run));
+			assertTrue(run.loop.getMetrics().getSamples() > 0);
+			assertTrue(run.loop.getMetrics().getCycle().getCount() > 0);
+		}
+	}
+
+	private static SimulatedRun run(int size) {
+		SimulatedRun run = new SimulatedRun(size, UNREACHABLE_RATE, FAILURE_RATE, Config.DEFAULT_CONCURRENT_CONNECTIONS);
+		run.start();
+		run.runFor(DURATION_MILLIS);
+		return run;
+	}
+
+	private static String getReport(SimulatedRun run) {
+		SamplingMetrics metrics = run.loop.getMetrics();
+		long failed = 0;
+		Map<Integer, Long> failures = new HashMap<>();
+		for (SimulatedFleet.Fridge fridge : run.fleet.getFridges()) {
+			SamplingMetrics.DeviceMetrics device = metrics.getDevice(fridge.getAddress());
+			for (Map.Entry<Integer, AtomicLong> failure : device.getFailures().entrySet()) {
+				long count = failure.getValue().get();
+				Long total = failures.get(failure.getKey());
+				failures.put(failure.getKey(), total == null ? count : total + count);
+				failed += count;
+			}
+		}
+		double seconds = DURATION_MILLIS / 1000.0;
+		StringBuilder sb = new StringBuilder();
+		sb.append(run.fleet.size()).append(" devices, ").append(run.loop.getConcurrentConnections()).append(" connections\n");
+		sb.append("  cycle [ms]: mean ").append(metrics.getCycle().getMean());
+		sb.append(", p90 <= ").append(metrics.getCycle().getPercentile(90));
+		sb.append(", max ").append(metrics.getCycle().getMax()).append("\n");
+		sb.append("  samples/s: ").append(String.format("%.2f", metrics.getSamples() / seconds)).append("\n");
+		sb.append("  failed: ").append(failed);
+		for (Map.Entry<Integer, Long> failure : failures.entrySet()) {
+			sb.append(", ").append(failure.getValue()).append(" (error ").append(failure.getKey()).append(")");
+		}
+		sb.append("\n");
+		sb.append("  backed off devices: ").append(run.loop.getScheduler().getOpenCircuitCount()).append("\n");
+		return sb.toString();
+	}
+}
@@ -0,0 +1,91 @@
+package nl.dobots.fridgefile;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Copyright (c) 2026 agent <agent@local>. All rights reserved.
+ * <p/>
+ * This code is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License version 3, as
+ * published by the Free Software Foundation.
+ * <p/>
+ * This code is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE.  See the GNU General Public License
+ * version 3 for more details (a copy is included in the LICENSE file that
+ * accompanied this code).
+ * <p/>
+ * Created on 18-10-26
+ *
+ * @author agent
+ */
+
+/**
+ * Runs the sampling loop against a simulated fleet on a virtual clock
+ */
+public class SamplingLoopTest {
+
+	@Test
+	public void sameSeedGivesSameRun() {
+		SimulatedRun first = new SimulatedRun(20, 0.1, 0.02, 3);
+		first.start();
+		first.runFor(30 * 60000);
+		SimulatedRun second = new SimulatedRun(20, 0.1, 0.02, 3);
+		second.start();
+		second.runFor(30 * 60000);
+
+		assertFalse(first.samples.isEmpty());
+		assertEquals(first.samples, second.samples);
+		assertEquals(first.loop.getMetrics().getSamples(), second.loop.getMetrics().getSamples());
+		assertEquals(first.loop.getScheduler().getOpenCircuitCount(), second.loop.getScheduler().getOpenCircuitCount());
+	}
+
+	@Test
+	public void samplesEveryReachableFridge() {
+		SimulatedRun run = new SimulatedRun(10, 0, 0, 2);
+		run.start();
+		run.runFor(10 * 60000);
+		for (StoredBleDevice device : run.devices) {
+			boolean sampled = false;
+			for (String sample : run.samples) {
+				sampled |= sample.contains(device.getAddress());
+			}
+			assertTrue(device.getAddress() + " not sampled", sampled);
+		}
+	}
+
+	@Test
+	public void unreachableFridgesAreBackedOff() {
+		SimulatedRun run = new SimulatedRun(30, 0.2, 0, 3);
+		run.start();
+		run.runFor(30 * 60000);
+		int unreachable = 0;
+		for (SimulatedFleet.Fridge fridge : run.fleet.getFridges()) {
+			if (!fridge.isReachable()) {
+				unreachable++;
+			}
+		}
+		assertTrue(unreachable > 0);
+		assertEquals(unreachable, run.loop.getScheduler().getOpenCircuitCount());
+	}
+
+	@Test
+	public void haltWaitsForSessions() {
+		SimulatedRun run = new SimulatedRun(10, 0, 0, 3);
+		run.start();
+		run.runFor(1000);
+		assertFalse(run.loop.allSessionsIdle());
+		run.loop.setSampling(false);
+		run.loop.cancel();
+		run.runFor(Config.SAMPLE_DISCONNECT_TIMEOUT_MILLIS + 1000);
+		assertTrue(run.loop.allSessionsIdle());
+		assertTrue(run.idleCount > 0);
+		int samples = run.samples.size();
+		run.runFor(10 * 60000);
+		assertEquals(samples, run.samples.size());
+	}
+}
@@ -0,0 +1,100 @@
+package nl.dobots.fridgefile;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import nl.dobots.bluenet.ble.base.callbacks.IStatusCallback;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+
+/**
+ * Copyright (c) 2026 agent <agent@local>. All rights reserved.
+ * <p/>
+ * This code is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License version 3, as
+ * published by the Free Software Foundation.
+ * <p/>
+ * This code is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE.  See the GNU General Public License
+ * version 3 for more details (a copy is included in the LICENSE file that
+ * accompanied this code).
+ * <p/>
+ * Created on 18-10-26
+ *
+ * @author agent
+ */
+public class SimulatedBleBackendTest {
+
+	/** Keeps the result of an operation */
+	private static class Result implements IStatusCallback {
+		Integer error;
+
+		@Override
+		public void onSuccess() {
+			error = 0;
+		}
+
+		@Override
+		public void onError(int error) {
+			this.error = error;
+		}
+	}
+
+	private VirtualClock _clock;
+	private SimulatedFleet _fleet;
+	private SimulatedBleBackend _ble;
+
+	@Before
+	public void setUp() {
+		_clock = new VirtualClock(1500000000000L);
+		_fleet = new SimulatedFleet(20, 42, 0.3, _clock);
+		_fleet.setFailureRate(0);
+		_ble = new SimulatedBleBackend(_fleet);
+		_ble.init(null, new Result());
+	}
+
+	private SimulatedFleet.Fridge getFridge(boolean reachable) {
+		for (SimulatedFleet.Fridge fridge : _fleet.getFridges()) {
+			if (fridge.isReachable() == reachable) {
+				return fridge;
+			}
+		}
+		throw new AssertionError("no fridge found");
+	}
+
+	private void runFor(long duration) {
+		_clock.runUntil(_clock.now() + duration);
+	}
+
+	@Test
+	public void writesToUnreachableFridgeFail() {
+		SimulatedFleet.Fridge fridge = getFridge(false);
+		Result reset = new Result();
+		_ble.resetAlert(fridge.getAddress(), reset);
+		Result setMin = new Result();
+		_ble.setMinEnvTemp(fridge.getAddress(), 2, setMin);
+		runFor(Config.SAMPLE_CONNECT_TIMEOUT_MILLIS);
+		assertNotNull(reset.error);
+		assertEquals(SimulatedBleBackend.ERROR_UNREACHABLE, (int) reset.error);
+		assertNotNull(setMin.error);
+		assertEquals(SimulatedBleBackend.ERROR_UNREACHABLE, (int) setMin.error);
+	}
+
+	@Test
+	public void resetAlertClearsAlert() {
+		SimulatedFleet.Fridge fridge = getFridge(true);
+		fridge.setMaxTemperature(-100);
+		fridge.getAlert(_fleet.getTemperature(fridge));
+		fridge.setMaxTemperature(100);
+		// stays raised while it isn't reset
+		assertEquals(SimulatedFleet.ALERT_TEMPERATURE_HIGH, fridge.getAlert(_fleet.getTemperature(fridge)));
+
+		Result reset = new Result();
+		_ble.resetAlert(fridge.getAddress(), reset);
+		runFor(1000);
+		assertEquals(0, (int) reset.error);
+		assertEquals(0, fridge.getAlert(_fleet.getTemperature(fridge)));
+	}
+}
@@ -0,0 +1,102 @@
+package nl.dobots.fridgefile;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import nl.dobots.bluenet.ble.base.callbacks.IStatusCallback;
+import nl.dobots.bluenet.ble.base.structs.BleAlertState;
+
+/**
+ * Copyright (c) 2026 agent <agent@local>. All rights reserved.
+ * <p/>
+ * This code is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License version 3, as
+ * published by the Free Software Foundation.
+ * <p/>
+ * This code is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE.  See the GNU General Public License
+ * version 3 for more details (a copy is included in the LICENSE file that
+ * accompanied this code).
+ * <p/>
+ * Created on 18-10-26
+ *
+ * @author agent
+ */
+
+/**
+ * The sampling loop with its sessions on a simulated fleet and a virtual clock, records every
+ * temperature that comes in
+ */
+class SimulatedRun implements SamplingLoop.Listener, BleFridgeServiceListener {
+
+	static final long START_TIME = 1500000000000L;
+	static final long SEED = 42;
+
+	final VirtualClock clock = new VirtualClock(START_TIME);
+	final SimulatedFleet fleet;
+	final List<StoredBleDevice> devices;
+	final SamplingLoop loop;
+	final List<String> samples = new ArrayList<>();
+	int idleCount;
+
+	private final Runnable _wakeUpRunnable = new Runnable() {
+		@Override
+		public void run() {
+			loop.update(devices);
+			loop.dispatch();
+		}
+	};
+
+	SimulatedRun(int size, double unreachableRate, double failureRate, int connections) {
+		fleet = new SimulatedFleet(size, SEED, unreachableRate, clock);
+		fleet.setFailureRate(failureRate);
+		devices = fleet.createStoredDevices();
+		loop = new SamplingLoop(clock, _wakeUpRunnable, this);
+		loop.setConcurrentConnections(connections);
+		for (int i = 0; i < loop.getConcurrentConnections(); i++) {
+			BleBackend ble = new SimulatedBleBackend(fleet);
+			ble.init(null, new IStatusCallback() {
+				@Override
+				public void onSuccess() {
+
+				}
+
+				@Override
+				public void onError(int error) {
+
+				}
+			});
+			loop.addSession(new SamplingSession(i, ble, clock, this));
+		}
+	}
+
+	void start() {
+		loop.setSampling(true);
+		clock.postDelayed(_wakeUpRunnable, 0);
+	}
+
+	void runFor(long duration) {
+		clock.runUntil(clock.now() + duration);
+	}
+
+	@Override
+	public boolean needsPolling(StoredBleDevice device, long now) {
+		return true;
+	}
+
+	@Override
+	public void onIdle() {
+		idleCount++;
+	}
+
+	@Override
+	public void onTemperature(StoredBleDevice device, int temperature) {
+		samples.add(clock.now() + " " + device.getAddress() + " " + temperature);
+	}
+
+	@Override
+	public void onAlert(StoredBleDevice device, BleAlertState oldAlertState, BleAlertState newAlertState) {
+
+	}
+}
@@ -0,0 +1,87 @@
+package nl.dobots.fridgefile;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+
+/**
+ * Copyright (c) 2026 agent <agent@local>. All rights reserved.
+ * <p/>
+ * This code is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License version 3, as
+ * published by the Free Software Foundation.
+ * <p/>
+ * This code is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE.  See the GNU General Public License
+ * version 3 for more details (a copy is included in the LICENSE file that
+ * accompanied this code).
+ * <p/>
+ * Created on 18-10-26
+ *
+ * @author agent
+ */
+public class TemperatureBlockTest {
+
+	private static TemperatureBlock roundTrip(long[] times, int[] temperatures) {
+		TemperatureBlock block = new TemperatureBlock(times, temperatures);
+		TemperatureBlock decoded = TemperatureBlock.decode(block.encode(), block.start, block.size());
+		assertArrayEquals(times, decoded.times);
+		assertArrayEquals(temperatures, decoded.temperatures);
+		assertEquals(block.start, decoded.start);
+		assertEquals(block.end, decoded.end);
+		return decoded;
+	}
+
+	@Test
+	public void singleSample() {
+		TemperatureBlock block = roundTrip(new long[] { 1500000000000L }, new int[] { -18 });
+		assertEquals(-18, block.minimum);
+		assertEquals(-18, block.maximum);
+	}
+
+	@Test
+	public void regularInterval() {
+		long[] times = new long[256];
+		int[] temperatures = new int[256];
+		for (int i = 0; i < times.length; i++) {
+			times[i] = 1500000000000L + i * 60000L;
+			temperatures[i] = 4 + i % 3;
+		}
+		TemperatureBlock block = new TemperatureBlock(times, temperatures);
+		// after the first interval, which takes three bytes, the same interval costs a byte per
+		// sample for the time
+		assertEquals(3 + 254 + 256, block.encode().length);
+		roundTrip(times, temperatures);
+	}
+
+	@Test
+	public void negativeDeltas() {
+		// the interval shrinks, so the delta of the deltas is negative, and the temperature drops
+		roundTrip(new long[] { 1500000000000L, 1500000060000L, 1500000061000L, 1500000061001L, 1500000061001L },
+				new int[] { 20, -5, -30, 7, -128 });
+	}
+
+	@Test
+	public void varintBoundaries() {
+		// zigzag values just below and above a byte of 7 bits, two bytes and four bytes
+		long[] deltas = { 63, 64, -64, -65, 8191, 8192, -8192, -8193, (1L << 27) - 1, 1L << 27, 1L << 40 };
+		long[] times = new long[deltas.length + 1];
+		times[0] = 1500000000000L;
+		long delta = 0;
+		for (int i = 0; i < deltas.length; i++) {
+			delta += deltas[i];
+			times[i + 1] = times[i] + delta;
+		}
+		int[] temperatures = { 0, 63, -1, 64, -64, 0, 8191, -1, 8192, Integer.MAX_VALUE / 2, Integer.MIN_VALUE / 2, 0 };
+		roundTrip(times, temperatures);
+	}
+
+	@Test
+	public void extremes() {
+		TemperatureBlock block = roundTrip(new long[] { 0, 1, 3 }, new int[] { 5, -40, 85 });
+		assertEquals(-40, block.minimum);
+		assertEquals(85, block.maximum);
+	}
+}
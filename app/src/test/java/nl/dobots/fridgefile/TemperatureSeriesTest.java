@@ -0,0 +1,109 @@
+package nl.dobots.fridgefile;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Copyright (c) 2026 agent <agent@local>. All rights reserved.
+ * <p/>
+ * This code is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License version 3, as
+ * published by the Free Software Foundation.
+ * <p/>
+ * This code is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE.  See the GNU General Public License
+ * version 3 for more details (a copy is included in the LICENSE file that
+ * accompanied this code).
+ * <p/>
+ * Created on 18-10-26
+ *
+ * @author agent
+ */
+public class TemperatureSeriesTest {
+
+	private static TemperatureSeries series(long start, long interval, int... temperatures) {
+		TemperatureSeries series = new TemperatureSeries(2);
+		for (int i = 0; i < temperatures.length; i++) {
+			series.add(start + i * interval, temperatures[i]);
+		}
+		return series;
+	}
+
+	@Test
+	public void keepsBounds() {
+		TemperatureSeries series = series(1000, 10, 5, -3, 8, 2);
+		assertEquals(4, series.size());
+		assertEquals(1000, series.getMinTime());
+		assertEquals(1030, series.getMaxTime());
+		assertEquals(-3, series.getMinTemperature());
+		assertEquals(8, series.getMaxTemperature());
+		series.clear();
+		assertTrue(series.isEmpty());
+	}
+
+	@Test
+	public void smallRangeIsCopied() {
+		TemperatureSeries series = series(0, 10, 1, 2, 3, 4, 5);
+		TemperatureSeries into = series.downsample(15, 35, 10, new TemperatureSeries());
+		// 20 and 30, and the samples just outside the range
+		assertEquals(4, into.size());
+		for (int i = 0; i < into.size(); i++) {
+			assertEquals(series.getTime(i + 1), into.getTime(i));
+			assertEquals(series.getTemperature(i + 1), into.getTemperature(i));
+		}
+	}
+
+	@Test
+	public void keepsMinAndMaxOfEveryBucket() {
+		// 10 buckets of 100 samples, with a spike down and up in every bucket
+		int[] temperatures = new int[1000];
+		for (int i = 0; i < temperatures.length; i++) {
+			temperatures[i] = 5;
+		}
+		for (int bucket = 0; bucket < 10; bucket++) {
+			temperatures[bucket * 100 + 30] = -bucket - 1;
+			temperatures[bucket * 100 + 60] = 20 + bucket;
+		}
+		TemperatureSeries series = series(0, 1, temperatures);
+		TemperatureSeries into = series.downsample(0, 1000, 10, new TemperatureSeries());
+
+		assertTrue(into.size() <= 2 * 10 + 2);
+		assertEquals(series.getMinTemperature(), into.getMinTemperature());
+		assertEquals(series.getMaxTemperature(), into.getMaxTemperature());
+		for (int bucket = 0; bucket < 10; bucket++) {
+			boolean low = false;
+			boolean high = false;
+			for (int i = 0; i < into.size(); i++) {
+				low |= into.getTime(i) == bucket * 100 + 30 && into.getTemperature(i) == -bucket - 1;
+				high |= into.getTime(i) == bucket * 100 + 60 && into.getTemperature(i) == 20 + bucket;
+			}
+			assertTrue("low of bucket " + bucket, low);
+			assertTrue("high of bucket " + bucket, high);
+		}
+		// still in order of time
+		for (int i = 1; i < into.size(); i++) {
+			assertTrue(into.getTime(i - 1) < into.getTime(i));
+		}
+	}
+
+	@Test
+	public void keepsEdges() {
+		TemperatureSeries series = series(0, 1, new int[1000]);
+		TemperatureSeries into = series.downsample(100, 900, 10, new TemperatureSeries());
+		assertEquals(99, into.getTime(0));
+		assertEquals(900, into.getTime(into.size() - 1));
+	}
+
+	@Test
+	public void emptyRange() {
+		TemperatureSeries series = series(0, 10, 1, 2, 3);
+		TemperatureSeries into = series.downsample(1000, 2000, 10, new TemperatureSeries());
+		// only the sample just before the range
+		assertEquals(1, into.size());
+		assertEquals(20, into.getTime(0));
+		assertTrue(new TemperatureSeries().downsample(0, 100, 10, into).isEmpty());
+	}
+}
@@ -0,0 +1,98 @@
+package nl.dobots.fridgefile;
+
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.PriorityQueue;
+
+/**
+ * Copyright (c) 2026 agent <agent@local>. All rights reserved.
+ * <p/>
+ * This code is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License version 3, as
+ * published by the Free Software Foundation.
+ * <p/>
+ * This code is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE.  See the GNU General Public License
+ * version 3 for more details (a copy is included in the LICENSE file that
+ * accompanied this code).
+ * <p/>
+ * Created on 18-10-26
+ *
+ * @author agent
+ */
+
+/**
+ * Clock that only moves when told to. Posted runnables run in order of their time, runnables
+ * posted for the same time in the order they were posted.
+ */
+public class VirtualClock implements Clock {
+
+	private static class Post {
+		final long time;
+		final long order;
+		final Runnable runnable;
+
+		Post(long time, long order, Runnable runnable) {
+			this.time = time;
+			this.order = order;
+			this.runnable = runnable;
+		}
+	}
+
+	private final PriorityQueue<Post> _posts = new PriorityQueue<>(11, new Comparator<Post>() {
+		@Override
+		public int compare(Post lhs, Post rhs) {
+			if (lhs.time != rhs.time) {
+				return lhs.time < rhs.time ? -1 : 1;
+			}
+			return lhs.order < rhs.order ? -1 : (lhs.order == rhs.order ? 0 : 1);
+		}
+	});
+	private long _now;
+	private long _order;
+
+	public VirtualClock(long now) {
+		_now = now;
+	}
+
+	@Override
+	public synchronized long now() {
+		return _now;
+	}
+
+	@Override
+	public synchronized void postDelayed(Runnable runnable, long delay) {
+		_posts.add(new Post(_now + Math.max(delay, 0), _order++, runnable));
+	}
+
+	@Override
+	public synchronized void removeCallbacks(Runnable runnable) {
+		Iterator<Post> it = _posts.iterator();
+		while (it.hasNext()) {
+			if (it.next().runnable == runnable) {
+				it.remove();
+			}
+		}
+	}
+
+	/**
+	 * Run everything that was posted up to the given time, including what gets posted while
+	 * running, and leave the clock at that time
+	 */
+	public void runUntil(long time) {
+		while (true) {
+			Post post;
+			synchronized (this) {
+				post = _posts.peek();
+				if (post == null || post.time > time) {
+					_now = time;
+					return;
+				}
+				_posts.poll();
+				_now = post.time;
+			}
+			post.runnable.run();
+		}
+	}
+}